@@ -1,55 +1,789 @@
 package nl.bvs.srtfixer;
 
 import nl.bvs.srtfixer.util.BackupUtil;
+import nl.bvs.srtfixer.util.BatchJob;
+import nl.bvs.srtfixer.util.ChangeJournal;
+import nl.bvs.srtfixer.util.CharsetSniffer;
+import nl.bvs.srtfixer.util.CompareChannel;
+import nl.bvs.srtfixer.util.DirectoryWatcher;
+import nl.bvs.srtfixer.util.Constants;
+import nl.bvs.srtfixer.util.FileFinder;
+import nl.bvs.srtfixer.util.FilePrefetcher;
+import nl.bvs.srtfixer.util.FixerMetrics;
+import nl.bvs.srtfixer.util.Manifest;
+import nl.bvs.srtfixer.util.SubtitleArchive;
+import nl.bvs.srtfixer.util.SubtitleIO;
+import nl.bvs.srtfixer.util.Verbosity;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public abstract class BaseFixer {
     /** Helps backing up files in case you're not feeling very confident. */
-    private BackupUtil backupUtil;
+    private final BackupUtil backupUtil;
+    /** What the fixers have been up to, shared by all of them. */
+    private final FixerMetrics metrics = FixerMetrics.get();
+    /** Where the changes of the current run are recorded, null when not recording. */
+    private volatile ChangeJournal journal;
+    /** The file the current thread is fixing, for the change journal. */
+    private final ThreadLocal<File> currentFile = new ThreadLocal<>();
+    /** Whether files are only checked, not written. */
+    private volatile boolean checkOnly;
+
+    /** Console output for the file the current thread is fixing. Printed in one go, so the output of files doesn't get mixed up. */
+    private final ThreadLocal<StringBuilder> output = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder();
+        }
+    };
 
     protected abstract void process();
     protected abstract void fixFile(final BufferedReader reader, final BufferedWriter writer) throws Exception;
 
     public BaseFixer() {
         backupUtil = new BackupUtil();
+        if (Constants.METRICS_JMX) {
+            metrics.register();
+        }
+    }
+
+    /**
+     * A fixer that keeps its backups in the given place, and stays out of JMX. For tests.
+     */
+    BaseFixer(final BackupUtil backupUtil) {
+        this.backupUtil = backupUtil;
     }
 
-    protected final void fix(final File fileToFix) {
+    /**
+     * Fixes the given file, by writing the fixed version to a temp file and replacing the original with it.
+     * Files that don't change are left alone, they aren't even written. Zip archives get the SRT files
+     * in them fixed, if enabled. When only checking, nothing is written at all.
+     *
+     * @param fileToFix the file to fix
+     * @return true if the file was fixed, false if something went wrong
+     */
+    protected final boolean fix(final File fileToFix) {
         if (!fileToFix.exists()) {
             System.err.println("File does not exist :: " + fileToFix.getPath());
-            return;
+            return false;
+        }
+        if (Constants.FIX_ARCHIVES && isArchive(fileToFix)) {
+            return fixArchive(fileToFix);
         }
 
         // initialise
-        final String rootDir = fileToFix.getParent();
-        final String oldFileName = rootDir + File.separator + fileToFix.getName();
-        final String tmpFileName = rootDir + File.separator + "tmp_" + fileToFix.getName();
+        final long startNanos = System.nanoTime();
+        long lineCount = 0;
+        long byteCount = fileToFix.length();
+        long replaceStartNanos = startNanos;
+        final boolean changed;
+        final Path path = fileToFix.toPath();
+        final Path tmpPath = path.resolveSibling("tmp_" + fileToFix.getName());
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(oldFileName));
-             BufferedWriter writer = new BufferedWriter(new FileWriter(tmpFileName))) {
-            fixFile(reader, writer);
+        currentFile.set(fileToFix);
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ);
+             CompareChannel out = new CompareChannel(in, checkOnly ? null : tmpPath)) {
+            // write it back in the charset it came in, the tmp file is only created once it differs
+            final CharsetSniffer.Detection detection = SubtitleIO.sniff(in);
+            try (LineNumberReader reader = SubtitleIO.newReader(in, detection)) {
+                try (BufferedWriter writer = SubtitleIO.newWriter(out, detection)) {
+                    fixFile(reader, writer);
+                }
+                lineCount = reader.getLineNumber();
+                byteCount = in.size();
+
+                // make sure it is all on disk before it replaces the original, closing the reader closes the original
+                replaceStartNanos = System.nanoTime();
+                changed = out.finish();
+            }
+        } catch (final CompareChannel.ChangedException e) {
+            // only checking, and this is enough to know it would change
+            recordChecked(fileToFix, true);
+            metrics.recordFile(lineCount, byteCount, System.nanoTime() - startNanos);
+            return true;
         } catch (Exception e) {
             e.printStackTrace();
-            return;
+            deleteTmpFile(tmpPath);
+            metrics.recordFailure();
+            return false;
+        } finally {
+            currentFile.remove();
+            metrics.flushRuleCounters();
+            flushOutput();
         }
 
-        // Once everything is complete, delete old file..
-        final File oldFile = new File(oldFileName);
-        final boolean deleted = oldFile.delete();
-        if (!deleted) {
-            System.err.println("Error deleting the old file.");
+        if (checkOnly || !changed) {
+            // nothing to write, the original (and its last modified time) stays as it is
+            recordChecked(fileToFix, changed);
+            metrics.recordFile(lineCount, byteCount, System.nanoTime() - startNanos);
+            return true;
         }
 
-        // And rename tmp file's name to old file name
-        final File newFile = new File(tmpFileName);
-        final boolean renamed = newFile.renameTo(oldFile);
-        if (!renamed) {
-            System.err.println("Error renaming the temp file.");
+        // Once everything is complete, replace the old file in one go
+        try {
+            SubtitleIO.replace(tmpPath, path);
+        } catch (final IOException e) {
+            System.err.println("Error replacing the old file :: " + path);
+            e.printStackTrace();
+            deleteTmpFile(tmpPath);
+            metrics.recordFailure();
+            return false;
+        }
+
+        final long endNanos = System.nanoTime();
+        metrics.recordChanged();
+        metrics.recordReplace(endNanos - replaceStartNanos);
+        metrics.recordFile(lineCount, byteCount, endNanos - startNanos);
+        return true;
+    }
+
+    /**
+     * Counts a file that would change when only checking, and says so.
+     */
+    private void recordChecked(final File file, final boolean changed) {
+        if (changed) {
+            metrics.recordChanged();
+            if (Constants.VERBOSITY != Verbosity.QUIET) {
+                log("Would change :: " + file.getPath());
+            }
+        }
+    }
+
+    /**
+     * Fixes the SRT files in a zip archive, streaming them from the original into a new archive,
+     * which replaces the original. Archives without SRT files, or in which none of them change,
+     * are left alone.
+     */
+    private boolean fixArchive(final File archive) {
+        final long startNanos = System.nanoTime();
+        final long[] lineCount = new long[1];
+        final long replaceStartNanos;
+        final int changed;
+        final Path path = archive.toPath();
+        final Path tmpPath = path.resolveSibling("tmp_" + archive.getName());
+
+        try {
+            if (!SubtitleArchive.contains(path, Constants.SRT_EXTENSION)) {
+                return true;
+            }
+
+            changed = SubtitleArchive.fix(path, checkOnly ? null : tmpPath, Constants.SRT_EXTENSION, new SubtitleArchive.EntryFixer() {
+                @Override
+                public void fixEntry(final String name, final BufferedReader reader, final BufferedWriter writer) throws Exception {
+                    // the journal gets pack.zip/dir/file.srt as path
+                    currentFile.set(new File(archive, name));
+                    try (LineNumberReader lines = new LineNumberReader(reader)) {
+                        fixFile(lines, writer);
+                        lineCount[0] += lines.getLineNumber();
+                    }
+                }
+            });
+
+            replaceStartNanos = System.nanoTime();
+            if (changed == 0 || checkOnly) {
+                deleteTmpFile(tmpPath);
+                recordChecked(archive, changed > 0);
+                metrics.recordFile(lineCount[0], archive.length(), replaceStartNanos - startNanos);
+                return true;
+            }
+            SubtitleIO.replace(tmpPath, path);
+        } catch (final Exception e) {
+            System.err.println("Error fixing the archive :: " + path);
+            e.printStackTrace();
+            deleteTmpFile(tmpPath);
+            metrics.recordFailure();
+            return false;
+        } finally {
+            currentFile.remove();
+            metrics.flushRuleCounters();
+            flushOutput();
+        }
+
+        final long endNanos = System.nanoTime();
+        metrics.recordChanged();
+        metrics.recordReplace(endNanos - replaceStartNanos);
+        metrics.recordFile(lineCount[0], archive.length(), endNanos - startNanos);
+        return true;
+    }
+
+    private static boolean isArchive(final File file) {
+        final String name = file.getName();
+        return name.substring(name.lastIndexOf('.') + 1).equalsIgnoreCase(Constants.ZIP_EXTENSION);
+    }
+
+    private void deleteTmpFile(final Path tmpPath) {
+        try {
+            Files.deleteIfExists(tmpPath);
+        } catch (final IOException e) {
+            System.err.println("Error deleting the temp file :: " + tmpPath);
         }
     }
 
     protected final void backupFile(final File fileToBackup) {
+        final long startNanos = System.nanoTime();
         backupUtil.makeBackup(fileToBackup);
+        metrics.recordBackup(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Backs up the contents of a file as they were read, see BackupUtil.
+     */
+    private void backupFile(final File fileToBackup, final byte[] contents) {
+        final long startNanos = System.nanoTime();
+        backupUtil.makeBackup(fileToBackup, contents);
+        metrics.recordBackup(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Backs up (if enabled) and fixes all SRT files in the given dir and its sub dirs, as they
+     * are found, using the settings in the Constants.
+     *
+     * @param rootDir the dir to fix the files in
+     * @param rulesVersion the version of the rules the files are fixed with, for the manifest
+     */
+    protected final void fixDirectory(final File rootDir, final int rulesVersion) {
+        startJournal(rootDir);
+
+        // skip the files that were already fixed by a previous run, if enabled
+        final Manifest manifest = Constants.USE_MANIFEST ? Manifest.load(rootDir, rulesVersion) : null;
+
+        // walk over all srt files in the root dir, they are fixed as soon as they are found
+        // process each file, making a backup first if it is enabled
+        fixAll(rootDir, newFileFinder(), manifest, rulesVersion);
+
+        if (manifest != null) {
+            manifest.save();
+        }
+
+        closeJournal();
+        printMetrics();
+    }
+
+    /**
+     * Checks which SRT files in the given dir and its sub dirs would change by fixing them,
+     * without writing anything. Each file is only fixed up to its first change.
+     *
+     * @param rootDir the dir to check the files in
+     * @param rulesVersion the version of the rules the files are fixed with, for the manifest
+     * @return the number of files that would change
+     */
+    protected final long checkDirectory(final File rootDir, final int rulesVersion) {
+        return fixTargets(Collections.singletonList(rootDir), rulesVersion, true);
+    }
+
+    /**
+     * Backs up (if enabled) and fixes the given files, and the files in the given dirs, or only
+     * checks which of them would change. For the command line.
+     *
+     * @param targets the files and dirs to fix
+     * @param rulesVersion the version of the rules the files are fixed with, for the manifest
+     * @param check true to only check, without writing anything
+     * @return the number of files that changed, or would change when checking
+     */
+    final long fixTargets(final List<File> targets, final int rulesVersion, final boolean check) {
+        final long changedBefore = metrics.getChangedFiles();
+        checkOnly = check;
+        try {
+            for (final File target : targets) {
+                if (!check) {
+                    startJournal(target.isDirectory() ? target : target.getAbsoluteFile().getParentFile());
+                }
+
+                if (target.isDirectory()) {
+                    // files fixed by a previous run are skipped, when checking nothing is recorded
+                    final Manifest manifest = Constants.USE_MANIFEST ? Manifest.load(target, rulesVersion) : null;
+                    if (check) {
+                        try (FileFinder.Walk files = newFileFinder().walk(target, getExtensions())) {
+                            fixAll(files, Constants.FILEFIXER_THREADS, manifest);
+                        }
+                    } else {
+                        fixAll(target, newFileFinder(), manifest, rulesVersion);
+                    }
+                    if (manifest != null && !check) {
+                        manifest.save();
+                    }
+                } else {
+                    backupAndFix(target, null, null);
+                }
+
+                closeJournal();
+            }
+        } finally {
+            checkOnly = false;
+        }
+
+        printMetrics();
+        return metrics.getChangedFiles() - changedBefore;
+    }
+
+    /**
+     * Fixes all SRT files in the given dir and its sub dirs, like fixDirectory, and then keeps
+     * watching it, fixing new and changed files as soon as they have been left alone for a bit.
+     * Runs until the thread is interrupted.
+     *
+     * @param rootDir the dir to watch
+     * @param rulesVersion the version of the rules the files are fixed with, for the manifest
+     */
+    protected final void watchDirectory(final File rootDir, final int rulesVersion) {
+        final FileFinder fileFinder = newFileFinder();
+        // always used here, otherwise fixing a file would count as a change and fix it again
+        final Manifest manifest = Manifest.load(rootDir, rulesVersion);
+        startJournal(rootDir);
+
+        try {
+            // catch up on what came in while nobody was watching
+            try (FileFinder.Walk files = fileFinder.walk(rootDir, getExtensions())) {
+                fixAll(files, Constants.FILEFIXER_THREADS, manifest);
+            }
+            manifest.save();
+
+            final DirectoryWatcher watcher = new DirectoryWatcher(rootDir, fileFinder, getExtensions(),
+                    Constants.WATCH_QUIET_MILLIS, Collections.singletonList(new File(Constants.BACKUP_DIR)));
+            watcher.watch(new DirectoryWatcher.Listener() {
+                @Override
+                public void filesReady(final List<File> files) {
+                    fixAll(files, Constants.FILEFIXER_THREADS, manifest);
+                    manifest.save();
+                }
+            });
+        } catch (final IOException e) {
+            System.err.println("Failed to watch directory :: " + rootDir);
+            e.printStackTrace();
+        } finally {
+            closeJournal();
+        }
+    }
+
+    /**
+     * @return the extensions of the files to fix: SRT files, and zip archives if enabled
+     */
+    private static String[] getExtensions() {
+        if (Constants.FIX_ARCHIVES) {
+            return new String[]{Constants.SRT_EXTENSION, Constants.ZIP_EXTENSION};
+        }
+        return new String[]{Constants.SRT_EXTENSION};
+    }
+
+    static FileFinder newFileFinder() {
+        return new FileFinder(Constants.FILEFIXER_INCLUDES, Constants.FILEFIXER_EXCLUDES,
+                Constants.FILEFIXER_MAX_DEPTH, Constants.FILEFIXER_FOLLOW_LINKS);
+    }
+
+    /**
+     * Starts recording the changes in a journal in the given dir, if enabled.
+     *
+     * @param dir the dir to keep the journal in
+     */
+    protected final void startJournal(final File dir) {
+        if (Constants.WRITE_JOURNAL) {
+            journal = ChangeJournal.open(dir, Constants.JOURNAL_BINARY);
+        }
+    }
+
+    /**
+     * Writes out the changes that are still queued and stops recording them.
+     */
+    protected final void closeJournal() {
+        final ChangeJournal current = journal;
+        if (current != null) {
+            journal = null;
+            current.close();
+        }
+    }
+
+    /**
+     * Prints a summary of the metrics so far, if enabled.
+     */
+    protected final void printMetrics() {
+        if (Constants.PRINT_METRICS) {
+            System.out.print(metrics.getSummary());
+        }
+    }
+
+    /**
+     * Backs up (if enabled) and fixes all files of a walk over a dir, as a job that carries on where
+     * it was when it was killed, if enabled. Whatever was fixed before it was killed is skipped, and
+     * what it left behind is cleaned up, see BatchJob. The job is removed once all files are done.
+     *
+     * @param rootDir the dir that is walked, where the job is kept
+     * @param fileFinder the finder to walk the dir with
+     * @param manifest the manifest of files that were fixed before, and can be skipped. Null to fix all files.
+     * @param rulesVersion the version of the rules the files are fixed with, a job for other rules starts over
+     */
+    private void fixAll(final File rootDir, final FileFinder fileFinder, final Manifest manifest, final int rulesVersion) {
+        BatchJob job = null;
+        if (Constants.USE_JOB) {
+            try {
+                job = BatchJob.open(rootDir, rulesVersion);
+            } catch (final IOException e) {
+                System.err.println("Could not open the job, fixing without :: " + rootDir);
+                e.printStackTrace();
+            }
+        }
+        if (job == null) {
+            try (FileFinder.Walk files = fileFinder.walk(rootDir, getExtensions())) {
+                fixAll(files, Constants.FILEFIXER_THREADS, manifest);
+            }
+            return;
+        }
+
+        // the job cleans up the temp files a killed run left behind, so it gets to see them
+        try (FileFinder.Walk files = fileFinder.walkWithTempFiles(rootDir, getExtensions())) {
+            fixAll(job.files(files), Constants.FILEFIXER_THREADS, manifest, job);
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            job.close();
+        } else {
+            job.finish();
+        }
+    }
+
+    /**
+     * Backs up (if enabled) and fixes all given files. With more than one thread, the files are
+     * fixed in parallel, each file start to finish by a single thread. The files are handed out
+     * as they come, and the caller helps out when all workers are busy, so the files don't have
+     * to be known up front.
+     *
+     * @param files the files to fix
+     * @param threads the number of threads to use, 1 to fix the files one by one
+     * @param manifest the manifest of files that were fixed before, and can be skipped. Null to fix all files.
+     */
+    protected final void fixAll(final Iterable<File> files, final int threads, final Manifest manifest) {
+        fixAll(files, threads, manifest, null);
+    }
+
+    private void fixAll(final Iterable<File> files, final int threads, final Manifest manifest, final BatchJob job) {
+        if (Constants.PREFETCH_FILES > 0 && !checkOnly) {
+            fixAllPrefetched(files, threads, manifest, job);
+            return;
+        }
+        if (threads <= 1) {
+            for (final File file : files) {
+                backupAndFix(file, manifest, job);
+            }
+            return;
+        }
+
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * 4), new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            for (final File file : files) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        backupAndFix(file, manifest, job);
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                // still going, keep waiting
+            }
+        } catch (final InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Backs up (if enabled) and fixes all given files like fixAll, in stages that overlap: the next
+     * files are read ahead (see FilePrefetcher) while the ones before are fixed in memory, by the given
+     * number of threads, and the fixed ones are backed up and written by threads of their own. So on a
+     * slow share the reading, fixing and writing all happen at the same time, instead of one after the
+     * other for each file, and a run takes as long as the slowest of them.
+     *
+     * The files read ahead, and those waiting to be written, are limited (see PREFETCH_FILES and
+     * PREFETCH_MAX_MEMORY), so when one of the stages can't keep up, the others wait for it. Zip
+     * archives, and files too big to read ahead, are fixed the usual way, streaming, by the thread
+     * walking the files.
+     */
+    private void fixAllPrefetched(final Iterable<File> files, final int threads, final Manifest manifest, final BatchJob job) {
+        final FilePrefetcher prefetcher = new FilePrefetcher(Constants.PREFETCH_FILES, Constants.PREFETCH_MAX_MEMORY);
+        // no need to bound the queues, the prefetcher does that. 0 threads means one, like in fixAll.
+        final int fixThreads = Math.max(1, threads);
+        final int writeThreads = Math.max(1, Constants.WRITE_THREADS);
+        final ThreadPoolExecutor fixExecutor = new ThreadPoolExecutor(fixThreads, fixThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        final ThreadPoolExecutor writeExecutor = new ThreadPoolExecutor(writeThreads, writeThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>());
+
+        final FilePrefetcher.Listener listener = new FilePrefetcher.Listener() {
+            @Override
+            public void fileRead(final FilePrefetcher.Prefetched prefetched) {
+                fixExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        fixPrefetched(prefetched, prefetcher, writeExecutor, manifest, job);
+                    }
+                });
+            }
+
+            @Override
+            public void readFailed(final FilePrefetcher.Prefetched prefetched, final Throwable e) {
+                System.err.println("Error reading the file :: " + prefetched.getFile().getPath());
+                e.printStackTrace();
+                metrics.recordFailure();
+                prefetcher.release(prefetched);
+            }
+        };
+
+        try {
+            for (final File file : files) {
+                if (manifest != null && manifest.isUpToDate(file)) {
+                    if (job != null) {
+                        job.done(file);
+                    }
+                } else if ((Constants.FIX_ARCHIVES && isArchive(file)) || !file.isFile() || !prefetcher.read(file, listener)) {
+                    backupAndFix(file, manifest, job);
+                }
+            }
+        } catch (final InterruptedException e) {
+            // the files that were read still get done, the rest is for the next run
+            Thread.currentThread().interrupt();
+        } finally {
+            prefetcher.awaitIdle();
+            fixExecutor.shutdown();
+            writeExecutor.shutdown();
+        }
+    }
+
+    /**
+     * The fixing stage of fixAllPrefetched: fixes a file that was read ahead, and hands it to the
+     * writing stage. Whatever happens, the file is released, by the writing stage or here, or the
+     * run would wait for it forever.
+     */
+    private void fixPrefetched(final FilePrefetcher.Prefetched prefetched, final FilePrefetcher prefetcher,
+                               final ThreadPoolExecutor writeExecutor, final Manifest manifest, final BatchJob job) {
+        final File file = prefetched.getFile();
+        boolean handedOn = false;
+        try {
+            if (Constants.VERBOSITY != Verbosity.QUIET) {
+                log("Processing subtitle file :: " + file.getName());
+            }
+            final byte[] fixed = fix(file, prefetched.getBytes());
+            if (fixed == null) {
+                return;
+            }
+
+            writeExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (write(prefetched, fixed)) {
+                            if (manifest != null) {
+                                manifest.record(file);
+                            }
+                            if (job != null) {
+                                job.done(file);
+                            }
+                        }
+                    } catch (final RuntimeException e) {
+                        e.printStackTrace();
+                    } finally {
+                        prefetcher.release(prefetched);
+                    }
+                }
+            });
+            handedOn = true;
+        } catch (final RuntimeException e) {
+            // don't let one weird file take down the rest
+            e.printStackTrace();
+        } finally {
+            flushOutput();
+            if (!handedOn) {
+                prefetcher.release(prefetched);
+            }
+        }
+    }
+
+    /**
+     * Fixes a file that was read into memory already, like fix does with the file on disk.
+     *
+     * @param file the file
+     * @param original the contents of the file
+     * @return the fixed contents, the same instance if nothing changed, or null if something went wrong
+     */
+    private byte[] fix(final File file, final byte[] original) {
+        final long startNanos = System.nanoTime();
+        final CharsetSniffer.Detection detection = CharsetSniffer.detect(
+                ByteBuffer.wrap(original, 0, Math.min(original.length, CharsetSniffer.SNIFF_LENGTH)));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(original.length + original.length / 8);
+        final InputStream in = new ByteArrayInputStream(original, detection.getBomLength(), original.length - detection.getBomLength());
+
+        currentFile.set(file);
+        try (LineNumberReader reader = new LineNumberReader(SubtitleIO.newReader(in, detection))) {
+            try (BufferedWriter writer = SubtitleIO.newWriter(out, detection)) {
+                fixFile(reader, writer);
+            }
+            metrics.recordFile(reader.getLineNumber(), original.length, System.nanoTime() - startNanos);
+        } catch (final Exception e) {
+            e.printStackTrace();
+            metrics.recordFailure();
+            return null;
+        } finally {
+            currentFile.remove();
+            metrics.flushRuleCounters();
+        }
+
+        final byte[] fixed = out.toByteArray();
+        return Arrays.equals(fixed, original) ? original : fixed;
+    }
+
+    /**
+     * The writing stage of fixAllPrefetched: backs up the file (if enabled) and, if it changed, replaces
+     * it with the fixed contents, through a temp file like fix. Unless someone changed it in the meantime,
+     * then it's left alone, to be fixed next time. The backup is of the contents that were fixed, not of
+     * what's on disk by now.
+     *
+     * @return true if the file is done
+     */
+    private boolean write(final FilePrefetcher.Prefetched prefetched, final byte[] fixed) {
+        final File file = prefetched.getFile();
+        if (prefetched.isStale()) {
+            System.err.println("File changed while fixing it, leaving it alone :: " + file.getPath());
+            return false;
+        }
+        if (Constants.MAKE_BACKUPS) {
+            backupFile(file, prefetched.getBytes());
+        }
+        if (fixed == prefetched.getBytes()) {
+            // nothing to write, the original (and its last modified time) stays as it is
+            return true;
+        }
+
+        final long replaceStartNanos = System.nanoTime();
+        final Path path = file.toPath();
+        final Path tmpPath = path.resolveSibling("tmp_" + file.getName());
+        try {
+            try (FileChannel out = FileChannel.open(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE)) {
+                final ByteBuffer buffer = ByteBuffer.wrap(fixed);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                // make sure it is all on disk before it replaces the original
+                out.force(false);
+            }
+            // the backup and the write take a while, someone may have been at it since the check above
+            if (prefetched.isStale()) {
+                System.err.println("File changed while fixing it, leaving it alone :: " + file.getPath());
+                deleteTmpFile(tmpPath);
+                return false;
+            }
+            SubtitleIO.replace(tmpPath, path);
+        } catch (final IOException e) {
+            System.err.println("Error replacing the old file :: " + path);
+            e.printStackTrace();
+            deleteTmpFile(tmpPath);
+            metrics.recordFailure();
+            return false;
+        }
+
+        metrics.recordChanged();
+        metrics.recordReplace(System.nanoTime() - replaceStartNanos);
+        return true;
+    }
+
+    /**
+     * Adds a line to the console output of the file that is currently being fixed.
+     * It is printed once the file is done.
+     *
+     * @param message the line to print
+     */
+    protected final void log(final String message) {
+        output.get().append(message).append(System.lineSeparator());
+    }
+
+    /**
+     * Records a change to the file that is currently being fixed, in the journal and, when
+     * the verbosity is CHANGES, on the console.
+     *
+     * @param cue the number of the cue that changed
+     * @param rules the rules that fired, as given by FixerMetrics.RuleCounters.getFired
+     * @param before the text before
+     * @param after the text after, empty if it was removed
+     */
+    protected final void logChange(final int cue, final int rules, final String before, final String after) {
+        final ChangeJournal current = journal;
+        final File file = currentFile.get();
+        if (current != null && file != null) {
+            current.add(file.getPath(), cue, rules, before, after);
+        }
+        if (Constants.VERBOSITY == Verbosity.CHANGES) {
+            log("  Changed <[" + before + "]> --> to --> <[" + after + "]>.");
+        }
+    }
+
+    private void backupAndFix(final File file, final Manifest manifest, final BatchJob job) {
+        try {
+            if (manifest != null && manifest.isUpToDate(file)) {
+                if (job != null) {
+                    job.done(file);
+                }
+                return;
+            }
+
+            if (Constants.VERBOSITY != Verbosity.QUIET && !checkOnly) {
+                log("Processing subtitle file :: " + file.getName());
+            }
+
+            if (Constants.MAKE_BACKUPS && !checkOnly) {
+                backupFile(file);
+            }
+
+            if (fix(file) && !checkOnly) {
+                if (manifest != null) {
+                    manifest.record(file);
+                }
+                if (job != null) {
+                    job.done(file);
+                }
+            }
+        } catch (final RuntimeException e) {
+            // don't let one weird file take down the rest
+            e.printStackTrace();
+        } finally {
+            flushOutput();
+        }
+    }
+
+    /**
+     * @return the file the current thread is fixing, null outside of fix. For SRT files in zip archives
+     * it is the archive with the name of the entry added, e.g. pack.zip/dir/file.srt.
+     */
+    protected final File getCurrentFile() {
+        return currentFile.get();
+    }
+
+    /**
+     * Drops the console output collected so far by the current thread, for when lines are
+     * fixed outside of fix, like in the benchmarks.
+     */
+    final void discardOutput() {
+        output.get().setLength(0);
+    }
+
+    private void flushOutput() {
+        final StringBuilder builder = output.get();
+        if (builder.length() > 0) {
+            System.out.print(builder);
+            builder.setLength(0);
+        }
     }
 }
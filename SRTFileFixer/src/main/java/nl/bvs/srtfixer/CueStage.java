@@ -0,0 +1,16 @@
+package nl.bvs.srtfixer;
+
+import nl.bvs.srtfixer.srt.Cue;
+
+/**
+ * A single step of a FixerPipeline, like removing tags or shifting the time. Stages are
+ * shared between the threads fixing files, so they should not keep any state.
+ */
+public interface CueStage {
+    /**
+     * Fixes the cue, in place.
+     *
+     * @param cue the cue to fix
+     */
+    void apply(Cue cue);
+}
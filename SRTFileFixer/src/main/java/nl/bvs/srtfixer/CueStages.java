@@ -0,0 +1,174 @@
+package nl.bvs.srtfixer;
+
+import nl.bvs.srtfixer.srt.Cue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ListIterator;
+
+/**
+ * The stages a FixerPipeline can be made of, selected by name:
+ *
+ * 'text'       the I/l fixes and other cleanup of the SrtFileFixer
+ * 'tags'       removes bold/italic/br tags
+ * 'quotes'     replaces '`' and other weird quotes with regular ones
+ * 'shift=1500' shifts all times by the given amount of milliseconds, negative to show them earlier
+ * 'renumber'   numbers the cues 1, 2, 3 etc.
+ * 'repair'     puts the cues in order, removes duplicates and overlaps and renumbers them, see CueRepair
+ *
+ * When 'text' is selected, 'tags' and 'quotes' are done as part of it, in the same order
+ * the SrtFileFixer does them, wherever they are in the list. 'repair' needs the whole file,
+ * so the FixerPipeline does it last, after the other stages, wherever it is in the list.
+ */
+public final class CueStages {
+    /** The rules of the language of the file being fixed by the current thread, see FixerPipeline.fixFile. */
+    private static final ThreadLocal<RulePacks.Pack> RULE_PACK = new ThreadLocal<>();
+
+    private CueStages() {
+        // static stuff only
+    }
+
+    /**
+     * Creates the stages for a comma separated list of stage names, in order.
+     *
+     * @param spec the stages, e.g. 'text,tags,shift=-500,renumber'
+     * @return the stages
+     * @throws IllegalArgumentException for unknown stages
+     */
+    public static List<CueStage> parse(final String spec) {
+        final List<String> names = new ArrayList<>();
+        for (final String name : spec.split(",")) {
+            if (!name.trim().isEmpty()) {
+                names.add(name.trim());
+            }
+        }
+
+        final boolean text = names.contains("text");
+        final List<CueStage> stages = new ArrayList<>();
+        for (final String name : names) {
+            if ("text".equals(name)) {
+                stages.add(new TextCleanup(names.contains("tags"), names.contains("quotes")));
+            } else if ("tags".equals(name)) {
+                if (!text) {
+                    stages.add(new RemoveTags());
+                }
+            } else if ("quotes".equals(name)) {
+                if (!text) {
+                    stages.add(new ChangeQuotes());
+                }
+            } else if (name.startsWith("shift=")) {
+                stages.add(new TimeShift(parseOffset(name)));
+            } else if ("renumber".equals(name)) {
+                stages.add(new Renumber());
+            } else if (!"repair".equals(name)) {
+                throw new IllegalArgumentException("Unknown stage :: " + name);
+            }
+        }
+        return stages;
+    }
+
+    /**
+     * @param spec the stages, e.g. 'text,repair'
+     * @return true if 'repair' is one of them
+     */
+    public static boolean hasRepair(final String spec) {
+        for (final String name : spec.split(",")) {
+            if ("repair".equals(name.trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sets the rules the 'text' stage uses on the current thread, until it's set to null again.
+     *
+     * @param pack the rules of the language of the file, null for the default ones
+     */
+    static void setRulePack(final RulePacks.Pack pack) {
+        if (pack == null) {
+            RULE_PACK.remove();
+        } else {
+            RULE_PACK.set(pack);
+        }
+    }
+
+    private static long parseOffset(final String name) {
+        try {
+            return Long.parseLong(name.substring("shift=".length()));
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException("Shift needs an amount of milliseconds :: " + name, e);
+        }
+    }
+
+    /**
+     * Fixes each line of a cue, dropping the ones that end up empty.
+     */
+    private abstract static class LineStage implements CueStage {
+        @Override
+        public final void apply(final Cue cue) {
+            final ListIterator<String> lines = cue.getLines().listIterator();
+            while (lines.hasNext()) {
+                final String fixedLine = fixLine(lines.next());
+                if (fixedLine == null || fixedLine.isEmpty()) {
+                    lines.remove();
+                } else {
+                    lines.set(fixedLine);
+                }
+            }
+        }
+
+        protected abstract String fixLine(String line);
+    }
+
+    private static final class TextCleanup extends LineStage {
+        private final boolean removeTags;
+        private final boolean changeQuotes;
+
+        TextCleanup(final boolean removeTags, final boolean changeQuotes) {
+            this.removeTags = removeTags;
+            this.changeQuotes = changeQuotes;
+        }
+
+        @Override
+        protected String fixLine(final String line) {
+            return SrtFileFixer.cleanLine(line, RULE_PACK.get(), removeTags, changeQuotes);
+        }
+    }
+
+    private static final class RemoveTags extends LineStage {
+        @Override
+        protected String fixLine(final String line) {
+            return SrtFileFixer.removeTags(line);
+        }
+    }
+
+    private static final class ChangeQuotes extends LineStage {
+        @Override
+        protected String fixLine(final String line) {
+            return SrtFileFixer.changeQuotes(line);
+        }
+    }
+
+    private static final class TimeShift implements CueStage {
+        private final long offsetMillis;
+
+        TimeShift(final long offsetMillis) {
+            this.offsetMillis = offsetMillis;
+        }
+
+        @Override
+        public void apply(final Cue cue) {
+            if (cue.hasTimes()) {
+                cue.setTimes(Math.max(0L, cue.getStart() + offsetMillis), Math.max(0L, cue.getEnd() + offsetMillis));
+            }
+        }
+    }
+
+    private static final class Renumber implements CueStage {
+        @Override
+        public void apply(final Cue cue) {
+            cue.setNumber(cue.getIndex());
+        }
+    }
+}
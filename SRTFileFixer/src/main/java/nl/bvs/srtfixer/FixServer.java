@@ -0,0 +1,258 @@
+package nl.bvs.srtfixer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import nl.bvs.srtfixer.util.CharsetSniffer;
+import nl.bvs.srtfixer.util.Constants;
+import nl.bvs.srtfixer.util.FixerMetrics;
+import nl.bvs.srtfixer.util.SubtitleIO;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixes subtitles over HTTP, for media servers that fetch them on demand and can't wait for
+ * a JVM to start for every file. Listens on localhost only. Nothing is written to disk, no
+ * backups, no journal.
+ *
+ * POST /fix with the SRT file as body returns the fixed file, in the charset it came in.
+ * Options go in the query:
+ *
+ * stages   the stages to run, like the FixerPipeline takes them. Defaults to all text fixes.
+ * shift    milliseconds to shift the times by, added as a last stage
+ *
+ * E.g. POST /fix?stages=tags,text&amp;shift=-1500. Bad subtitles or options get a 400, and
+ * when there are more requests than the threads can keep up with, they get a 503.
+ * GET /health answers 'OK' when the server is up.
+ */
+public class FixServer {
+    /** More different stage lists than this and the cache starts over. */
+    private static final int MAX_CACHED_PIPELINES = 256;
+    /** Set while the server's own thread turns away a request that didn't fit in the queue. */
+    private static final ThreadLocal<Boolean> TURNING_AWAY = new ThreadLocal<>();
+
+    private final HttpServer server;
+    private final ThreadPoolExecutor executor;
+    /** Pipelines by the stages they run. They hold no state of a request, so they can be shared. */
+    private final ConcurrentMap<String, FixerPipeline> pipelines = new ConcurrentHashMap<>();
+
+    /**
+     * Go go gadget server.
+     * @param args optionally the port to listen on
+     */
+    public static void main(final String[] args) throws IOException {
+        final int port = args.length > 0 ? Integer.parseInt(args[0]) : Constants.SERVER_PORT;
+        final FixServer fixServer = new FixServer(port, Constants.SERVER_THREADS);
+        fixServer.start();
+        System.out.println("Fixing subtitles on :: http://localhost:" + fixServer.getPort() + "/fix");
+    }
+
+    /**
+     * @param port the port to listen on, 0 for any free port
+     * @param threads the number of requests to handle at the same time
+     */
+    public FixServer(final int port, final int threads) throws IOException {
+        // without it, Nagle and delayed ACKs add some 40 ms to every response. Read once, so set it before the first server.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), threads * 4);
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * 16), new ThreadPoolExecutor.AbortPolicy());
+        server.setExecutor(new Executor() {
+            @Override
+            public void execute(final Runnable exchange) {
+                try {
+                    executor.execute(exchange);
+                } catch (final RejectedExecutionException e) {
+                    // all threads busy and the queue full. Answered right here, by the thread that
+                    // takes the requests, so only the headers are read and nothing is fixed.
+                    TURNING_AWAY.set(Boolean.TRUE);
+                    try {
+                        exchange.run();
+                    } finally {
+                        TURNING_AWAY.remove();
+                    }
+                }
+            }
+        });
+
+        server.createContext("/fix", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                handleFix(exchange);
+            }
+        });
+        server.createContext("/health", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                respond(exchange, 200, "OK");
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops taking requests, gives the ones being handled a second to finish and stops.
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handleFix(final HttpExchange exchange) throws IOException {
+        try {
+            if (TURNING_AWAY.get() != null) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                respond(exchange, 503, "Too busy, try again in a bit");
+                return;
+            }
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "POST the subtitles to fix");
+                return;
+            }
+
+            final FixerPipeline pipeline;
+            try {
+                pipeline = getPipeline(parseQuery(exchange.getRequestURI().getRawQuery()));
+            } catch (final IllegalArgumentException e) {
+                respond(exchange, 400, e.getMessage());
+                return;
+            }
+
+            final byte[] body = readBody(exchange.getRequestBody());
+            if (body == null) {
+                respond(exchange, 413, "Subtitles larger than " + Constants.SERVER_MAX_BODY_SIZE + " bytes are not accepted");
+                return;
+            }
+
+            final byte[] fixed;
+            try {
+                fixed = fix(pipeline, body);
+            } catch (final IllegalArgumentException | CharacterCodingException e) {
+                respond(exchange, 400, "Could not fix the subtitles :: " + e.getMessage());
+                return;
+            } catch (final Exception e) {
+                e.printStackTrace();
+                respond(exchange, 500, "Something went wrong :: " + e);
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", "application/x-subrip");
+            exchange.sendResponseHeaders(200, fixed.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(fixed);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Fixes a whole file in memory.
+     */
+    private static byte[] fix(final FixerPipeline pipeline, final byte[] body) throws Exception {
+        final long startNanos = System.nanoTime();
+        final CharsetSniffer.Detection detection = CharsetSniffer.detect(
+                ByteBuffer.wrap(body, 0, Math.min(body.length, CharsetSniffer.SNIFF_LENGTH)));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(body.length + body.length / 8);
+
+        final InputStream in = new ByteArrayInputStream(body, detection.getBomLength(), body.length - detection.getBomLength());
+        try (LineNumberReader reader = new LineNumberReader(SubtitleIO.newReader(in, detection));
+             BufferedWriter writer = SubtitleIO.newWriter(out, detection)) {
+            pipeline.fixFile(reader, writer);
+            FixerMetrics.get().recordFile(reader.getLineNumber(), body.length, System.nanoTime() - startNanos);
+        } finally {
+            FixerMetrics.get().flushRuleCounters();
+            // nobody reads the console output of a request
+            pipeline.discardOutput();
+        }
+        return out.toByteArray();
+    }
+
+    private FixerPipeline getPipeline(final Map<String, String> query) {
+        String stageSpec = query.containsKey("stages") ? query.get("stages") : FixerPipeline.DEFAULT_STAGES;
+        if (query.containsKey("shift")) {
+            try {
+                stageSpec += ",shift=" + Long.parseLong(query.get("shift"));
+            } catch (final NumberFormatException e) {
+                throw new IllegalArgumentException("Shift needs an amount of milliseconds :: " + query.get("shift"), e);
+            }
+        }
+
+        FixerPipeline pipeline = pipelines.get(stageSpec);
+        if (pipeline == null) {
+            if (pipelines.size() >= MAX_CACHED_PIPELINES) {
+                pipelines.clear();
+            }
+            pipeline = new FixerPipeline(stageSpec, null);
+            final FixerPipeline existing = pipelines.putIfAbsent(stageSpec, pipeline);
+            if (existing != null) {
+                pipeline = existing;
+            }
+        }
+        return pipeline;
+    }
+
+    private static Map<String, String> parseQuery(final String rawQuery) throws UnsupportedEncodingException {
+        final Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (final String parameter : rawQuery.split("&")) {
+            final int equals = parameter.indexOf('=');
+            if (equals > 0) {
+                query.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"),
+                        URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return query;
+    }
+
+    /**
+     * @return the body, or null if it is too large
+     */
+    private static byte[] readBody(final InputStream in) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream(16 * 1024);
+        final byte[] buffer = new byte[16 * 1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+            if (body.size() > Constants.SERVER_MAX_BODY_SIZE) {
+                return null;
+            }
+        }
+        return body.toByteArray();
+    }
+
+    private static void respond(final HttpExchange exchange, final int status, final String message) throws IOException {
+        final byte[] bytes = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
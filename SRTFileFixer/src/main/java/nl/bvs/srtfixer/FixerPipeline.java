@@ -0,0 +1,141 @@
+package nl.bvs.srtfixer;
+
+import nl.bvs.srtfixer.srt.Cue;
+import nl.bvs.srtfixer.srt.CueRepair;
+import nl.bvs.srtfixer.srt.SrtReader;
+import nl.bvs.srtfixer.srt.SrtWriter;
+import nl.bvs.srtfixer.util.Constants;
+import nl.bvs.srtfixer.util.FixerMetrics;
+import nl.bvs.srtfixer.util.Verbosity;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs a chain of stages over each cue of a file, all in one go: one backup, one read and
+ * one write per file, however many stages. So cleaning up and resyncing a file no longer
+ * takes two runs. See CueStages for the stages there are.
+ */
+public class FixerPipeline extends BaseFixer {
+    /** What the SrtFileFixer does, give or take the flags in the Constants. */
+    public static final String DEFAULT_STAGES = (Constants.REMOVE_HTML_TAGS ? "tags," : "")
+            + (Constants.CHANGE_QUOTES ? "quotes," : "") + "text,renumber" + (Constants.REPAIR_CUES ? ",repair" : "");
+
+    private final String stageSpec;
+    private final List<CueStage> stages;
+    private final boolean repair;
+    private final File target;
+
+    /**
+     * Go go gadget pipeline.
+     * @param args optionally the stages to run (see CueStages), and the file or directory to fix
+     */
+    public static void main(final String[] args) {
+        final String stageSpec = args.length > 0 ? args[0] : DEFAULT_STAGES;
+        final File target = new File(args.length > 1 ? args[1] : Constants.FILEFIXER_ROOT_DIR);
+        System.out.println("Processing :: " + target.getPath() + " :: stages " + stageSpec);
+        new FixerPipeline(stageSpec, target).process();
+    }
+
+    /**
+     * @param stageSpec the stages to run, comma separated
+     * @param target the file, or directory of files, to fix
+     */
+    public FixerPipeline(final String stageSpec, final File target) {
+        this.stageSpec = stageSpec;
+        this.stages = CueStages.parse(stageSpec);
+        this.repair = CueStages.hasRepair(stageSpec);
+        this.target = target;
+    }
+
+    @Override
+    protected void process() {
+        if (target.isDirectory()) {
+            fixDirectory(target, getRulesVersion());
+            return;
+        }
+
+        if (Constants.MAKE_BACKUPS) {
+            backupFile(target);
+        }
+        startJournal(target.getAbsoluteFile().getParentFile());
+        fix(target);
+        closeJournal();
+        printMetrics();
+    }
+
+    @Override
+    protected void fixFile(final BufferedReader reader, final BufferedWriter writer) throws Exception {
+        final SrtReader srtReader = new SrtReader(reader);
+        final SrtWriter srtWriter = new SrtWriter(writer);
+        final FixerMetrics.RuleCounters counters = FixerMetrics.get().getRuleCounters();
+
+        // the 'text' stage fixes with the rules of the language of the file
+        CueStages.setRulePack(SrtFileFixer.getRulePacks().choose(getCurrentFile(), reader));
+        try (CueRepair cueRepair = repair ? new CueRepair(srtWriter, Constants.REPAIR_MAX_MEMORY) : null) {
+            fixCues(srtReader, srtWriter, cueRepair, counters);
+            if (cueRepair != null) {
+                cueRepair.finish();
+                if (cueRepair.hasRepairs() && Constants.VERBOSITY != Verbosity.QUIET) {
+                    log("Repaired cues :: " + cueRepair);
+                }
+            }
+        } finally {
+            CueStages.setRulePack(null);
+        }
+    }
+
+    private void fixCues(final SrtReader srtReader, final SrtWriter srtWriter, final CueRepair cueRepair,
+                         final FixerMetrics.RuleCounters counters) throws Exception {
+        final Cue cue = new Cue();
+        final List<String> before = new ArrayList<>();
+
+        int index = 0;
+        while (srtReader.next()) {
+            if (srtReader.hasTimecode()) {
+                index++;
+            }
+            cue.load(srtReader, index);
+            before.clear();
+            before.addAll(cue.getLines());
+            counters.clearFired();
+
+            for (final CueStage stage : stages) {
+                stage.apply(cue);
+            }
+
+            // logging
+            if (!before.equals(cue.getLines())) {
+                logChange(cue.getIndex(), counters.getFired(), join(before), join(cue.getLines()));
+            }
+
+            if (cueRepair != null) {
+                cueRepair.add(cue);
+            } else {
+                cue.write(srtWriter);
+            }
+        }
+    }
+
+    /**
+     * The version of the stages, which changes whenever the selected stages or the rules change.
+     */
+    int getRulesVersion() {
+        return Arrays.hashCode(new Object[]{stageSpec, SrtFileFixer.getRulesVersion()});
+    }
+
+    private static String join(final List<String> lines) {
+        final StringBuilder builder = new StringBuilder();
+        for (final String line : lines) {
+            if (builder.length() > 0) {
+                builder.append(" | ");
+            }
+            builder.append(line);
+        }
+        return builder.toString();
+    }
+}
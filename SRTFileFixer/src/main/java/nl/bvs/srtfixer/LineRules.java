@@ -0,0 +1,200 @@
+package nl.bvs.srtfixer;
+
+import nl.bvs.srtfixer.util.WordIndex;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The rule tables of the SrtFileFixer, compiled once into lookup tables so the
+ * LineScanner never has to compile a regex or build a String while fixing a line.
+ *
+ * Instances are immutable and can be shared between threads.
+ */
+final class LineRules {
+    /** Only plain ASCII characters are interesting for the lookup tables. */
+    private static final int TABLE_SIZE = 128;
+
+    /** Line starters, such as dashes and quotes. None of these contain an 'l'. */
+    private final char[][] lineStarts;
+    /** The values after a line starter that mean the 'l' at the start of a line should be an 'I'. */
+    private final char[][] lineStartFixes;
+    /** Characters that, when following an 'l' at the start of a word, mean the 'l' should be an 'I'. */
+    private final boolean[] wordStartFollowers;
+    /** Words that should never be touched by the word start fix. */
+    private final WordTable ignoreWords;
+    /** Words that are wrongfully fixed, and their corrections. */
+    private final WordTable mistakes;
+    /** The corrections of the mistakes, indexed the same way as the mistakes table. */
+    private final char[][] corrections;
+    /** Real words, to tell whether the 'l' or the 'I' spelling of a word is the right one. Null if there is none. */
+    private final WordIndex dictionary;
+    /** Whether a lone 'l' is an 'I', like in 'l think' and 'l.'. Only in English, it's the French 'l'homme'. */
+    private final boolean loneL;
+    /** Whether a lone 'i' is an 'I', like in 'i think'. */
+    private final boolean lowerCaseI;
+
+    /**
+     * Compiles the given rules.
+     *
+     * @param lineStarts the things lines (or words) can start with
+     * @param lineStartFixes the values starting with 'l' that should start with an 'I' instead at the start of a line
+     * @param wordStartFixes the values starting with 'l' that should start with an 'I' instead at the start of a word,
+     *                       all of them two characters long
+     * @param ignoreList words to leave alone while fixing word starts
+     * @param fixList pairs of wrongfully fixed words and their corrections
+     * @param dictionary real words, null to go without
+     * @param loneL whether to turn a lone 'l' into an 'I'
+     * @param lowerCaseI whether to turn a lone 'i' into an 'I'
+     */
+    LineRules(final String[] lineStarts, final String[] lineStartFixes, final String[] wordStartFixes,
+              final List<String> ignoreList, final String[][] fixList, final WordIndex dictionary,
+              final boolean loneL, final boolean lowerCaseI) {
+        this.dictionary = dictionary;
+        this.loneL = loneL;
+        this.lowerCaseI = lowerCaseI;
+        this.lineStarts = toCharArrays(Arrays.asList(lineStarts));
+        this.lineStartFixes = toCharArrays(Arrays.asList(lineStartFixes));
+
+        wordStartFollowers = new boolean[TABLE_SIZE];
+        for (final String wordStartFix : wordStartFixes) {
+            if (wordStartFix.length() != 2 || wordStartFix.charAt(0) != 'l' || wordStartFix.charAt(1) >= TABLE_SIZE) {
+                throw new IllegalArgumentException("Word start fixes are an 'l' and an ASCII character :: " + wordStartFix);
+            }
+            wordStartFollowers[wordStartFix.charAt(1)] = true;
+        }
+
+        ignoreWords = new WordTable(toCharArrays(ignoreList));
+
+        final char[][] mistakeWords = new char[fixList.length][];
+        corrections = new char[fixList.length][];
+        for (int i = 0; i < fixList.length; i++) {
+            mistakeWords[i] = fixList[i][0].toCharArray();
+            corrections[i] = fixList[i][1].toCharArray();
+        }
+        mistakes = new WordTable(mistakeWords);
+    }
+
+    char[][] getLineStarts() {
+        return lineStarts;
+    }
+
+    char[][] getLineStartFixes() {
+        return lineStartFixes;
+    }
+
+    boolean isWordStartFollower(final char c) {
+        return c < TABLE_SIZE && wordStartFollowers[c];
+    }
+
+    boolean isIgnored(final char[] buffer, final int offset, final int length) {
+        return ignoreWords.indexOf(buffer, offset, length) >= 0;
+    }
+
+    /**
+     * Looks up the correction of the given word.
+     *
+     * @return the correction, or null if the word is not a known mistake
+     */
+    char[] getCorrection(final char[] buffer, final int offset, final int length) {
+        final int index = mistakes.indexOf(buffer, offset, length);
+        return index < 0 ? null : corrections[index];
+    }
+
+    boolean fixesLoneL() {
+        return loneL;
+    }
+
+    boolean fixesLowerCaseI() {
+        return lowerCaseI;
+    }
+
+    boolean hasDictionary() {
+        return dictionary != null;
+    }
+
+    WordIndex getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * @return true if the range of the buffer is a real word, ignoring case. Always false without a dictionary.
+     */
+    boolean isWord(final char[] buffer, final int offset, final int length) {
+        return dictionary != null && dictionary.contains(buffer, offset, length);
+    }
+
+    private static char[][] toCharArrays(final List<String> values) {
+        final char[][] result = new char[values.size()][];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values.get(i).toCharArray();
+        }
+        return result;
+    }
+
+    /**
+     * A tiny open addressing hash table of words, which can be queried with a range
+     * of a char buffer. Saves creating a String for every word in every line.
+     */
+    static final class WordTable {
+        private final char[][] words;
+        private final int[] slots;
+        private final int mask;
+
+        WordTable(final char[][] words) {
+            this.words = words;
+
+            int capacity = 4;
+            while (capacity < words.length * 2) {
+                capacity <<= 1;
+            }
+            mask = capacity - 1;
+            slots = new int[capacity];
+            Arrays.fill(slots, -1);
+
+            for (int i = 0; i < words.length; i++) {
+                // first one wins, just like a linear scan of the list would
+                if (indexOf(words[i], 0, words[i].length) >= 0) {
+                    continue;
+                }
+                int slot = hash(words[i], 0, words[i].length) & mask;
+                while (slots[slot] >= 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = i;
+            }
+        }
+
+        int indexOf(final char[] buffer, final int offset, final int length) {
+            int slot = hash(buffer, offset, length) & mask;
+            while (slots[slot] >= 0) {
+                final char[] word = words[slots[slot]];
+                if (regionEquals(word, buffer, offset, length)) {
+                    return slots[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private static int hash(final char[] buffer, final int offset, final int length) {
+            int hash = 0;
+            for (int i = offset; i < offset + length; i++) {
+                hash = 31 * hash + buffer[i];
+            }
+            return hash ^ (hash >>> 16);
+        }
+
+        private static boolean regionEquals(final char[] word, final char[] buffer, final int offset, final int length) {
+            if (word.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (word[i] != buffer[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,592 @@
+package nl.bvs.srtfixer;
+
+import nl.bvs.srtfixer.util.Constants;
+import nl.bvs.srtfixer.util.FixerMetrics;
+import nl.bvs.srtfixer.util.FixerMetrics.Rule;
+
+/**
+ * Applies the SrtFileFixer rules to a line, in place, on a reusable char buffer.
+ *
+ * Every step gives exactly the same result as the String.replaceAll chains it
+ * replaces, it just does not compile a regex or create a String for each of them.
+ * A scanner is not thread safe, give each thread its own. It counts the rules that fire
+ * in the FixerMetrics of the thread that made it.
+ */
+final class LineScanner {
+    /** Lower case letters that turn a neighbouring 'I' into an 'l'. Not the 'l' itself, obviously. */
+    private static final boolean[] I_NEIGHBOURS = asciiTable("abcdefghijkmnopqrstuvwxyz");
+    /** Characters allowed in lines that only consist of caps, like '[SHOUTlNG]'. */
+    private static final boolean[] CAPS_ONLY_CHARACTERS = asciiTable("0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZl[]:'\"()- ");
+
+    /** Only words starting with a double 'l' can be on the ignore list. */
+    private static final char[] DOUBLE_L = {'l', 'l'};
+
+    private final LineRules rules;
+    private final FixerMetrics.RuleCounters counters = FixerMetrics.get().getRuleCounters();
+    private final boolean timed = Constants.TIME_RULES;
+    private long lapStart;
+
+    private char[] buffer = new char[256];
+    private char[] spare = new char[256];
+    /** For looking up other spellings of a word in the dictionary. */
+    private char[] word = new char[64];
+    private int length;
+
+    LineScanner(final LineRules rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * Loads the trimmed line into the buffer.
+     *
+     * @param line the line to scan
+     */
+    void reset(final String line) {
+        int start = 0;
+        int end = line.length();
+        while (start < end && line.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && line.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        length = end - start;
+        buffer = ensureCapacity(buffer, length);
+        line.getChars(start, end, buffer, 0);
+
+        if (timed) {
+            lapStart = System.nanoTime();
+        }
+    }
+
+    /**
+     * Books the time since the previous lap (or reset) on the given rule, if rules are timed.
+     */
+    void lap(final Rule rule) {
+        if (timed) {
+            final long now = System.nanoTime();
+            counters.time(rule, now - lapStart);
+            lapStart = now;
+        }
+    }
+
+    /**
+     * Removes every occurrence of the given character.
+     *
+     * @param rule the rule to count the removed characters on
+     */
+    void remove(final char c, final Rule rule) {
+        int write = 0;
+        for (int read = 0; read < length; read++) {
+            if (buffer[read] != c) {
+                buffer[write++] = buffer[read];
+            }
+        }
+        if (write < length) {
+            counters.hit(rule, length - write);
+        }
+        length = write;
+    }
+
+    /**
+     * Removes the given values, one after the other, like a chain of replaceAll(value, "") would.
+     * Nothing to do for lines without any '&lt;', which is nearly all of them.
+     */
+    void removeTags(final char[][] tags) {
+        if (indexOf('<', 0) < 0) {
+            return;
+        }
+
+        for (final char[] tag : tags) {
+            int write = 0;
+            int read = 0;
+            while (read < length) {
+                if (regionMatches(read, tag)) {
+                    read += tag.length;
+                    counters.hit(Rule.HTML_TAG);
+                } else {
+                    buffer[write++] = buffer[read++];
+                }
+            }
+            length = write;
+        }
+    }
+
+    /**
+     * If the line only consists of caps, digits and a few special characters (and 'l's),
+     * all 'l's become 'I's.
+     */
+    void fixCapsOnlyLine() {
+        for (int i = 0; i < length; i++) {
+            if (!isIn(CAPS_ONLY_CHARACTERS, buffer[i])) {
+                return;
+            }
+        }
+        counters.hit(Rule.CAPS_ONLY_LINE, replaceAll('l', 'I'));
+    }
+
+    /**
+     * Changes '`' and other odd quotes into regular ones.
+     */
+    void changeQuotes() {
+        for (int i = 0; i < length; i++) {
+            changeQuote(i);
+        }
+    }
+
+    /**
+     * The brute force 'I' to 'l' fix, in one pass. It is the same as running these in order:
+     * 'II' --> 'll', then 'xI' --> 'xl' and then 'Ix' --> 'lx' for every lower case x except 'l'.
+     *
+     * Since none of these substitutions produce something another one matches on, it boils down
+     * to: pairs of 'I's in a row become 'll', an unpaired 'I' becomes an 'l' when the character
+     * before a lone 'I', or the character after it, is one of those lower case letters.
+     *
+     * @param changeQuotes whether to also change '`' and other odd quotes into regular ones while we're here
+     */
+    void fixCapsedI(final boolean changeQuotes) {
+        int i = 0;
+        while (i < length) {
+            final char c = buffer[i];
+            if (c != 'I') {
+                if (changeQuotes) {
+                    changeQuote(i);
+                }
+                i++;
+                continue;
+            }
+
+            // find the end of this run of I's
+            int end = i + 1;
+            while (end < length && buffer[end] == 'I') {
+                end++;
+            }
+
+            final int runLength = end - i;
+            final int paired = i + runLength - runLength % 2;
+            for (int j = i; j < paired; j++) {
+                buffer[j] = 'l';
+            }
+            counters.hit(Rule.CAPSED_I, paired - i);
+
+            if (paired < end) {
+                final boolean afterLetter = runLength == 1 && i > 0 && isIn(I_NEIGHBOURS, buffer[i - 1]);
+                final boolean beforeLetter = end < length && isIn(I_NEIGHBOURS, buffer[end]);
+                if (afterLetter || beforeLetter) {
+                    buffer[paired] = 'l';
+                    counters.hit(Rule.CAPSED_I);
+                }
+            }
+
+            i = end;
+        }
+    }
+
+    /**
+     * Turns the first 'l' into an 'I' if the line starts with one of the line start fixes,
+     * possibly after a line starter.
+     */
+    void fixLineStart() {
+        for (final char[] lineStartFix : rules.getLineStartFixes()) {
+            if (startsWithAny(buffer, 0, length, lineStartFix)) {
+                replaceFirst(0, length, 'l', 'I');
+                counters.hit(Rule.LINE_START);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Same as replaceAll(" l ", " I ") followed by replaceAll(" l'", " I'"). The first one
+     * does not match on overlapping occurrences, so ' l l ' becomes ' I l '. Only if the rules
+     * say a lone 'l' is an 'I'.
+     */
+    void fixLoneL() {
+        if (!rules.fixesLoneL()) {
+            return;
+        }
+
+        int nextMatch = 0;
+        for (int i = 0; i + 2 < length; i++) {
+            if (buffer[i] != ' ' || buffer[i + 1] != 'l') {
+                continue;
+            }
+
+            final char next = buffer[i + 2];
+            if (next == '\'') {
+                buffer[i + 1] = 'I';
+                counters.hit(Rule.LONE_L);
+            } else if (next == ' ' && i >= nextMatch) {
+                buffer[i + 1] = 'I';
+                nextMatch = i + 3;
+                counters.hit(Rule.LONE_L);
+            }
+        }
+    }
+
+    /**
+     * Fixes 'l' characters at the start of a word. Generally speaking, most
+     * if not all words beginning with an 'l' followed by another consonant,
+     * are not real words. Those can be fixed easily.
+     *
+     * Some words start with an 'l' followed by a vowel. Most likely, these 'l's
+     * are actual 'l's. There is an off-chance that they are not, but I can't be
+     * bothered with that.
+     *
+     * Also fixes lone 'l's before punctuation, lower case 'i's and puts a space
+     * between a dash and the word it starts.
+     */
+    void fixWordStarts() {
+        stripTrailingSpaces();
+
+        spare = ensureCapacity(spare, length * 2);
+        int write = 0;
+        int start = 0;
+        while (start <= length) {
+            final int end = endOfWord(start);
+            if (start > 0) {
+                spare[write++] = ' ';
+            }
+
+            // I prefer a space between a - and the word, when the word starts with a dash
+            final int wordStart = write;
+            if (isDashedWord(start, end)) {
+                spare[write++] = '-';
+                spare[write++] = ' ';
+                counters.hit(Rule.DASHED_WORD);
+                System.arraycopy(buffer, start + 1, spare, write, end - start - 1);
+                write += end - start - 1;
+            } else {
+                System.arraycopy(buffer, start, spare, write, end - start);
+                write += end - start;
+            }
+
+            fixWordStart(spare, wordStart, write - wordStart);
+            start = end + 1;
+        }
+
+        swap(write);
+    }
+
+    /**
+     * Replaces the words that are known to be wrongfully fixed.
+     */
+    void fixMistakes() {
+        stripTrailingSpaces();
+
+        int start = 0;
+        while (start <= length) {
+            final int end = endOfWord(start);
+            final char[] correction = rules.getCorrection(buffer, start, end - start);
+            if (correction != null) {
+                counters.hit(Rule.MISTAKE);
+                if (correction.length == end - start) {
+                    System.arraycopy(correction, 0, buffer, start, correction.length);
+                } else {
+                    spare = ensureCapacity(spare, length - (end - start) + correction.length);
+                    System.arraycopy(buffer, 0, spare, 0, start);
+                    System.arraycopy(correction, 0, spare, start, correction.length);
+                    System.arraycopy(buffer, end, spare, start + correction.length, length - end);
+                    swap(length - (end - start) + correction.length);
+                }
+            }
+            if (correction == null && rules.hasDictionary()) {
+                fixCapitalIMistake(start, end);
+            }
+            start = start + (correction != null ? correction.length : end - start) + 1;
+        }
+    }
+
+    /**
+     * Turns the 'I' a word starts with back into an 'l', when the dictionary says only the 'l'
+     * spelling is a real word, like 'Ilegar'.
+     */
+    private void fixCapitalIMistake(final int start, final int end) {
+        final int wordStart = skipNonLetters(buffer, start, end);
+        final int wordEnd = trimNonLetters(buffer, wordStart, end);
+        final int length = wordEnd - wordStart;
+        if (length < 2 || buffer[wordStart] != 'I' || !Character.isLowerCase(buffer[wordStart + 1])) {
+            return;
+        }
+
+        if (!rules.isWord(buffer, wordStart, length) && isWordWith(buffer, wordStart, length, 0, 'l')) {
+            buffer[wordStart] = 'l';
+            counters.hit(Rule.DICTIONARY_WORD);
+        }
+    }
+
+    /**
+     * Whether the dictionary says the word is a real word with an 'l', and not with an 'I'
+     * instead of its first 'l'. Always false without a dictionary.
+     */
+    private boolean isRealLWord(final char[] target, final int offset, final int length) {
+        if (!rules.hasDictionary()) {
+            return false;
+        }
+
+        final int wordStart = skipNonLetters(target, offset, offset + length);
+        final int wordEnd = trimNonLetters(target, wordStart, offset + length);
+        for (int i = wordStart; i < wordEnd; i++) {
+            if (target[i] == 'l') {
+                return rules.isWord(target, wordStart, wordEnd - wordStart)
+                        && !isWordWith(target, wordStart, wordEnd - wordStart, i - wordStart, 'I');
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether the range of the target would be a word, with a single character replaced.
+     */
+    private boolean isWordWith(final char[] target, final int offset, final int length, final int index, final char c) {
+        word = ensureCapacity(word, length);
+        System.arraycopy(target, offset, word, 0, length);
+        word[index] = c;
+        return rules.isWord(word, 0, length);
+    }
+
+    private static int skipNonLetters(final char[] target, final int from, final int to) {
+        int i = from;
+        while (i < to && !Character.isLetter(target[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int trimNonLetters(final char[] target, final int from, final int to) {
+        int i = to;
+        while (i > from && !Character.isLetter(target[i - 1])) {
+            i--;
+        }
+        return i;
+    }
+
+    /**
+     * Same as String.trim.
+     */
+    void trim() {
+        int start = 0;
+        while (start < length && buffer[start] <= ' ') {
+            start++;
+        }
+        while (length > start && buffer[length - 1] <= ' ') {
+            length--;
+        }
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, length - start);
+            length -= start;
+        }
+    }
+
+    boolean contentEquals(final String line) {
+        if (line.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (line.charAt(i) != buffer[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, length);
+    }
+
+    /**
+     * Fixes an 'l' at the start of a single word, given as a range of the target buffer.
+     */
+    private void fixWordStart(final char[] target, final int offset, final int wordLength) {
+        if (startsWithWordStartFix(target, offset, wordLength)) {
+            // some words are incorrectly fixed (llama for instance, and some Spanish stuff)
+            final boolean ignored = startsWithAny(target, offset, offset + wordLength, DOUBLE_L)
+                    && rules.isIgnored(target, offset, wordLength);
+            if (ignored) {
+                counters.hit(Rule.IGNORED_WORD);
+            } else if (isRealLWord(target, offset, wordLength)) {
+                counters.hit(Rule.DICTIONARY_WORD);
+            } else {
+                replaceFirst(target, offset, offset + wordLength, 'l', 'I');
+                counters.hit(Rule.WORD_START);
+            }
+        } else if (rules.fixesLoneL() && wordLength >= 2 && wordLength <= 4 && target[offset] == 'l' && isLoneLPunctuation(target, offset + 1, offset + wordLength)) {
+            // I. I, I? I! I.. I...
+            target[offset] = 'I';
+            counters.hit(Rule.LONE_L_PUNCTUATION);
+        } else if (rules.fixesLowerCaseI() && wordLength == 1 && target[offset] == 'i') {
+            // i suck at spelling.
+            target[offset] = 'I';
+            counters.hit(Rule.LOWER_CASE_I);
+        } else if (rules.fixesLowerCaseI() && wordLength >= 2 && target[offset] == 'i' && target[offset + 1] == '\'') {
+            // i also suck at spelling.
+            target[offset] = 'I';
+            counters.hit(Rule.LOWER_CASE_I);
+        }
+    }
+
+    private boolean startsWithWordStartFix(final char[] target, final int offset, final int wordLength) {
+        for (final char[] lineStart : rules.getLineStarts()) {
+            final int l = lineStart.length;
+            if (wordLength > l + 1 && regionMatches(target, offset, offset + wordLength, lineStart)
+                    && target[offset + l] == 'l' && rules.isWordStartFollower(target[offset + l + 1])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether the range starts with any of the line starters followed by the given value.
+     */
+    private boolean startsWithAny(final char[] target, final int offset, final int end, final char[] value) {
+        for (final char[] lineStart : rules.getLineStarts()) {
+            if (regionMatches(target, offset, end, lineStart) && regionMatches(target, offset + lineStart.length, end, value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isLoneLPunctuation(final char[] target, final int from, final int to) {
+        final char first = target[from];
+        if (to - from == 1) {
+            return first == '.' || first == ',' || first == '?' || first == '!';
+        }
+        for (int i = from; i < to; i++) {
+            if (target[i] != '.') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Matches '-[0-9a-zA-Z']+'.
+     */
+    private boolean isDashedWord(final int start, final int end) {
+        if (end - start < 2 || buffer[start] != '-') {
+            return false;
+        }
+        for (int i = start + 1; i < end; i++) {
+            final char c = buffer[i];
+            if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '\'')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * String.split(" ") drops trailing empty strings, so the word fixes lose trailing spaces too.
+     */
+    private void stripTrailingSpaces() {
+        while (length > 0 && buffer[length - 1] == ' ') {
+            length--;
+        }
+    }
+
+    private int endOfWord(final int start) {
+        final int space = indexOf(' ', start);
+        return space < 0 ? length : space;
+    }
+
+    private int indexOf(final char c, final int from) {
+        for (int i = from; i < length; i++) {
+            if (buffer[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int replaceAll(final char from, final char to) {
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (buffer[i] == from) {
+                buffer[i] = to;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void replaceFirst(final int start, final int end, final char from, final char to) {
+        replaceFirst(buffer, start, end, from, to);
+    }
+
+    private static void replaceFirst(final char[] target, final int start, final int end, final char from, final char to) {
+        for (int i = start; i < end; i++) {
+            if (target[i] == from) {
+                target[i] = to;
+                return;
+            }
+        }
+    }
+
+    private boolean regionMatches(final int offset, final char[] value) {
+        return regionMatches(buffer, offset, length, value);
+    }
+
+    private static boolean regionMatches(final char[] target, final int offset, final int end, final char[] value) {
+        if (offset + value.length > end) {
+            return false;
+        }
+        for (int i = 0; i < value.length; i++) {
+            if (target[offset + i] != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void swap(final int newLength) {
+        final char[] old = buffer;
+        buffer = spare;
+        spare = old;
+        length = newLength;
+    }
+
+    private void changeQuote(final int index) {
+        final char c = buffer[index];
+        final char quote = changeQuote(c);
+        if (quote != c) {
+            buffer[index] = quote;
+            counters.hit(Rule.QUOTE);
+        }
+    }
+
+    private static char changeQuote(final char c) {
+        switch (c) {
+            case '`':
+            case '’':
+                return '\'';
+            case '“':
+            case '”':
+                return '"';
+            default:
+                return c;
+        }
+    }
+
+    private static boolean isIn(final boolean[] table, final char c) {
+        return c < table.length && table[c];
+    }
+
+    private static boolean[] asciiTable(final String characters) {
+        final boolean[] table = new boolean[128];
+        for (int i = 0; i < characters.length(); i++) {
+            table[characters.charAt(i)] = true;
+        }
+        return table;
+    }
+
+    private static char[] ensureCapacity(final char[] array, final int capacity) {
+        if (array.length >= capacity) {
+            return array;
+        }
+        return new char[Math.max(capacity, array.length * 2)];
+    }
+}
@@ -0,0 +1,417 @@
+package nl.bvs.srtfixer;
+
+import nl.bvs.srtfixer.util.Constants;
+import nl.bvs.srtfixer.util.WordIndex;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The rules of the SrtFileFixer, for each language. 'Ik' is misread as 'lk' in Dutch, 'Il' is a
+ * real word in French and 'llegar' is a real word in Spanish, so one set of rules for all of them
+ * breaks as much as it fixes. Each file gets the rules of its language only.
+ *
+ * The rules are in .rules files in the jar (see the rules dir in the resources), which are read and
+ * compiled once. Put files of the same name in RULE_PACKS_DIR to change them, or add a 'it.rules'
+ * there for a language of your own. The rules in common.rules go with every language.
+ *
+ * The language of a file comes from its name, like Movie.nl.srt, or if it hasn't got one, from the
+ * words in its first cues. Files of which the language can't be told get the 'default' rules, which
+ * are the rules the SrtFileFixer always had, English mostly.
+ *
+ * Immutable, safe to share between threads.
+ */
+final class RulePacks {
+    /** The name of the rules that go with every language. */
+    private static final String COMMON = "common";
+    /** The name of the rules for files of which the language isn't known. */
+    static final String DEFAULT = "default";
+    /** The rules in the jar, besides the common and default ones. */
+    private static final String[] LANGUAGES = {"en", "nl", "fr", "de", "es"};
+    private static final String RESOURCE_DIR = "/nl/bvs/srtfixer/rules/";
+    private static final String EXTENSION = ".rules";
+
+    /** The three letter language codes that show up in file names, and their two letter ones. */
+    private static final String[][] LANGUAGE_CODES = {{"eng", "en"}, {"dut", "nl"}, {"nld", "nl"}, {"fre", "fr"}, {"fra", "fr"},
+            {"ger", "de"}, {"deu", "de"}, {"spa", "es"}};
+
+    /** The number of characters at the start of a file to tell its language by. Enough for 50 cues or so. */
+    private static final int DETECT_LENGTH = 4096;
+    /** The number of words of a language that have to be found, at least, to go with it. */
+    private static final int DETECT_MIN_WORDS = 8;
+
+    private static final String[] SECTIONS = {"options", "line-starts", "line-start-fixes", "word-start-fixes", "ignore", "fixes", "words"};
+
+    private final Pack defaultPack;
+    /** By language, not the default one. */
+    private final Map<String, Pack> packs = new LinkedHashMap<>();
+    private final List<Pack> all = new ArrayList<>();
+    private final int version;
+
+    /**
+     * Reads and compiles all rules.
+     *
+     * @param dictionary real words, null to go without
+     * @throws IllegalStateException if the rules can't be read, or are broken
+     */
+    RulePacks(final WordIndex dictionary) {
+        final Map<String, String> sources = readSources();
+        final Map<String, List<String>> common = parse(COMMON, sources.get(COMMON));
+
+        defaultPack = compile(DEFAULT, common, parse(DEFAULT, sources.get(DEFAULT)), dictionary);
+        for (final Map.Entry<String, String> source : sources.entrySet()) {
+            if (!COMMON.equals(source.getKey()) && !DEFAULT.equals(source.getKey())) {
+                packs.put(source.getKey(), compile(source.getKey(), common, parse(source.getKey(), source.getValue()), dictionary));
+            }
+        }
+
+        version = Arrays.hashCode(new Object[]{sources.toString(), Constants.USE_RULE_PACKS});
+    }
+
+    /**
+     * @return the rules for files of which the language isn't known
+     */
+    Pack getDefault() {
+        return defaultPack;
+    }
+
+    /**
+     * @return all rules, the default ones first, in order of their index
+     */
+    List<Pack> getAll() {
+        return Collections.unmodifiableList(all);
+    }
+
+    /**
+     * @return the version of the rules, which changes whenever any of them change
+     */
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * Picks the rules for a file: those of the language in its name if there is one, otherwise
+     * those of the language of its first cues. The reader is reset to where it was after that.
+     *
+     * @param file the file, null if it has no name (e.g. fixing over HTTP)
+     * @param reader the reader of the file, before any of it is read
+     * @return the rules to fix the file with
+     */
+    Pack choose(final File file, final BufferedReader reader) throws IOException {
+        if (!Constants.USE_RULE_PACKS) {
+            return defaultPack;
+        }
+
+        if (file != null) {
+            final Pack pack = packs.get(languageOf(file.getName()));
+            if (pack != null) {
+                return pack;
+            }
+        }
+        return detect(reader);
+    }
+
+    /**
+     * The language tag of a file name, the part before the extension like in Movie.nl.srt. Also
+     * when it is followed by another tag, like in Movie.en.forced.srt.
+     *
+     * @return the language, null if the name hasn't got one that there are rules for
+     */
+    private String languageOf(final String fileName) {
+        final String[] parts = fileName.toLowerCase(Locale.ROOT).split("\\.");
+        for (int i = parts.length - 2; i >= Math.max(1, parts.length - 3); i--) {
+            String tag = parts[i];
+            for (final String[] code : LANGUAGE_CODES) {
+                if (code[0].equals(tag)) {
+                    tag = code[1];
+                }
+            }
+            if (packs.containsKey(tag)) {
+                return tag;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Tells the language by counting the words of each language in the first part of the file.
+     * OCR mistakes are counted too, 'lk' for 'ik'. The language with the most words wins, if it
+     * has clearly more than any other, otherwise it's a draw and the default rules it is.
+     */
+    private Pack detect(final BufferedReader reader) throws IOException {
+        final char[] text = new char[DETECT_LENGTH];
+        int length = 0;
+        reader.mark(DETECT_LENGTH);
+        try {
+            int read;
+            while (length < text.length && (read = reader.read(text, length, text.length - length)) > 0) {
+                length += read;
+            }
+        } finally {
+            reader.reset();
+        }
+
+        final int[] counts = new int[all.size()];
+        final StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= length; i++) {
+            final char c = i < length ? text[i] : ' ';
+            if (Character.isLetter(c) || (c == '\'' && word.length() > 0)) {
+                word.append(Character.toLowerCase(c));
+                continue;
+            }
+            if (word.length() == 0) {
+                continue;
+            }
+
+            final String found = word.toString();
+            final String misread = found.charAt(0) == 'l' ? 'i' + found.substring(1) : null;
+            for (final Pack pack : packs.values()) {
+                if (pack.words.contains(found) || (misread != null && pack.words.contains(misread))) {
+                    counts[pack.index]++;
+                }
+            }
+            word.setLength(0);
+        }
+
+        Pack best = defaultPack;
+        int second = 0;
+        for (final Pack pack : packs.values()) {
+            if (counts[pack.index] > counts[best.index]) {
+                second = counts[best.index];
+                best = pack;
+            } else if (counts[pack.index] > second) {
+                second = counts[pack.index];
+            }
+        }
+        return counts[best.index] >= DETECT_MIN_WORDS && counts[best.index] > second * 2 ? best : defaultPack;
+    }
+
+    /**
+     * Reads the rules in the jar, and those in RULE_PACKS_DIR, which win.
+     *
+     * @return the text of each rules file, by name
+     */
+    private static Map<String, String> readSources() {
+        final Map<String, String> sources = new LinkedHashMap<>();
+        try {
+            for (final String name : names()) {
+                try (InputStream in = RulePacks.class.getResourceAsStream(RESOURCE_DIR + name + EXTENSION)) {
+                    if (in == null) {
+                        throw new FileNotFoundException(RESOURCE_DIR + name + EXTENSION);
+                    }
+                    sources.put(name, read(in));
+                }
+            }
+
+            if (!Constants.RULE_PACKS_DIR.isEmpty()) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(Constants.RULE_PACKS_DIR), "*" + EXTENSION)) {
+                    for (final Path file : files) {
+                        final String fileName = file.getFileName().toString();
+                        try (InputStream in = Files.newInputStream(file)) {
+                            sources.put(fileName.substring(0, fileName.length() - EXTENSION.length()), read(in));
+                        }
+                    }
+                }
+            }
+        } catch (final IOException e) {
+            System.err.println("Failed to read the rules :: " + Constants.RULE_PACKS_DIR);
+            throw new IllegalStateException("No rules, no fixing. Kaboom!", e);
+        }
+        return sources;
+    }
+
+    private static List<String> names() {
+        final List<String> names = new ArrayList<>(Arrays.asList(COMMON, DEFAULT));
+        names.addAll(Arrays.asList(LANGUAGES));
+        return names;
+    }
+
+    private static String read(final InputStream in) throws IOException {
+        final Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+        final StringBuilder text = new StringBuilder();
+        final char[] buffer = new char[4096];
+        int read;
+        while ((read = reader.read(buffer)) > 0) {
+            text.append(buffer, 0, read);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Parses a rules file: sections like '[fixes]', each followed by its values, one per line.
+     * Values that start or end with spaces are put in quotes, with '\' before quotes and
+     * backslashes in them. Lines starting with '#' are comments.
+     *
+     * @return the values of each section, by section
+     */
+    private static Map<String, List<String>> parse(final String name, final String source) {
+        final Map<String, List<String>> sections = new HashMap<>();
+        for (final String section : SECTIONS) {
+            sections.put(section, new ArrayList<String>());
+        }
+
+        List<String> values = null;
+        final String[] lines = source.split("\r?\n");
+        for (int i = 0; i < lines.length; i++) {
+            final String line = lines[i].trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            if (line.startsWith("[") && line.endsWith("]") && line.length() > 2) {
+                values = sections.get(line.substring(1, line.length() - 1));
+                if (values == null) {
+                    throw broken(name, i, "unknown section " + line);
+                }
+            } else if (values == null) {
+                throw broken(name, i, "value before the first section");
+            } else if (line.startsWith("\"")) {
+                values.add(unquote(name, i, line));
+            } else {
+                values.add(line);
+            }
+        }
+        return sections;
+    }
+
+    private static String unquote(final String name, final int lineIndex, final String line) {
+        final StringBuilder value = new StringBuilder();
+        for (int i = 1; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (c == '"') {
+                if (i != line.length() - 1) {
+                    throw broken(name, lineIndex, "text after the closing quote");
+                }
+                return value.toString();
+            }
+            if (c == '\\' && i + 1 < line.length()) {
+                i++;
+            }
+            value.append(line.charAt(i));
+        }
+        throw broken(name, lineIndex, "no closing quote");
+    }
+
+    private static IllegalStateException broken(final String name, final int lineIndex, final String problem) {
+        return new IllegalStateException("Broken rules, " + problem + " :: " + name + EXTENSION + ":" + (lineIndex + 1));
+    }
+
+    /**
+     * Compiles the rules of a language, with the common ones added in front.
+     */
+    private Pack compile(final String name, final Map<String, List<String>> common, final Map<String, List<String>> language,
+                         final WordIndex dictionary) {
+        final Map<String, String> options = new HashMap<>();
+        for (final String option : language.get("options")) {
+            final int equals = option.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalStateException("Options are 'name = value' :: " + name + EXTENSION + " :: " + option);
+            }
+            options.put(option.substring(0, equals).trim(), option.substring(equals + 1).trim());
+        }
+
+        final List<String> fixes = join(common, language, "fixes");
+        final String[][] fixList = new String[fixes.size()][];
+        for (int i = 0; i < fixList.length; i++) {
+            fixList[i] = fixes.get(i).split("\\s+");
+            if (fixList[i].length != 2) {
+                throw new IllegalStateException("Fixes are a wrong and a right word :: " + name + EXTENSION + " :: " + fixes.get(i));
+            }
+        }
+
+        final LineRules rules = new LineRules(toArray(join(common, language, "line-starts")),
+                toArray(join(common, language, "line-start-fixes")), toArray(join(common, language, "word-start-fixes")),
+                join(common, language, "ignore"), fixList, dictionary,
+                Boolean.parseBoolean(options.get("lone-l")), Boolean.parseBoolean(options.get("lower-case-i")));
+
+        final Set<String> words = new HashSet<>();
+        for (final String word : language.get("words")) {
+            words.add(word.toLowerCase(Locale.ROOT));
+        }
+
+        final Pack pack = new Pack(name, all.size(), rules, words);
+        all.add(pack);
+        return pack;
+    }
+
+    private static List<String> join(final Map<String, List<String>> common, final Map<String, List<String>> language,
+                                     final String section) {
+        final List<String> values = new ArrayList<>(common.get(section));
+        values.addAll(language.get(section));
+        return values;
+    }
+
+    private static String[] toArray(final List<String> values) {
+        return values.toArray(new String[values.size()]);
+    }
+
+    /**
+     * The compiled rules of one language.
+     */
+    static final class Pack {
+        private final String name;
+        private final int index;
+        private final LineRules rules;
+        /** Frequent words of the language, to tell it by. */
+        private final Set<String> words;
+
+        /** The scanners fixing the lines, one per thread since they reuse their buffers. */
+        private final ThreadLocal<LineScanner> scanner = new ThreadLocal<LineScanner>() {
+            @Override
+            protected LineScanner initialValue() {
+                return new LineScanner(rules);
+            }
+        };
+
+        private Pack(final String name, final int index, final LineRules rules, final Set<String> words) {
+            this.name = name;
+            this.index = index;
+            this.rules = rules;
+            this.words = words;
+        }
+
+        /**
+         * @return the language, or 'default'
+         */
+        String getName() {
+            return name;
+        }
+
+        /**
+         * @return the index of the pack in RulePacks.getAll, to keep things per pack in an array
+         */
+        int getIndex() {
+            return index;
+        }
+
+        LineRules getRules() {
+            return rules;
+        }
+
+        /**
+         * @return the scanner of the current thread
+         */
+        LineScanner getScanner() {
+            return scanner.get();
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
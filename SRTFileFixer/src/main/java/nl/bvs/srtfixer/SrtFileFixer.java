@@ -1,106 +1,294 @@
 package nl.bvs.srtfixer;
 
+import nl.bvs.srtfixer.srt.Cue;
+import nl.bvs.srtfixer.srt.CueRepair;
+import nl.bvs.srtfixer.srt.SrtReader;
+import nl.bvs.srtfixer.srt.SrtWriter;
 import nl.bvs.srtfixer.util.Constants;
-import nl.bvs.srtfixer.util.FileFinder;
+import nl.bvs.srtfixer.util.FixerMetrics;
+import nl.bvs.srtfixer.util.FixerMetrics.Rule;
+import nl.bvs.srtfixer.util.LineCache;
+import nl.bvs.srtfixer.util.Verbosity;
+import nl.bvs.srtfixer.util.WordIndex;
 
 import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
- * Rather hacky code to fix subtitle files, but it works well enough. It is
- * tailored to my TV, streaming apps and personal preference. It performs fine,
- * so I can't be bothered with optimising the code.
+ * Fixes subtitle files, tailored to my TV, streaming apps and personal preference.
  *
  * SRT files are often ripped from images by OCR software. A lot of the time,
  * the upper case 'I' and lower case 'l' are mixed up by such processes. This
  * can cause annoyance when reading the subtitles.
  *
- * This little class tries to fix many of these issues. And usually it fixes way
+ * This class tries to fix many of these issues. And usually it fixes way
  * more than it breaks, so yay!
+ *
+ * How it goes about it, since there are a lot of subtitles to get through:
+ *
+ * - The rules are compiled once per language into a rule pack (RulePacks, LineRules), and a
+ *   LineScanner applies them to a line in a single pass, instead of a regex per rule.
+ * - Lines that were fixed before are looked up in a LineCache, which can be kept between runs.
+ * - Big files are cut into CueChunks that are fixed on a fork/join pool and written in order.
+ * - The BaseFixer reads files ahead while others are being fixed, and backs up and writes them
+ *   on threads of their own.
+ * - If enabled, a CueRepair puts the fixed cues in order on the way out, and gets rid of duplicates
+ *   and overlaps.
  */
 public class SrtFileFixer extends BaseFixer {
-    /** Lines can start with various things such as dashes or quotes. */
-    private static final String[] LINE_STARTS = {"", "\"", "-", "--", " -", " --", "- ", "-- ", " - ", " -- ",
-            "-\"", "--\"", " -\"", " --\"", "- \"", "-- \"", " - \"", " -- \"", "[", " [", " [ ", "(", " (", " ( "};
+    /** Bump this when changing how the rules are applied, so previously fixed files are fixed again. */
+    private static final int RULES_REVISION = 1;
+
+    /** The bold/italic/br tags to remove, if enabled. In this order. */
+    private static final char[][] HTML_TAGS = {"<b>".toCharArray(), "</b>".toCharArray(), "<i>".toCharArray(), "</i>".toCharArray(),
+            "<br>".toCharArray(), "<br />".toCharArray()};
 
-    /** Some words to ignore while fixing. First 4 are the only English words that start with a double l. Wtf is a llano? */
-    private static final List<String> IGNORE_LIST = Arrays.asList("llama", "llamas", "llano", "llanos", "llorar");
+    /** The I/l rules of each language, compiled once. */
+    private static final RulePacks PACKS = new RulePacks(loadDictionary());
 
-    /** Some words are wrongfully fixed. Starting with some Roman numerals. */
-    private static final String[][] FIX_LIST = {{"ll", "II"}, {"Il", "II"}, {"IlI", "III"}, {"IlI:", "III:"}, {"Vll", "VII"}, {"VIlI", "VIII"},
-            {"VllI", "VIII"}, {"Xll", "XII"}, {"XIlI", "XIII"}, {"XVll", "XVII"}, {"XVIlI", "XVIII"}, {"Nll", "NII"}, {"XXllI", "XXIII"},
-            {"d'lsere", "d'Isere"}, {"lemand", "Iemand"}, {"Iets", "lets"}, {"ledere", "Iedere"}, {"Gls", "GIs"},
-            {"KEllCHI", "KEIICHI"}, {"leyasu", "Ieyasu"}};
+    /**
+     * How lines were fixed, shared by all threads. For each rule pack one cache for each combination
+     * of removing tags and changing quotes, which fix lines differently: [pack][tags * 2 + quotes].
+     */
+    private static final LineCache[][] LINE_CACHES = newLineCaches();
+
+    /**
+     * Fixes the chunks of big files, shared by all files. Its threads are daemons, so it
+     * doesn't need shutting down.
+     */
+    private static final ForkJoinPool CHUNK_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    /** The number of chunks of a file being fixed or waiting to be written, at most. */
+    private static final int CHUNKS_IN_FLIGHT = CHUNK_POOL.getParallelism() * 2;
 
     /**
      * Go go gadget SrtFileFixer.
-     * @param args if you enjoy passing about arguments that are never used, this is the place to do it!
+     * @param args nothing to fix the root dir once, "watch" to keep fixing the files that come in,
+     *             or "check" to only see which files would change. The exit code of a check is the
+     *             number of files that would change, at most 255.
      */
     public static void main(final String[] args) {
+        if (args.length > 0 && "watch".equals(args[0])) {
+            System.out.println("Watching directory :: " + Constants.FILEFIXER_ROOT_DIR);
+            new SrtFileFixer().watch();
+            return;
+        }
+        if (args.length > 0 && "check".equals(args[0])) {
+            System.out.println("Checking directory :: " + Constants.FILEFIXER_ROOT_DIR);
+            System.exit((int) Math.min(new SrtFileFixer().check(), 255));
+        }
+
         System.out.println("Processing directory :: " + Constants.FILEFIXER_ROOT_DIR);
         new SrtFileFixer().process();
     }
 
     @Override
     protected void process() {
-        // collect all srt files in the root dir
-        final List<File> srtFiles = new FileFinder().collect(new File(Constants.FILEFIXER_ROOT_DIR), Constants.SRT_EXTENSION);
+        fixDirectory(new File(Constants.FILEFIXER_ROOT_DIR), getRulesVersion());
+        saveLineCache();
+    }
+
+    /**
+     * Keeps fixing the files in the root dir as they come in, until stopped.
+     */
+    void watch() {
+        watchDirectory(new File(Constants.FILEFIXER_ROOT_DIR), getRulesVersion());
+    }
 
-        // process each file, making a backup first if it is enabled
-        for (final File srtFile : srtFiles) {
-            System.out.println("Processing subtitle file :: " + srtFile.getName());
+    /**
+     * Checks which files in the root dir would change, without writing anything.
+     *
+     * @return the number of files that would change
+     */
+    long check() {
+        final long changed = checkDirectory(new File(Constants.FILEFIXER_ROOT_DIR), getRulesVersion());
+        saveLineCache();
+        return changed;
+    }
 
-            if (Constants.MAKE_BACKUPS) {
-                backupFile(srtFile);
+    /**
+     * @return the compiled rules for files of which the language isn't known, e.g. for a scanner of your own
+     */
+    static LineRules getRules() {
+        return PACKS.getDefault().getRules();
+    }
+
+    /**
+     * @return the rules of each language
+     */
+    static RulePacks getRulePacks() {
+        return PACKS;
+    }
+
+    /**
+     * The version of the rules, which changes whenever the rules, or the flags that
+     * turn them on and off, change. Files fixed with other rules are fixed again.
+     *
+     * @return the version of the rules
+     */
+    static int getRulesVersion() {
+        final WordIndex dictionary = getRules().getDictionary();
+        return Arrays.deepHashCode(new Object[]{RULES_REVISION, PACKS.getVersion(), HTML_TAGS, Constants.REMOVE_HTML_TAGS,
+                Constants.CHANGE_QUOTES, Constants.REPAIR_CUES, dictionary == null ? 0 : dictionary.getChecksum()});
+    }
+
+    /**
+     * Makes the line caches, if enabled. The ones for the flags in the Constants are loaded from
+     * the line cache file, if there is one: those are the ones fixing files uses. The default rules
+     * use the file itself, the other rule packs a file of their own next to it, e.g. 'lines.cache.nl'.
+     */
+    private static LineCache[][] newLineCaches() {
+        if (!Constants.CACHE_LINES) {
+            return null;
+        }
+
+        final List<RulePacks.Pack> packs = PACKS.getAll();
+        final LineCache[][] caches = new LineCache[packs.size()][4];
+        for (final RulePacks.Pack pack : packs) {
+            for (int i = 0; i < 4; i++) {
+                caches[pack.getIndex()][i] = new LineCache(Arrays.hashCode(new int[]{getRulesVersion(), pack.getIndex(), i}),
+                        Constants.LINE_CACHE_MAX_LINES, Constants.LINE_CACHE_MAX_MEMORY);
+            }
+            if (!Constants.LINE_CACHE_FILE.isEmpty()) {
+                getLineCache(pack, Constants.REMOVE_HTML_TAGS, Constants.CHANGE_QUOTES, caches).load(getLineCacheFile(pack));
             }
+        }
+        return caches;
+    }
 
-            fix(srtFile);
+    private static LineCache getLineCache(final RulePacks.Pack pack, final boolean removeTags, final boolean changeQuotes,
+                                          final LineCache[][] caches) {
+        return caches[pack.getIndex()][(removeTags ? 2 : 0) + (changeQuotes ? 1 : 0)];
+    }
+
+    private static Path getLineCacheFile(final RulePacks.Pack pack) {
+        final Path file = Paths.get(Constants.LINE_CACHE_FILE);
+        return pack == PACKS.getDefault() ? file : file.resolveSibling(file.getFileName() + "." + pack.getName());
+    }
+
+    /**
+     * Saves the line caches for the flags in the Constants to the line cache file, if there is one,
+     * so the next run doesn't start from scratch. Only those of the rule packs that were used.
+     */
+    static void saveLineCache() {
+        if (LINE_CACHES == null || Constants.LINE_CACHE_FILE.isEmpty()) {
+            return;
+        }
+        for (final RulePacks.Pack pack : PACKS.getAll()) {
+            final LineCache cache = getLineCache(pack, Constants.REMOVE_HTML_TAGS, Constants.CHANGE_QUOTES, LINE_CACHES);
+            if (cache.size() > 0) {
+                cache.save(getLineCacheFile(pack));
+            }
+        }
+    }
+
+    /**
+     * @return the dictionary, if enabled, null otherwise
+     */
+    private static WordIndex loadDictionary() {
+        if (!Constants.USE_DICTIONARY) {
+            return null;
+        }
+        try {
+            return WordIndex.open(Paths.get(Constants.DICTIONARY_INDEX_FILE));
+        } catch (final IOException | IllegalArgumentException e) {
+            System.err.println("Failed to load the dictionary :: " + Constants.DICTIONARY_INDEX_FILE);
+            throw new IllegalStateException("I wanted a dictionary. Not getting one, so kaboom!", e);
         }
     }
 
     /**
      * Tries to fix as many issues in the file, hopefully without introducing any new problems.
+     *
+     * I've seen SRT files with lots of useless empty lines. Only one single empty line
+     * is left between cues, none before the first one, and the cues are numbered 1, 2, 3 etc.
+     *
+     * Big files are cut into chunks of cues, which are fixed in parallel and written in order,
+     * so one huge file doesn't keep a single core busy while the rest do nothing. The cues are
+     * read and numbered in order, so the result is the same as fixing them one by one.
+     *
+     * If enabled, the fixed cues go through a CueRepair on their way out, which puts them in
+     * order and gets rid of overlaps and duplicates.
+     *
+     * The I/l fixes are those of the language of the file, see RulePacks.
      */
     @Override
     protected void fixFile(final BufferedReader reader, final BufferedWriter writer) throws Exception {
-        // init
-        int lineCounter = 1;
-        boolean lastLineWasEmpty = false;
-
-        String line;
-        while ((line = reader.readLine()) != null) {
-            final String fixedLine = fixLine(line);
-
-            if (fixedLine != null && !"".equals(fixedLine.trim())) {
-                if (lastLineWasEmpty && lineIsNumberAboveZero(fixedLine)) {
-                    writer.newLine();
-                    lineCounter++;
-                    writer.write("" + lineCounter);
-                } else {
-                    lastLineWasEmpty = false;
-                    writer.write(fixedLine);
+        final RulePacks.Pack pack = PACKS.choose(getCurrentFile(), reader);
+        if (Constants.VERBOSITY == Verbosity.CHANGES) {
+            log("Rule pack :: " + pack);
+        }
+
+        final SrtReader srtReader = new SrtReader(reader);
+        final SrtWriter srtWriter = new SrtWriter(writer);
+        try (CueRepair repair = Constants.REPAIR_CUES ? new CueRepair(srtWriter, Constants.REPAIR_MAX_MEMORY) : null) {
+            fixCues(srtReader, srtWriter, repair, pack);
+            if (repair != null) {
+                repair.finish();
+                if (repair.hasRepairs() && Constants.VERBOSITY != Verbosity.QUIET) {
+                    log("Repaired cues :: " + repair);
                 }
-                writer.newLine();
-            } else {
-                lastLineWasEmpty = true;
             }
         }
     }
 
+    private void fixCues(final SrtReader srtReader, final SrtWriter srtWriter, final CueRepair repair, final RulePacks.Pack pack)
+            throws Exception {
+        final Deque<CueChunk> inFlight = new ArrayDeque<>();
+
+        CueChunk chunk = new CueChunk(pack);
+        int cueCounter = 0;
+        while (srtReader.next()) {
+            if (srtReader.hasTimecode()) {
+                cueCounter++;
+            }
+            chunk.add(srtReader, cueCounter);
+
+            if (chunk.size() == Constants.FILEFIXER_CHUNK_CUES) {
+                CHUNK_POOL.execute(chunk);
+                inFlight.add(chunk);
+                if (inFlight.size() > CHUNKS_IN_FLIGHT) {
+                    write(inFlight.poll(), srtWriter, repair);
+                }
+                chunk = new CueChunk(pack);
+            }
+        }
+
+        if (inFlight.isEmpty()) {
+            // not a big file after all, no need to bother the pool
+            chunk.invoke();
+        } else {
+            CHUNK_POOL.execute(chunk);
+        }
+        inFlight.add(chunk);
+
+        while (!inFlight.isEmpty()) {
+            write(inFlight.poll(), srtWriter, repair);
+        }
+    }
+
     /**
-     * I've seen SRT files with lots of useless empty lines. Only
-     * allow one single empty line between time codes. Do NOT add one
-     * before the first one.
-     *
-     * @param line if the line is one that only contains a number
-     * @return true if it is, false if it isn't
+     * Waits for the chunk to be fixed, logs its changes and writes its cues, or hands them to the repair if there is one.
      */
-    private boolean lineIsNumberAboveZero(final String line) {
-        try {
-            return Integer.parseInt(line) > 1;
-        } catch(final NumberFormatException nfe) {
-            return false;
+    private void write(final CueChunk chunk, final SrtWriter srtWriter, final CueRepair repair) throws IOException {
+        chunk.join();
+        for (final Change change : chunk.changes) {
+            logChange(change.cue, change.rules, change.before, change.after);
+        }
+        for (final Cue cue : chunk.cues) {
+            if (repair != null) {
+                repair.add(cue);
+            } else {
+                cue.write(srtWriter);
+            }
         }
     }
 
@@ -118,159 +306,134 @@ public class SrtFileFixer extends BaseFixer {
      * @param line the line of text to attempt to fix
      * @return the line fixed as much as possible
      */
-    private String fixLine(final String line) {
+    String fixLine(final String line, final int cue) {
+        final FixerMetrics.RuleCounters counters = FixerMetrics.get().getRuleCounters();
+        counters.clearFired();
+        final String fixedLine = cleanLine(line, PACKS.getDefault(), Constants.REMOVE_HTML_TAGS, Constants.CHANGE_QUOTES);
+
+        // logging
+        if (fixedLine != null && fixedLine != line) {
+            logChange(cue, counters.getFired(), line, fixedLine);
+        }
+        return fixedLine;
+    }
+
+    /**
+     * Does the actual fixing of fixLine, without the logging. Lines that were fixed before come from
+     * the line cache, if enabled, counting the rules that fired then as if they fired again.
+     *
+     * @param line the line of text to attempt to fix
+     * @param linePack the rules of the language of the line, null for the default ones
+     * @param removeTags whether to remove the bold/italic/br tags
+     * @param changeQuotes whether to replace '`' and other weird quotes with regular ones
+     * @return the line fixed as much as possible, the same instance if nothing changed, or null if it is empty
+     */
+    static String cleanLine(final String line, final RulePacks.Pack linePack, final boolean removeTags, final boolean changeQuotes) {
         // nothing to fix
-        if (line == null || "".equals(line.trim())) {
+        if (line == null || isBlank(line)) {
             return null;
         }
+        final RulePacks.Pack pack = linePack != null ? linePack : PACKS.getDefault();
 
-        String fixedLine = line.trim();
+        if (LINE_CACHES == null) {
+            return applyRules(line, pack, removeTags, changeQuotes);
+        }
+
+        final LineCache cache = getLineCache(pack, removeTags, changeQuotes, LINE_CACHES);
+        final FixerMetrics.RuleCounters counters = FixerMetrics.get().getRuleCounters();
+        final LineCache.Entry cached = cache.get(line);
+        if (cached != null) {
+            counters.replay(cached.getHits());
+            return cached.getFixedLine(line);
+        }
+
+        counters.cacheMiss();
+        counters.mark();
+        final String fixedLine = applyRules(line, pack, removeTags, changeQuotes);
+        cache.put(line, fixedLine, counters.getHitsSinceMark());
+        return fixedLine;
+    }
+
+    private static String applyRules(final String line, final RulePacks.Pack pack, final boolean removeTags, final boolean changeQuotes) {
+        final LineScanner scanner = pack.getScanner();
+        scanner.reset(line);
 
         // more weird shit - NUL characters, escape stuff
-//        fixedLine = fixedLine.replaceAll("[\uFEFF-\uFFFF]", "");
-        fixedLine = fixedLine.replaceAll("[\\x00]", "");
+        scanner.remove('\u0000', Rule.NUL_CHARACTER);
+        scanner.lap(Rule.NUL_CHARACTER);
 
         // Also get rid of the bold/italic/etc tags that might be there
-        if (Constants.REMOVE_HTML_TAGS) {
-            fixedLine = removeHTMLTags(fixedLine);
+        if (removeTags) {
+            scanner.removeTags(HTML_TAGS);
+            scanner.lap(Rule.HTML_TAG);
         }
 
         // Fix l -> I in lines that only consist of caps (besides the l's) and special characters, like [](): etc.
-        fixedLine = fixCapsOnlyLines(fixedLine);
-
-        // Replace ` with ' because they just look weird
-        if (Constants.CHANGE_QUOTES) {
-            fixedLine = changeQuotes(fixedLine);
-        }
+        scanner.fixCapsOnlyLine();
+        scanner.lap(Rule.CAPS_ONLY_LINE);
 
-        // most of the fixing happens here
-        fixedLine = fixCapsedI(fixedLine);
+        // most of the fixing happens here, replacing ` with ' on the way because they just look weird
+        scanner.fixCapsedI(changeQuotes);
+        scanner.lap(Rule.CAPSED_I);
 
         // fix 'l ', lf, ln, ls, lt, l'm l've etc at start of the line
-        if (shouldFixLineStart(fixedLine, "l")) {
-            // this may not cover everything, but it will cover 99%
-            fixedLine = fixLineStart(fixedLine, "l ", "ln ", "ls ", "lt ", "lf ", "l'", "lc", "lsn't ", "lt'", "lr", "ld", "lb", "lc",
-                    "lg", "lh", "lj", "lk", "ll", "lm", "lp", "lq", "lr", "lv", "lw", "lx", "lz");
-        }
+        scanner.fixLineStart();
+        scanner.lap(Rule.LINE_START);
 
         // fix l --> I
-        fixedLine = fixedLine.replaceAll(" l ", " I ");
-        fixedLine = fixedLine.replaceAll(" l'", " I'");
+        scanner.fixLoneL();
+        scanner.lap(Rule.LONE_L);
 
         // if for some reason there is a capital I in the middle of a line (e.g. 2 sentences on one line, a name/place etc.)
-        fixedLine = fixWordStarts(fixedLine);
+        scanner.fixWordStarts();
+        scanner.lap(Rule.WORD_START);
 
         // last round, sometimes mistakes are made, this method tries to fix some of them
-        fixedLine = fixMistakes(fixedLine);
+        scanner.fixMistakes();
+        scanner.lap(Rule.MISTAKE);
 
         // just to be sure, trim again
-        fixedLine = fixedLine.trim();
+        scanner.trim();
 
-        // logging
-        if (!fixedLine.equals(line)) {
-            System.out.println("  Changed <[" + line + "]> --> to --> <[" + fixedLine + "]>.");
-        }
-
-        return fixedLine;
+        return scanner.contentEquals(line) ? line : scanner.toString();
     }
 
     /**
-     * If the line is something like '[SHOUTlNG]', mostly for the hearing impaired, correct the l to an I.
-     * Also covers a few other cases like: 'MlKE:' and allows for single/double quotes, dashes and
-     * a few other special characters.
+     * Removes the bold/italic/br tags from a line, and nothing else (besides trimming it).
      *
      * @param line the line to fix
-     * @return the fixed line
+     * @return the fixed line, the same instance if nothing changed
      */
-    private String fixCapsOnlyLines(final String line) {
-        if (line.matches("^[0-9A-Zl\\[\\]:'\"\\(\\)\\- ]*$")) {
-            return line.replaceAll("l", "I");
-        }
-        return line;
+    static String removeTags(final String line) {
+        final LineScanner scanner = PACKS.getDefault().getScanner();
+        scanner.reset(line);
+        scanner.removeTags(HTML_TAGS);
+        return scanner.contentEquals(line) ? line : scanner.toString();
     }
 
     /**
-     * Kind of a brute force fix all for capital I's that are in places
-     * they most likely shouldn't be. But since this is a rather crude
-     * approach, the resulting line will have to go through some more
-     * rounds of fixing to both fix things this method failed to fix, or
-     * to repair things this method broke.
+     * Replaces '`' and other weird quotes in a line with regular ones, and nothing else (besides trimming it).
      *
      * @param line the line to fix
-     * @return the fixed line
+     * @return the fixed line, the same instance if nothing changed
      */
-    private String fixCapsedI(final String line) {
-        String fixedLine = line;
-
-        // I in a word, not first letter
-        fixedLine = fixedLine.replaceAll("II", "ll"); // except this one, but what word starts with II? Yeah, Roman numbers... sigh
-        fixedLine = fixedLine.replaceAll("aI", "al");
-        fixedLine = fixedLine.replaceAll("bI", "bl");
-        fixedLine = fixedLine.replaceAll("cI", "cl");
-        fixedLine = fixedLine.replaceAll("dI", "dl");
-        fixedLine = fixedLine.replaceAll("eI", "el");
-        fixedLine = fixedLine.replaceAll("fI", "fl");
-        fixedLine = fixedLine.replaceAll("gI", "gl");
-        fixedLine = fixedLine.replaceAll("hI", "hl");
-        fixedLine = fixedLine.replaceAll("iI", "il");
-        fixedLine = fixedLine.replaceAll("jI", "jl");
-        fixedLine = fixedLine.replaceAll("kI", "kl");
-        fixedLine = fixedLine.replaceAll("mI", "ml");
-        fixedLine = fixedLine.replaceAll("nI", "nl");
-        fixedLine = fixedLine.replaceAll("oI", "ol");
-        fixedLine = fixedLine.replaceAll("pI", "pl");
-        fixedLine = fixedLine.replaceAll("qI", "ql");
-        fixedLine = fixedLine.replaceAll("rI", "rl");
-        fixedLine = fixedLine.replaceAll("sI", "sl");
-        fixedLine = fixedLine.replaceAll("tI", "tl");
-        fixedLine = fixedLine.replaceAll("uI", "ul");
-        fixedLine = fixedLine.replaceAll("vI", "vl");
-        fixedLine = fixedLine.replaceAll("wI", "wl");
-        fixedLine = fixedLine.replaceAll("xI", "xl");
-        fixedLine = fixedLine.replaceAll("yI", "yl");
-        fixedLine = fixedLine.replaceAll("zI", "zl");
-
-        // I in a word, could be [If|In|Is|It] so it breaks that, fix it later
-        fixedLine = fixedLine.replaceAll("Ia", "la");
-        fixedLine = fixedLine.replaceAll("Ib", "lb");
-        fixedLine = fixedLine.replaceAll("Ic", "lc");
-        fixedLine = fixedLine.replaceAll("Id", "ld");
-        fixedLine = fixedLine.replaceAll("Ie", "le");
-        fixedLine = fixedLine.replaceAll("If", "lf");
-        fixedLine = fixedLine.replaceAll("Ig", "lg");
-        fixedLine = fixedLine.replaceAll("Ih", "lh");
-        fixedLine = fixedLine.replaceAll("Ii", "li");
-        fixedLine = fixedLine.replaceAll("Ij", "lj");
-        fixedLine = fixedLine.replaceAll("Ik", "lk");
-        fixedLine = fixedLine.replaceAll("Im", "lm");
-        fixedLine = fixedLine.replaceAll("In", "ln");
-        fixedLine = fixedLine.replaceAll("Io", "lo");
-        fixedLine = fixedLine.replaceAll("Ip", "lp");
-        fixedLine = fixedLine.replaceAll("Iq", "lq");
-        fixedLine = fixedLine.replaceAll("Ir", "lr");
-        fixedLine = fixedLine.replaceAll("Is", "ls");
-        fixedLine = fixedLine.replaceAll("It", "lt");
-        fixedLine = fixedLine.replaceAll("Iu", "lu");
-        fixedLine = fixedLine.replaceAll("Iv", "lv");
-        fixedLine = fixedLine.replaceAll("Iw", "lw");
-        fixedLine = fixedLine.replaceAll("Ix", "lx");
-        fixedLine = fixedLine.replaceAll("Iy", "ly");
-        fixedLine = fixedLine.replaceAll("Iz", "lz");
-
-        return fixedLine;
+    static String changeQuotes(final String line) {
+        final LineScanner scanner = PACKS.getDefault().getScanner();
+        scanner.reset(line);
+        scanner.changeQuotes();
+        return scanner.contentEquals(line) ? line : scanner.toString();
     }
 
     /**
-     * Changes the quotes in the given line
-     * @param line the line to fix
-     * @return the line with fixed quotes
+     * Same as "".equals(line.trim()), without creating the trimmed String.
      */
-    private String changeQuotes(final String line) {
-        String fixedLine = line.replaceAll("`", "'");
-        fixedLine = fixedLine.replaceAll("’", "'");
-        fixedLine = fixedLine.replaceAll("“", "\"");
-        fixedLine = fixedLine.replaceAll("”", "\"");
-        return fixedLine;
+    private static boolean isBlank(final String line) {
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -282,8 +445,8 @@ public class SrtFileFixer extends BaseFixer {
      * @return true if the line start needs to be fixed, false if not
      */
     public boolean shouldFixLineStart(final String line, final String startValue) {
-        for (final String lineStarter : LINE_STARTS) {
-            if (line.startsWith(lineStarter + startValue)) {
+        for (final char[] lineStarter : getRules().getLineStarts()) {
+            if (line.startsWith(new String(lineStarter) + startValue)) {
                 return true;
             }
         }
@@ -291,172 +454,72 @@ public class SrtFileFixer extends BaseFixer {
     }
 
     /**
-     * Fixes a line start. See shouldFixLineStart for more details.
-     *
-     * @param line the line to fix
-     * @param possibleValues the values the line could start with
-     * @return the fixed line
-     */
-    private String fixLineStart(final String line, final String... possibleValues) {
-        for (final String possibleValue : possibleValues) {
-            for (final String lineStarter : LINE_STARTS) {
-                if (line.startsWith(lineStarter + possibleValue)) {
-                    return line.replaceFirst("l", "I");
-                }
-            }
-        }
-        return line;
-    }
-
-    /**
-     * Removes certain HTML tags from the given line.
-     *
-     * @param lineToFix the line to fix
-     * @return the fixed line, without the removed HTML tags
+     * A run of cues of a file, fixed in one go on the chunk pool. The changes are kept, to be
+     * logged by the thread fixing the file, in order.
      */
-    private String removeHTMLTags(final String lineToFix) {
-        String fixedLine = lineToFix;
+    private static final class CueChunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
 
-        fixedLine = fixedLine.replaceAll("<b>", "");
-        fixedLine = fixedLine.replaceAll("</b>", "");
-        fixedLine = fixedLine.replaceAll("<i>", "");
-        fixedLine = fixedLine.replaceAll("</i>", "");
-        fixedLine = fixedLine.replaceAll("<br>", "");
-        fixedLine = fixedLine.replaceAll("<br />", "");
+        private final RulePacks.Pack pack;
+        private final List<Cue> cues = new ArrayList<>(Constants.FILEFIXER_CHUNK_CUES);
+        private final List<Change> changes = new ArrayList<>();
 
-        return fixedLine;
-    }
-
-    /**
-     * Fixes 'l' characters at the start of a word. Generally speaking, most
-     * if not all words beginning with an 'l' followed by another consonant,
-     * are not real words. Those can be fixed easily.
-     *
-     * Some words start with an 'l' followed by a vowel. Most likely, these 'l's
-     * are actual 'l's. There is an off-chance that they are not, but I can't be
-     * bothered with that.
-     *
-     * @param line the the line to fix
-     * @return the fixed line
-     */
-    private String fixWordStarts(final String line) {
-        final String[] parts = line.split(" ");
-
-        final StringBuilder lineBuilder = new StringBuilder();
-
-        for (int i = 0; i < parts.length; i++) {
-            String part = parts[i];
-
-            // I prefer a space between a - and the word, when the word starts with a dash
-            if (part.matches("-[0-9a-zA-Z']+")) {
-                final String word = part.substring(1);
-                part = "- " + word;
-            }
-
-            // yes this can be done in 1 if, no I'm not doing it
-            if (startsWithAny(part, "lb", "lc", "ld", "lf", "lg", "lh", "lj", "lk", "ll", "lm", "ln", "lp", "lq", "lr",
-                    "ls", "lt", "lv", "lw", "lx", "lz")) {
-                // some words are incorrectly fixed (llama for instance, and some Spanish stuff)
-                if (startsWithAny(part, "ll") && isOnIgnoreList(part)) {
-                    lineBuilder.append(part);
-                } else {
-                    // I starting a word
-                    part = part.replaceFirst("l", "I");
-                    lineBuilder.append(part);
-                }
-            } else if ("l.".equals(part)) {
-                // I at the end of a sentence.
-                lineBuilder.append("I.");
-            } else if ("l,".equals(part)) {
-                // I, just before a comma
-                lineBuilder.append("I,");
-            } else if ("l?".equals(part)) {
-                // I? Wut? Me? Moi?
-                lineBuilder.append("I?");
-            } else if ("l!".equals(part)) {
-                // I! 't-was me!
-                lineBuilder.append("I!");
-            } else if ("l..".equals(part)) {
-                // I.. think?
-                lineBuilder.append("I..");
-            } else if ("l...".equals(part)) {
-                // I... like dots.
-                lineBuilder.append("I...");
-            } else if ("i".equals(part)) {
-                // i suck at spelling.
-                lineBuilder.append("I");
-            } else if (part.startsWith("i'")) {
-                // i also suck at spelling.
-                part = part.replaceFirst("i", "I");
-                lineBuilder.append(part);
-            } else {
-                // nothing special to do
-                lineBuilder.append(part);
-            }
-
-            // add trailing space if it is not the last part
-            if (i != parts.length - 1) {
-                lineBuilder.append(" ");
-            }
+        CueChunk(final RulePacks.Pack pack) {
+            this.pack = pack;
         }
 
-        return lineBuilder.toString();
-    }
+        void add(final SrtReader srtReader, final int cueCounter) {
+            final Cue cue = new Cue();
+            cue.load(srtReader, cueCounter);
+            cue.setNumber(cueCounter);
+            cues.add(cue);
+        }
 
-    /**
-     * Checks if the given word is on the global ignore list.
-     *
-     * @param part the word to check
-     * @return true if it is, false if it isn't
-     */
-    private boolean isOnIgnoreList(final String part) {
-        return IGNORE_LIST.contains(part);
-    }
+        int size() {
+            return cues.size();
+        }
 
-    /**
-     * Checks if the given anyString starts with any of the given startValues.
-     *
-     * @param anyString the string to check
-     * @param startValues the possible start values
-     * @return true if anyString starts with one of the given startValues, false if not
-     */
-    private boolean startsWithAny(final String anyString, final String... startValues) {
-        for (final String startValue : startValues) {
-            if (shouldFixLineStart(anyString, startValue)) {
-                return true;
+        @Override
+        protected void compute() {
+            final FixerMetrics.RuleCounters counters = FixerMetrics.get().getRuleCounters();
+            try {
+                for (final Cue cue : cues) {
+                    final ListIterator<String> lines = cue.getLines().listIterator();
+                    while (lines.hasNext()) {
+                        final String line = lines.next();
+                        counters.clearFired();
+                        final String fixedLine = cleanLine(line, pack, Constants.REMOVE_HTML_TAGS, Constants.CHANGE_QUOTES);
+
+                        if (fixedLine != null && fixedLine != line) {
+                            changes.add(new Change(cue.getIndex(), counters.getFired(), line, fixedLine));
+                        }
+                        if (fixedLine == null || fixedLine.isEmpty()) {
+                            lines.remove();
+                        } else {
+                            lines.set(fixedLine);
+                        }
+                    }
+                }
+            } finally {
+                FixerMetrics.get().flushRuleCounters();
             }
         }
-        return false;
     }
 
     /**
-     * Fixes incorrectly fixed words in a line.
-     *
-     * @param line the line to fix
-     * @return the fixed line
+     * A changed line, waiting to be logged.
      */
-    private String fixMistakes(final String line) {
-        final String[] parts = line.split(" ");
-        final StringBuilder lineBuilder = new StringBuilder();
-
-        for (int i = 0; i < parts.length; i++) {
-            String part = parts[i];
-
-            for (final String[] fixWord : FIX_LIST) {
-                if (fixWord[0].equals(part)) {
-                    part = fixWord[1];
-                    break;
-                }
-            }
-
-            lineBuilder.append(part);
-
-            // add trailing space if it is not the last part
-            if (i != parts.length - 1) {
-                lineBuilder.append(" ");
-            }
+    private static final class Change {
+        private final int cue;
+        private final int rules;
+        private final String before;
+        private final String after;
+
+        Change(final int cue, final int rules, final String before, final String after) {
+            this.cue = cue;
+            this.rules = rules;
+            this.before = before;
+            this.after = after;
         }
-
-        return lineBuilder.toString();
     }
 }
@@ -0,0 +1,239 @@
+package nl.bvs.srtfixer;
+
+import nl.bvs.srtfixer.util.Constants;
+import nl.bvs.srtfixer.util.FixerMetrics;
+import nl.bvs.srtfixer.util.Settings;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The command line: fixes the given files and dirs, with the settings from a config file and
+ * the arguments instead of the ones compiled into the Constants.
+ *
+ * It is run for every file that gets downloaded, so it has to start fast: no reflection and
+ * nothing loaded that a single file doesn't need (like JMX), which also makes it fit for a
+ * GraalVM native image or an AppCDS archive, see the README.
+ */
+public final class SrtFixerCli {
+    /** The exit code for wrong arguments or settings. Anything below is the number of files that would change, when checking. */
+    static final int EXIT_USAGE = 255;
+    /** Read when no config file is given, if it is there. */
+    private static final String DEFAULT_CONFIG_FILE = ".srtfixer.properties";
+
+    private static final String USAGE = "Usage: srtfixer [options] <file or dir>...\n"
+            + "  --check              only check which files would change, the exit code is how many\n"
+            + "  --watch              keep fixing the files that come into the (single) dir\n"
+            + "  --sync               sync the times to the subtitle in the reference language next to each file\n"
+            + "                       (or to --timefixer.reference=<file>) instead of fixing the text\n"
+            + "  --stages <stages>    run these stages instead, e.g. tags,quotes,text,renumber\n"
+            + "  --shift <ms>         shift all times, negative for earlier\n"
+            + "  --config <file>      read the settings from this file, ~/" + DEFAULT_CONFIG_FILE + " by default\n"
+            + "  --<setting>=<value>  change a setting, e.g. --backup.dir=/backups or --threads=1\n"
+            + "  --<setting>          turn a setting on, e.g. --journal\n"
+            + "  --no-<setting>       turn a setting off, e.g. --no-backups\n"
+            + "  --settings           list the settings and their values\n"
+            + "  --help               show this";
+
+    private SrtFixerCli() {
+        // static stuff only
+    }
+
+    public static void main(final String[] args) {
+        System.exit(run(args));
+    }
+
+    /**
+     * @param args the command line arguments
+     * @return the exit code
+     */
+    static int run(final String[] args) {
+        // things nobody needs for a single file, unless they ask for them
+        final Map<String, String> settings = new LinkedHashMap<>();
+        settings.put("metrics.jmx", "false");
+        settings.put("metrics.print", "false");
+
+        final Map<String, String> arguments = new LinkedHashMap<>();
+        final List<File> targets = new ArrayList<>();
+        boolean check = false;
+        boolean watch = false;
+        boolean sync = false;
+        boolean listSettings = false;
+        String stages = null;
+        String shift = null;
+        Path configFile = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                final String arg = args[i];
+                if (!arg.startsWith("--")) {
+                    targets.add(new File(arg));
+                    continue;
+                }
+
+                switch (arg) {
+                    case "--help":
+                        System.out.println(USAGE);
+                        return 0;
+                    case "--check":
+                        check = true;
+                        break;
+                    case "--watch":
+                        watch = true;
+                        break;
+                    case "--sync":
+                        sync = true;
+                        break;
+                    case "--settings":
+                        listSettings = true;
+                        break;
+                    case "--stages":
+                        stages = valueOf(args, ++i, arg);
+                        break;
+                    case "--shift":
+                        shift = valueOf(args, ++i, arg);
+                        break;
+                    case "--config":
+                        configFile = Paths.get(valueOf(args, ++i, arg));
+                        break;
+                    default:
+                        addSetting(arg.substring(2), arguments);
+                }
+            }
+
+            // the arguments beat the config file, which beats the defaults
+            if (configFile == null) {
+                final Path defaultConfigFile = Paths.get(System.getProperty("user.home"), DEFAULT_CONFIG_FILE);
+                configFile = Files.isRegularFile(defaultConfigFile) ? defaultConfigFile : null;
+            }
+            for (final Map.Entry<String, String> setting : settings.entrySet()) {
+                Settings.set(setting.getKey(), setting.getValue());
+            }
+            if (configFile != null) {
+                Settings.load(configFile);
+            }
+            for (final Map.Entry<String, String> argument : arguments.entrySet()) {
+                Settings.set(argument.getKey(), argument.getValue());
+            }
+
+            readSettings();
+        } catch (final IOException e) {
+            return usage("Could not read the config file :: " + configFile);
+        } catch (final IllegalArgumentException e) {
+            return usage(e.getMessage());
+        }
+
+        if (listSettings) {
+            printSettings();
+            return 0;
+        }
+        if (targets.isEmpty()) {
+            return usage("Nothing to fix");
+        }
+
+        if (sync) {
+            if (check || watch || stages != null || shift != null) {
+                return usage("Syncing can't be combined with --check, --watch, --stages or --shift");
+            }
+            final String referencePath = Constants.TIMEFIXER_REFERENCE_PATH;
+            new SrtTimeFixer(referencePath.isEmpty() ? null : new File(referencePath)).syncTargets(targets);
+            return FixerMetrics.get().getFailedFiles() > 0 ? 1 : 0;
+        }
+
+        final BaseFixer fixer;
+        final int rulesVersion;
+        if (stages == null && shift == null) {
+            fixer = new SrtFileFixer();
+            rulesVersion = SrtFileFixer.getRulesVersion();
+        } else {
+            final String stageSpec = (stages != null ? stages : FixerPipeline.DEFAULT_STAGES) + (shift != null ? ",shift=" + shift : "");
+            final FixerPipeline pipeline;
+            try {
+                pipeline = new FixerPipeline(stageSpec, null);
+            } catch (final IllegalArgumentException e) {
+                return usage(e.getMessage());
+            }
+            fixer = pipeline;
+            rulesVersion = pipeline.getRulesVersion();
+        }
+
+        if (watch) {
+            if (targets.size() != 1 || !targets.get(0).isDirectory()) {
+                return usage("Watching needs a single dir");
+            }
+            System.out.println("Watching directory :: " + targets.get(0).getPath());
+            fixer.watchDirectory(targets.get(0), rulesVersion);
+            return 0;
+        }
+
+        final long changed = fixer.fixTargets(targets, rulesVersion, check);
+        if (!Constants.LINE_CACHE_FILE.isEmpty()) {
+            SrtFileFixer.saveLineCache();
+        }
+        if (check) {
+            return (int) Math.min(changed, EXIT_USAGE - 1);
+        }
+        return FixerMetrics.get().getFailedFiles() > 0 ? 1 : 0;
+    }
+
+    /**
+     * Reads the settings into the Constants, so wrong ones show up before anything is fixed.
+     */
+    private static void readSettings() {
+        try {
+            // touching one of the Constants reads them all
+            if (Constants.VERBOSITY == null) {
+                throw new IllegalArgumentException("No verbosity");
+            }
+        } catch (final ExceptionInInitializerError e) {
+            throw new IllegalArgumentException(e.getCause().getMessage(), e.getCause());
+        }
+
+        final List<String> unknownKeys = Settings.getUnknownKeys();
+        if (!unknownKeys.isEmpty()) {
+            throw new IllegalArgumentException("Unknown settings :: " + unknownKeys);
+        }
+    }
+
+    /**
+     * --key=value, --key for true and --no-key for false.
+     */
+    private static void addSetting(final String setting, final Map<String, String> arguments) {
+        final int equals = setting.indexOf('=');
+        if (equals > 0) {
+            arguments.put(setting.substring(0, equals), setting.substring(equals + 1));
+        } else if (setting.startsWith("no-")) {
+            arguments.put(setting.substring(3), "false");
+        } else if (!setting.isEmpty()) {
+            arguments.put(setting, "true");
+        } else {
+            throw new IllegalArgumentException("Not an option :: --");
+        }
+    }
+
+    private static String valueOf(final String[] args, final int index, final String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return args[index];
+    }
+
+    private static void printSettings() {
+        for (final String key : Settings.getKeys()) {
+            System.out.println(key + " = " + Settings.getValue(key));
+        }
+    }
+
+    private static int usage(final String message) {
+        System.err.println(message);
+        System.err.println(USAGE);
+        return EXIT_USAGE;
+    }
+}
@@ -1,81 +1,274 @@
 package nl.bvs.srtfixer;
 
+import nl.bvs.srtfixer.srt.SrtDocument;
+import nl.bvs.srtfixer.srt.SrtReader;
+import nl.bvs.srtfixer.srt.SrtWriter;
+import nl.bvs.srtfixer.srt.TimingSync;
+import nl.bvs.srtfixer.util.CharsetSniffer;
 import nl.bvs.srtfixer.util.Constants;
+import nl.bvs.srtfixer.util.FixerMetrics;
+import nl.bvs.srtfixer.util.SubtitleIO;
+import nl.bvs.srtfixer.util.Verbosity;
 
 import java.io.*;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Sometimes timing is a bit off. This fixes that, although it does
  * require some tinkering with the amount of time you want to shift.
+ *
+ * Unless there is a correctly timed subtitle to sync to, like the English one of the same
+ * video: then the offset (and drift, see TimingSync) is found by lining up the cues of both,
+ * no tinkering needed. That's quick enough to sync a whole library in one go.
  */
 public class SrtTimeFixer extends BaseFixer {
-    /** Regex to find timecode lines and put the [from] and [to] in a separate group. */
-    private static final String TIMECODE_REGEX = "^([0-9]{2}:[0-9]{2}:[0-9]{2},[0-9]{3}) --> ([0-9]{2}:[0-9]{2}:[0-9]{2},[0-9]{3})$";
-
-    /** The amount of milliseconds to add or subtract from all time codes. */
-    private static final int NEW_OFFSET_MILLIS = 0;
+    /** The amount of milliseconds to add or subtract from all time codes, when not syncing. */
+    private final long offsetMillis;
+    /** Whether to sync to a reference instead of shifting by the offset. */
+    private final boolean sync;
+    /** The subtitle to sync to, null to sync each file to the one next to it in the reference language. */
+    private final File reference;
 
+    /**
+     * Shifts the file by the given amount of milliseconds, if given, or else by the default one from the Constants.
+     * With 'sync' it syncs the file, or the files in the dir, to a reference instead: the given one, or the one in the
+     * Constants, or else the one next to each file in the reference language.
+     * @param args optionally the amount of milliseconds to shift, negative to make the subtitles show up earlier.
+     *             Or 'sync', optionally followed by the subtitle to sync to.
+     */
     public static void main(final String[] args) {
-        System.out.println("Processing directory :: " + Constants.TIMEFIXER_FILE_PATH);
-        new SrtTimeFixer().process();
+        if (args.length > 0 && "sync".equals(args[0])) {
+            final String referencePath = args.length > 1 ? args[1] : Constants.TIMEFIXER_REFERENCE_PATH;
+            final File reference = referencePath.isEmpty() ? null : new File(referencePath);
+            System.out.println("Syncing :: " + Constants.TIMEFIXER_FILE_PATH + " :: to "
+                    + (reference != null ? reference.getPath() : "the ." + Constants.TIMEFIXER_REFERENCE_LANGUAGE + " subtitles"));
+            new SrtTimeFixer(reference).process();
+            return;
+        }
+
+        final long offsetMillis = args.length > 0 ? Long.parseLong(args[0]) : Constants.TIMEFIXER_OFFSET_MILLIS;
+        System.out.println("Processing file :: " + Constants.TIMEFIXER_FILE_PATH + " :: shifting " + offsetMillis + " ms");
+        new SrtTimeFixer(offsetMillis).process();
+    }
+
+    /**
+     * @param offsetMillis the amount of milliseconds to add or subtract from all time codes
+     */
+    public SrtTimeFixer(final long offsetMillis) {
+        this.offsetMillis = offsetMillis;
+        this.sync = false;
+        this.reference = null;
+    }
+
+    /**
+     * Syncs files to a reference, instead of shifting them by a fixed amount.
+     *
+     * @param reference the correctly timed subtitle to sync to, null to sync each file to the one next to it in
+     *                  the reference language from the Constants, e.g. Movie.nl.srt to Movie.en.srt
+     */
+    public SrtTimeFixer(final File reference) {
+        this.offsetMillis = 0L;
+        this.sync = true;
+        this.reference = reference;
     }
 
     @Override
     protected void process() {
         final File fileToFix = new File(Constants.TIMEFIXER_FILE_PATH);
+        if (sync) {
+            syncTargets(Collections.singletonList(fileToFix));
+            return;
+        }
 
         if (Constants.MAKE_BACKUPS) {
             backupFile(fileToFix);
         }
 
         fix(fileToFix);
+        printMetrics();
     }
 
     @Override
     protected void fixFile(final BufferedReader reader, final BufferedWriter writer) throws Exception {
-        String line;
-        String fixedLine;
-        while ((line = reader.readLine()) != null) {
-            if (isTimecodeLine(line)) {
-                fixedLine = fixTimecode(line);
+        if (sync) {
+            syncFile(reader, writer);
+            return;
+        }
+
+        final SrtReader srtReader = new SrtReader(reader);
+        final SrtWriter srtWriter = new SrtWriter(writer);
+
+        int cueNumber = 0;
+        while (srtReader.next()) {
+            if (srtReader.hasTimecode()) {
+                // keep the numbers as they are, only fill in missing ones
+                cueNumber = srtReader.getNumber() >= 0 ? srtReader.getNumber() : cueNumber + 1;
+                if (srtReader.getTimecodeLine() != null) {
+                    // can't shift what can't be read
+                    srtWriter.writeHeader(cueNumber, srtReader.getTimecodeLine());
+                } else {
+                    srtWriter.writeHeader(cueNumber, shift(srtReader.getStart()), shift(srtReader.getEnd()));
+                }
+            }
+
+            for (final String line : srtReader.getLines()) {
+                srtWriter.writeLine(line);
+            }
+        }
+    }
+
+    /**
+     * Shifts a time, but not to before zero.
+     *
+     * @param millis the time in milliseconds
+     * @return the shifted time
+     */
+    long shift(final long millis) {
+        return Math.max(0L, millis + offsetMillis);
+    }
+
+    /**
+     * Backs up (if enabled) and syncs the given files, and the files in the given dirs that have
+     * something to sync to. There's no manifest: a file can get a new reference at any time, and
+     * files that are in sync already aren't written anyway.
+     *
+     * @param targets the files and dirs to sync
+     * @return the number of files that changed
+     */
+    final long syncTargets(final List<File> targets) {
+        final FixerMetrics metrics = FixerMetrics.get();
+        final long changedBefore = metrics.getChangedFiles();
+
+        for (final File target : targets) {
+            final List<File> files = new ArrayList<>();
+            if (target.isDirectory()) {
+                for (final File file : newFileFinder().collect(target, Constants.SRT_EXTENSION)) {
+                    if (getReference(file) != null) {
+                        files.add(file);
+                    }
+                }
+            } else if (getReference(target) != null) {
+                files.add(target);
             } else {
-                fixedLine = line;
+                System.err.println("Nothing to sync to :: " + target.getPath());
             }
-            writer.write(fixedLine);
-            writer.newLine();
+            fixAll(files, Constants.FILEFIXER_THREADS, null);
         }
+
+        printMetrics();
+        return metrics.getChangedFiles() - changedBefore;
     }
 
-    private boolean isTimecodeLine(final String line) {
-        return line.matches(TIMECODE_REGEX);
+    /**
+     * Reads the whole file to line it up with its reference, and writes it with the new times.
+     * Files that don't line up are written as they are, which means they're left alone.
+     */
+    private void syncFile(final BufferedReader reader, final BufferedWriter writer) throws IOException {
+        final SrtDocument document = SrtDocument.read(reader);
+        final File file = getCurrentFile();
+        final File referenceFile = file != null ? getReference(file) : reference;
+
+        TimingSync timingSync = null;
+        if (referenceFile != null) {
+            timingSync = TimingSync.find(getStarts(document), getStarts(read(referenceFile)),
+                    Constants.TIMEFIXER_MAX_OFFSET_MILLIS, Constants.TIMEFIXER_FIND_DRIFT);
+        }
+        if (timingSync == null) {
+            System.err.println("Could not sync, leaving it as it is :: " + (file != null ? file.getPath() : "?"));
+        } else if (!timingSync.isIdentity() && Constants.VERBOSITY != Verbosity.QUIET) {
+            log("Synced to " + referenceFile.getName() + " :: " + timingSync);
+        }
+
+        int cueNumber = 0;
+        for (int i = 0; i < document.size(); i++) {
+            if (!document.hasTimecode(i)) {
+                continue;
+            }
+            // keep the numbers as they are, only fill in missing ones
+            cueNumber = document.getNumber(i) >= 0 ? document.getNumber(i) : cueNumber + 1;
+            document.setNumber(i, cueNumber);
+            if (timingSync != null && document.hasTimes(i)) {
+                document.setTimes(i, timingSync.apply(document.getStart(i)), timingSync.apply(document.getEnd(i)));
+            }
+        }
+        document.write(new SrtWriter(writer));
+    }
+
+    /**
+     * @return the subtitle to sync the file to, null if there is none or the file is the reference itself
+     */
+    private File getReference(final File file) {
+        if (reference == null) {
+            return findReference(file);
+        }
+        return reference.getAbsoluteFile().equals(file.getAbsoluteFile()) ? null : reference;
+    }
+
+    /**
+     * Finds the subtitle in the reference language next to the file: Movie.en.srt for Movie.nl.srt or Movie.srt.
+     *
+     * @return the reference, null if there is none or the file is in the reference language itself
+     */
+    static File findReference(final File file) {
+        final String name = file.getName();
+        final int extension = name.lastIndexOf('.');
+        if (extension <= 0) {
+            return null;
+        }
+
+        String baseName = name.substring(0, extension);
+        final int language = baseName.lastIndexOf('.');
+        if (language > 0 && isLanguage(baseName.substring(language + 1))) {
+            if (baseName.substring(language + 1).equalsIgnoreCase(Constants.TIMEFIXER_REFERENCE_LANGUAGE)) {
+                return null;
+            }
+            baseName = baseName.substring(0, language);
+        }
+
+        final File referenceFile = new File(file.getParentFile(), baseName + "." + Constants.TIMEFIXER_REFERENCE_LANGUAGE + name.substring(extension));
+        return referenceFile.isFile() ? referenceFile : null;
     }
 
-    private String fixTimecode(final String line) {
-        final Matcher matcher = Pattern.compile(TIMECODE_REGEX).matcher(line);
-        if (matcher.find()) {
-            return modifyTimestamp(matcher.group(1)) + " --> " + modifyTimestamp(matcher.group(2));
-        } else {
-            return line;
+    /**
+     * Language codes are two or three letters, 'nl' or 'eng'. Not '2019' or 'forced'.
+     */
+    private static boolean isLanguage(final String part) {
+        if (part.length() < 2 || part.length() > 3) {
+            return false;
+        }
+        for (int i = 0; i < part.length(); i++) {
+            if (!Character.isLetter(part.charAt(i))) {
+                return false;
+            }
         }
+        return true;
     }
 
-    private String modifyTimestamp(final String timestamp) {
-        try {
-            final DateFormat format = new SimpleDateFormat("HH:mm:ss,SSS");
-            final Date date = format.parse(timestamp);
-            final Calendar calendar = Calendar.getInstance();
-            calendar.setTime(date);
-            calendar.add(Calendar.MILLISECOND, NEW_OFFSET_MILLIS);
-            return format.format(calendar.getTime());
-        } catch (final Exception ex) {
-            ex.printStackTrace();
-            throw new IllegalStateException("Couldn't modify timestamp :: " + timestamp);
+    private static SrtDocument read(final File file) throws IOException {
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final CharsetSniffer.Detection detection = SubtitleIO.sniff(in);
+            try (BufferedReader reader = SubtitleIO.newReader(in, detection)) {
+                return SrtDocument.read(reader);
+            }
+        }
+    }
+
+    /**
+     * @return the start times of the cues with a timecode
+     */
+    private static long[] getStarts(final SrtDocument document) {
+        final long[] starts = new long[document.size()];
+        int count = 0;
+        for (int i = 0; i < document.size(); i++) {
+            if (document.hasTimes(i)) {
+                starts[count++] = document.getStart(i);
+            }
         }
+        return Arrays.copyOf(starts, count);
     }
 }
@@ -0,0 +1,106 @@
+package nl.bvs.srtfixer.srt;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A single cue that is being fixed. Can be reused from cue to cue, by loading the next one into it.
+ */
+public final class Cue {
+    private final List<String> lines = new ArrayList<>();
+    private int index;
+    private int number;
+    private long start;
+    private long end;
+    private boolean timecode;
+    /** The timecode line as it was, if its times couldn't be read. */
+    private String timecodeLine;
+
+    /**
+     * Loads the current cue of the reader.
+     *
+     * @param reader the reader positioned at a cue
+     * @param index the position of the cue in the file, counting only cues with a timecode, starting at 1
+     */
+    public void load(final SrtReader reader, final int index) {
+        this.index = index;
+        number = reader.getNumber();
+        start = reader.getStart();
+        end = reader.getEnd();
+        timecode = reader.hasTimecode();
+        timecodeLine = reader.getTimecodeLine();
+        lines.clear();
+        lines.addAll(reader.getLines());
+    }
+
+    /**
+     * Writes the cue. Cues without a number get their index as number. A timecode line that
+     * couldn't be read is written as it was.
+     *
+     * @param writer the writer to write to
+     */
+    public void write(final SrtWriter writer) throws IOException {
+        if (timecodeLine != null) {
+            writer.writeHeader(number >= 0 ? number : index, timecodeLine);
+        } else if (timecode) {
+            writer.writeHeader(number >= 0 ? number : index, start, end);
+        }
+        for (final String line : lines) {
+            writer.writeLine(line);
+        }
+    }
+
+    /**
+     * @return the position of the cue in the file, counting only cues with a timecode, starting at 1
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the number of the cue, -1 if it has none
+     */
+    public int getNumber() {
+        return number;
+    }
+
+    public void setNumber(final int number) {
+        this.number = number;
+    }
+
+    /**
+     * @return true if the cue has a timecode, false if it is text before the first cue
+     */
+    public boolean hasTimecode() {
+        return timecode;
+    }
+
+    /**
+     * @return true if the cue has a timecode of which the times could be read, so it can be shifted, sorted etc.
+     */
+    public boolean hasTimes() {
+        return timecode && timecodeLine == null;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public void setTimes(final long start, final long end) {
+        this.start = start;
+        this.end = end;
+        timecodeLine = null;
+    }
+
+    /**
+     * @return the lines of text, which can be changed
+     */
+    public List<String> getLines() {
+        return lines;
+    }
+}
@@ -0,0 +1,372 @@
+package nl.bvs.srtfixer.srt;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Repairs the structure of a file, as cues are fixed: OCR rips and merged files have cues out
+ * of order, cues on top of each other, cues twice and cues that end before they start. Players
+ * stutter on those. So the cues are collected and written in order of their start time, with
+ *
+ * - exact duplicates (same times, same text) removed
+ * - cues that start (almost) at the same time and overlap merged into one, with the text of both
+ * - other cues that overlap the next one trimmed to end where the next one starts
+ * - cues that end before they start given the default duration, or less if the next one starts sooner
+ * - cues without text removed
+ * - all cues numbered 1, 2, 3 etc.
+ *
+ * The cues are kept in an SrtDocument and sorted by index, see SrtDocument.sortedOrder. When
+ * that gets bigger than the given amount of memory, the sorted cues are spilled to a run file
+ * and the runs are merged at the end, so files of any size can be repaired.
+ *
+ * Not thread safe, one per file being fixed.
+ */
+public final class CueRepair implements Closeable {
+    /** The duration cues without a proper one get. */
+    private static final long DEFAULT_DURATION_MILLIS = 2000L;
+    /** Overlapping cues starting closer together than this are merged, one of them wouldn't be readable anyway. */
+    private static final long MERGE_MILLIS = 250L;
+    /** What a cue costs in memory besides its text, roughly. */
+    private static final int CUE_BYTES = 36;
+
+    private final SrtWriter writer;
+    private final long maxMemoryBytes;
+    private final SrtDocument cues = new SrtDocument();
+    private final List<File> runs = new ArrayList<>();
+    private final StringBuilder lines = new StringBuilder();
+
+    /** The cue waiting for the next one, to see if it overlaps. */
+    private final StringBuilder pendingText = new StringBuilder();
+    private boolean pending;
+    private long pendingStart;
+    private long pendingEnd;
+    private int number;
+
+    private boolean sorted = true;
+    private long lastStart = Long.MIN_VALUE;
+    private int duplicates;
+    private int merged;
+    private int trimmed;
+    private int durations;
+    private int empty;
+
+    /**
+     * @param writer the writer to write the repaired cues to
+     * @param maxMemoryBytes how much memory the cues may take before they're spilled to disk
+     */
+    public CueRepair(final SrtWriter writer, final long maxMemoryBytes) {
+        this.writer = writer;
+        this.maxMemoryBytes = maxMemoryBytes;
+    }
+
+    /**
+     * Adds a fixed cue. Text before the first cue, without a timecode, is written right away. So are
+     * cues of which the timecode can't be read, after the cues before them: there's no telling where
+     * they belong, so they stay where they are, and only the cues between them are put in order.
+     *
+     * @param cue the cue, which can be reused after this
+     */
+    public void add(final Cue cue) throws IOException {
+        if (!cue.hasTimes()) {
+            if (cue.hasTimecode()) {
+                writeSorted();
+                flush();
+                cue.setNumber(++number);
+            }
+            cue.write(writer);
+            return;
+        }
+
+        lines.setLength(0);
+        for (final String line : cue.getLines()) {
+            if (lines.length() > 0) {
+                lines.append('\n');
+            }
+            lines.append(line);
+        }
+        add(cue.getStart(), cue.getEnd(), lines);
+    }
+
+    private void add(final long start, final long end, final CharSequence text) throws IOException {
+        if (start < lastStart) {
+            sorted = false;
+        }
+        lastStart = start;
+
+        cues.add(0, start, end, Collections.singletonList(text));
+        if ((long) cues.getTextLength() * 2 + (long) cues.size() * CUE_BYTES > maxMemoryBytes) {
+            spill();
+        }
+    }
+
+    /**
+     * Writes the cues that are left, in order, and removes the run files.
+     */
+    public void finish() throws IOException {
+        try {
+            writeSorted();
+            flush();
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Removes the run files, if any. Done by finish, this is for when fixing the file fails halfway.
+     */
+    @Override
+    public void close() {
+        for (final File run : runs) {
+            if (!run.delete()) {
+                run.deleteOnExit();
+            }
+        }
+        runs.clear();
+    }
+
+    /**
+     * @return true if anything was repaired, besides the numbering
+     */
+    public boolean hasRepairs() {
+        return !sorted || duplicates + merged + trimmed + durations + empty > 0;
+    }
+
+    /**
+     * @return what was repaired, to log
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%s, %d duplicates removed, %d merged, %d overlaps trimmed, %d durations fixed, %d empty removed",
+                sorted ? "in order" : "sorted", duplicates, merged, trimmed, durations, empty);
+    }
+
+    /**
+     * Writes the cues collected so far in order, from memory or by merging the runs, except for the
+     * last one, which waits for the next.
+     */
+    private void writeSorted() throws IOException {
+        if (runs.isEmpty()) {
+            final int[] order = cues.sortedOrder();
+            for (final int cue : order) {
+                write(cues.getStart(cue), cues.getEnd(cue), cues.getText(cue));
+            }
+            cues.clear();
+        } else {
+            spill();
+            merge();
+            close();
+        }
+    }
+
+    /**
+     * Writes the cues collected so far, sorted, to a run file of their own.
+     */
+    private void spill() throws IOException {
+        if (cues.size() == 0) {
+            return;
+        }
+
+        final File run = File.createTempFile("srtfixer-", ".run");
+        runs.add(run);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run)))) {
+            for (final int cue : cues.sortedOrder()) {
+                final CharSequence text = cues.getText(cue);
+                out.writeLong(cues.getStart(cue));
+                out.writeLong(cues.getEnd(cue));
+                out.writeInt(text.length());
+                for (int i = 0; i < text.length(); i++) {
+                    out.writeChar(text.charAt(i));
+                }
+            }
+        }
+        cues.clear();
+    }
+
+    /**
+     * Merges the runs, taking the first cue of all runs each time. There are only a few runs,
+     * so a look at each of them beats a heap. The earlier run wins a tie, like in the sort.
+     */
+    private void merge() throws IOException {
+        final List<Run> readers = new ArrayList<>(runs.size());
+        try {
+            for (final File run : runs) {
+                final Run reader = new Run(run);
+                readers.add(reader);
+                reader.next();
+            }
+
+            while (true) {
+                Run first = null;
+                for (final Run reader : readers) {
+                    if (reader.available && (first == null || reader.compareTo(first) < 0)) {
+                        first = reader;
+                    }
+                }
+                if (first == null) {
+                    return;
+                }
+                write(first.start, first.end, first.text);
+                first.next();
+            }
+        } finally {
+            for (final Run reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Takes the next cue in order, and writes the one before it now that it's known where it has to end.
+     */
+    private void write(final long start, long end, final CharSequence text) throws IOException {
+        if (text.length() == 0) {
+            empty++;
+            return;
+        }
+        if (end <= start) {
+            end = start + DEFAULT_DURATION_MILLIS;
+            durations++;
+        }
+
+        if (pending) {
+            if (start == pendingStart && end == pendingEnd && contentEquals(pendingText, text)) {
+                duplicates++;
+                return;
+            }
+            if (start - pendingStart < MERGE_MILLIS && pendingEnd > start) {
+                mergeText(text);
+                pendingEnd = Math.max(pendingEnd, end);
+                merged++;
+                return;
+            }
+            if (pendingEnd > start) {
+                pendingEnd = start;
+                trimmed++;
+            }
+            flush();
+        }
+
+        pending = true;
+        pendingStart = start;
+        pendingEnd = end;
+        pendingText.setLength(0);
+        pendingText.append(text);
+    }
+
+    /**
+     * Writes the pending cue, if any.
+     */
+    private void flush() throws IOException {
+        if (!pending) {
+            return;
+        }
+        pending = false;
+
+        writer.writeHeader(++number, pendingStart, pendingEnd);
+        int lineStart = 0;
+        for (int i = 0; i <= pendingText.length(); i++) {
+            if (i == pendingText.length() || pendingText.charAt(i) == '\n') {
+                writer.writeLine(pendingText.subSequence(lineStart, i));
+                lineStart = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Adds the lines of the text to the pending cue, leaving out the ones it has already.
+     */
+    private void mergeText(final CharSequence text) {
+        int lineStart = 0;
+        for (int i = 0; i <= text.length(); i++) {
+            if (i == text.length() || text.charAt(i) == '\n') {
+                if (!hasLine(text, lineStart, i)) {
+                    pendingText.append('\n').append(text, lineStart, i);
+                }
+                lineStart = i + 1;
+            }
+        }
+    }
+
+    private boolean hasLine(final CharSequence text, final int from, final int to) {
+        final int length = to - from;
+        int lineStart = 0;
+        for (int i = 0; i <= pendingText.length(); i++) {
+            if (i == pendingText.length() || pendingText.charAt(i) == '\n') {
+                if (i - lineStart == length && regionEquals(pendingText, lineStart, text, from, length)) {
+                    return true;
+                }
+                lineStart = i + 1;
+            }
+        }
+        return false;
+    }
+
+    private static boolean contentEquals(final CharSequence text, final CharSequence other) {
+        return text.length() == other.length() && regionEquals(text, 0, other, 0, text.length());
+    }
+
+    private static boolean regionEquals(final CharSequence text, final int offset, final CharSequence other, final int otherOffset,
+                                        final int length) {
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(offset + i) != other.charAt(otherOffset + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A run file being merged, at its current cue.
+     */
+    private static final class Run implements Closeable {
+        private final DataInputStream in;
+        private final StringBuilder text = new StringBuilder();
+        private boolean available;
+        private long start;
+        private long end;
+
+        Run(final File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        }
+
+        void next() throws IOException {
+            try {
+                start = in.readLong();
+            } catch (final EOFException e) {
+                available = false;
+                return;
+            }
+            end = in.readLong();
+            final int length = in.readInt();
+            text.setLength(0);
+            for (int i = 0; i < length; i++) {
+                text.append(in.readChar());
+            }
+            available = true;
+        }
+
+        int compareTo(final Run other) {
+            if (start != other.start) {
+                return start < other.start ? -1 : 1;
+            }
+            return end < other.end ? -1 : end > other.end ? 1 : 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package nl.bvs.srtfixer.srt;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A whole SRT file in memory, for when streaming through it isn't enough: syncing needs all
+ * start times before it can shift the first cue, and repairing needs all cues before it can
+ * put them in order. The fixers themselves stream through the file a Cue at a time, so a
+ * whole season in one file never has to fit in memory just to fix its lines.
+ *
+ * Kept compact: the numbers and times of the cues are in primitive arrays, and all text is
+ * in one shared char buffer, with the lines of a cue separated by '\n'. No objects per cue,
+ * no Strings per line.
+ *
+ * Text before the first cue (if any) is kept as a cue without a timecode, with times
+ * of -1, which is left alone by shifting and renumbering. Cues with a timecode that can't
+ * be read have times of -1 too, their timecode line is kept as it is.
+ */
+public final class SrtDocument {
+    /** The times of a cue without a timecode. */
+    public static final long NO_TIME = -1L;
+
+    private int size;
+    private int[] numbers = new int[64];
+    private long[] starts = new long[64];
+    private long[] ends = new long[64];
+    /** Where the text of each cue starts in the text buffer. The text of cue i ends where the text of cue i + 1 starts. */
+    private int[] textOffsets = new int[65];
+    private char[] text = new char[4096];
+    /** The timecode lines of cues of which the times couldn't be read, null for all others. */
+    private String[] timecodeLines = new String[64];
+
+    /**
+     * Reads a whole file.
+     *
+     * @param reader the reader to read from
+     * @return the document
+     */
+    public static SrtDocument read(final BufferedReader reader) throws IOException {
+        final SrtDocument document = new SrtDocument();
+        final SrtReader srtReader = new SrtReader(reader);
+        while (srtReader.next()) {
+            document.add(srtReader.getNumber(), srtReader.getStart(), srtReader.getEnd(), srtReader.getLines());
+            document.timecodeLines[document.size - 1] = srtReader.getTimecodeLine();
+        }
+        return document;
+    }
+
+    /**
+     * Adds a cue at the end.
+     *
+     * @param number the number of the cue
+     * @param start the start in milliseconds, NO_TIME if it has no timecode
+     * @param end the end in milliseconds, NO_TIME if it has no timecode
+     * @param lines the lines of text
+     */
+    public void add(final int number, final long start, final long end, final List<? extends CharSequence> lines) {
+        if (size == numbers.length) {
+            final int capacity = size * 2;
+            numbers = Arrays.copyOf(numbers, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            textOffsets = Arrays.copyOf(textOffsets, capacity + 1);
+            timecodeLines = Arrays.copyOf(timecodeLines, capacity);
+        }
+
+        numbers[size] = number;
+        timecodeLines[size] = null;
+        starts[size] = start;
+        ends[size] = end;
+
+        int position = textOffsets[size];
+        for (int i = 0; i < lines.size(); i++) {
+            final CharSequence line = lines.get(i);
+            ensureTextCapacity(position + line.length() + 1);
+            if (i > 0) {
+                text[position++] = '\n';
+            }
+            for (int j = 0; j < line.length(); j++) {
+                text[position++] = line.charAt(j);
+            }
+        }
+
+        size++;
+        textOffsets[size] = position;
+    }
+
+    /**
+     * Removes all cues, keeping the buffers for the next ones.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of chars of text of all cues together
+     */
+    public int getTextLength() {
+        return textOffsets[size];
+    }
+
+    public int getNumber(final int cue) {
+        return numbers[check(cue)];
+    }
+
+    public void setNumber(final int cue, final int number) {
+        numbers[check(cue)] = number;
+    }
+
+    public long getStart(final int cue) {
+        return starts[check(cue)];
+    }
+
+    public long getEnd(final int cue) {
+        return ends[check(cue)];
+    }
+
+    /**
+     * @return true if the cue has a timecode, false if it is text before the first cue
+     */
+    public boolean hasTimecode(final int cue) {
+        return starts[check(cue)] != NO_TIME || timecodeLines[cue] != null;
+    }
+
+    /**
+     * @return true if the cue has a timecode of which the times could be read
+     */
+    public boolean hasTimes(final int cue) {
+        return starts[check(cue)] != NO_TIME;
+    }
+
+    public void setTimes(final int cue, final long start, final long end) {
+        starts[check(cue)] = start;
+        ends[cue] = end;
+    }
+
+    /**
+     * The text of a cue, lines separated by '\n'. A view on the shared buffer, no copy.
+     */
+    public CharSequence getText(final int cue) {
+        check(cue);
+        return CharBuffer.wrap(text, textOffsets[cue], textOffsets[cue + 1] - textOffsets[cue]);
+    }
+
+    /**
+     * Shifts all cues. Times that would end up before zero become zero.
+     *
+     * @param offsetMillis the amount of milliseconds to add, or subtract when negative
+     */
+    public void shift(final long offsetMillis) {
+        for (int i = 0; i < size; i++) {
+            if (starts[i] != NO_TIME) {
+                starts[i] = Math.max(0L, starts[i] + offsetMillis);
+                ends[i] = Math.max(0L, ends[i] + offsetMillis);
+            }
+        }
+    }
+
+    /**
+     * Numbers the cues 1, 2, 3 and so on.
+     */
+    public void renumber() {
+        int number = 1;
+        for (int i = 0; i < size; i++) {
+            if (starts[i] != NO_TIME || timecodeLines[i] != null) {
+                numbers[i] = number++;
+            }
+        }
+    }
+
+    /**
+     * The cues in order of their times: by start, then by end, and otherwise in the order they
+     * are in. Cues without a timecode come first. The cues themselves aren't moved, only their
+     * indexes are sorted, by a merge sort on an int array, so no boxing.
+     *
+     * @return the indexes of the cues, in order
+     */
+    public int[] sortedOrder() {
+        final int[] order = new int[size];
+        boolean sorted = true;
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+            if (i > 0 && compare(i - 1, i) > 0) {
+                sorted = false;
+            }
+        }
+        if (!sorted) {
+            // most files are in order already, only the rest needs the sort
+            sort(order.clone(), order, 0, size);
+        }
+        return order;
+    }
+
+    /**
+     * Top down merge sort of to[from, to), with source holding the same values to start with.
+     */
+    private void sort(final int[] source, final int[] target, final int from, final int to) {
+        if (to - from < 16) {
+            // insertion sort for the short runs
+            for (int i = from + 1; i < to; i++) {
+                final int cue = target[i];
+                int j = i - 1;
+                while (j >= from && compare(target[j], cue) > 0) {
+                    target[j + 1] = target[j];
+                    j--;
+                }
+                target[j + 1] = cue;
+            }
+            return;
+        }
+
+        final int middle = (from + to) >>> 1;
+        sort(target, source, from, middle);
+        sort(target, source, middle, to);
+        if (compare(source[middle - 1], source[middle]) <= 0) {
+            System.arraycopy(source, from, target, from, to - from);
+            return;
+        }
+
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && compare(source[left], source[right]) <= 0)) {
+                target[i] = source[left++];
+            } else {
+                target[i] = source[right++];
+            }
+        }
+    }
+
+    private int compare(final int cue, final int other) {
+        if (starts[cue] != starts[other]) {
+            return starts[cue] < starts[other] ? -1 : 1;
+        }
+        if (ends[cue] != ends[other]) {
+            return ends[cue] < ends[other] ? -1 : 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Writes all cues.
+     *
+     * @param writer the writer to write to
+     */
+    public void write(final SrtWriter writer) throws IOException {
+        for (int i = 0; i < size; i++) {
+            if (timecodeLines[i] != null) {
+                writer.writeHeader(numbers[i], timecodeLines[i]);
+            } else if (starts[i] != NO_TIME) {
+                writer.writeHeader(numbers[i], starts[i], ends[i]);
+            }
+
+            final int textEnd = textOffsets[i + 1];
+            int lineStart = textOffsets[i];
+            if (lineStart == textEnd) {
+                continue;
+            }
+            for (int j = lineStart; j <= textEnd; j++) {
+                if (j == textEnd || text[j] == '\n') {
+                    writer.writeLine(text, lineStart, j - lineStart);
+                    lineStart = j + 1;
+                }
+            }
+        }
+    }
+
+    private void ensureTextCapacity(final int capacity) {
+        if (capacity > text.length) {
+            text = Arrays.copyOf(text, Math.max(capacity, text.length * 2));
+        }
+    }
+
+    private int check(final int cue) {
+        if (cue < 0 || cue >= size) {
+            throw new IndexOutOfBoundsException("No such cue :: " + cue);
+        }
+        return cue;
+    }
+}
@@ -0,0 +1,214 @@
+package nl.bvs.srtfixer.srt;
+
+import nl.bvs.srtfixer.util.TimecodeCodec;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Reads an SRT file one cue at a time, so even huge files never have to be in memory
+ * all at once.
+ *
+ * It is forgiving, since SRT files in the wild are a mess. A cue starts with a number
+ * line followed by a timecode line (or just a timecode line), at the start of the file
+ * or after one or more empty lines. Anything else is text of the current cue, and empty
+ * lines that don't end up ending a cue are dropped. Text before the first cue is returned
+ * as a cue without a timecode.
+ *
+ * A timecode line that looks like one but can't be read, like '00:00:75,000 --> 00:00:76,000',
+ * still starts a cue. Its times are unknown then, and the line is kept as it is, see getTimecodeLine.
+ */
+public final class SrtReader {
+    private final BufferedReader reader;
+    /** Lines that were read ahead to find out where a cue starts. */
+    private final Deque<String> pushedBack = new ArrayDeque<>();
+    private final List<String> lines = new ArrayList<>();
+    private final List<String> linesView = Collections.unmodifiableList(lines);
+
+    private boolean timecode;
+    private int number;
+    private long start;
+    private long end;
+    private String timecodeLine;
+
+    public SrtReader(final BufferedReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Moves on to the next cue.
+     *
+     * @return true if there is one, false at the end of the file
+     */
+    public boolean next() throws IOException {
+        lines.clear();
+        timecode = false;
+        number = -1;
+        start = -1;
+        end = -1;
+        timecodeLine = null;
+
+        String line = readLine();
+        while (line != null && isBlank(line)) {
+            line = readLine();
+        }
+        if (line == null) {
+            return false;
+        }
+
+        if (!readHeader(line)) {
+            lines.add(line);
+        }
+
+        boolean afterEmptyLine = false;
+        while ((line = readLine()) != null) {
+            if (isBlank(line)) {
+                afterEmptyLine = true;
+            } else if (afterEmptyLine && startsCue(line)) {
+                pushedBack.push(line);
+                break;
+            } else {
+                lines.add(line);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the current cue has a timecode, false if it is text before the first cue
+     */
+    public boolean hasTimecode() {
+        return timecode;
+    }
+
+    /**
+     * @return the number of the current cue as it is in the file, -1 if it has none
+     */
+    public int getNumber() {
+        return number;
+    }
+
+    /**
+     * @return the timecode line of the current cue as it is in the file, if its times couldn't be
+     * read. Null if they could, or if it has no timecode.
+     */
+    public String getTimecodeLine() {
+        return timecodeLine;
+    }
+
+    /**
+     * @return the start of the current cue in milliseconds, -1 if it has no timecode or it couldn't be read
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * @return the end of the current cue in milliseconds, -1 if it has no timecode or it couldn't be read
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * @return the lines of text of the current cue, as they are in the file. Only valid until the next cue.
+     */
+    public List<String> getLines() {
+        return linesView;
+    }
+
+    private boolean readHeader(final String line) throws IOException {
+        final String trimmed = line.trim();
+        if (isTimecode(trimmed)) {
+            setTimes(line);
+            return true;
+        }
+
+        if (isNumber(trimmed)) {
+            final String next = readLine();
+            if (next != null && isTimecode(next.trim())) {
+                number = Integer.parseInt(trimmed);
+                setTimes(next);
+                return true;
+            }
+            if (next != null) {
+                pushedBack.push(next);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the line is the start of a cue, reading ahead one line if needed.
+     */
+    private boolean startsCue(final String line) throws IOException {
+        final String trimmed = line.trim();
+        if (isTimecode(trimmed)) {
+            return true;
+        }
+        if (!isNumber(trimmed)) {
+            return false;
+        }
+
+        final String next = readLine();
+        if (next == null) {
+            return false;
+        }
+        pushedBack.push(next);
+        return isTimecode(next.trim());
+    }
+
+    private void setTimes(final String line) {
+        timecode = true;
+        try {
+            start = TimecodeCodec.parseStart(line);
+            end = TimecodeCodec.parseEnd(line);
+        } catch (final IllegalArgumentException e) {
+            // garbage in, the same garbage out, the rest of the file can still be fixed
+            start = -1;
+            end = -1;
+            timecodeLine = line;
+        }
+    }
+
+    private String readLine() throws IOException {
+        if (!pushedBack.isEmpty()) {
+            return pushedBack.pop();
+        }
+        return reader.readLine();
+    }
+
+    private static boolean isTimecode(final String line) {
+        return TimecodeCodec.isTimecodeLine(line);
+    }
+
+    /**
+     * A cue number, at most 9 digits so it fits an int. No exceptions thrown for every line of text.
+     */
+    private static boolean isNumber(final String line) {
+        if (line.isEmpty() || line.length() > 9) {
+            return false;
+        }
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isBlank(final String line) {
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
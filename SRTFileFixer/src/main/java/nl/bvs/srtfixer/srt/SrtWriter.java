@@ -0,0 +1,73 @@
+package nl.bvs.srtfixer.srt;
+
+import nl.bvs.srtfixer.util.TimecodeCodec;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+
+/**
+ * Writes an SRT file one cue at a time: a number, a timecode, the text and a single
+ * empty line between cues. Nothing more.
+ */
+public final class SrtWriter {
+    private final BufferedWriter writer;
+    private final char[] timecode = new char[TimecodeCodec.MAX_LINE_LENGTH];
+    private boolean empty = true;
+
+    public SrtWriter(final BufferedWriter writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Starts a new cue, with an empty line before it unless it is the first thing in the file.
+     *
+     * @param number the number of the cue
+     * @param start the start in milliseconds
+     * @param end the end in milliseconds
+     */
+    public void writeHeader(final int number, final long start, final long end) throws IOException {
+        if (!empty) {
+            writer.newLine();
+        }
+        writer.write(Integer.toString(number));
+        writer.newLine();
+        writer.write(timecode, 0, TimecodeCodec.formatTimecodeLine(start, end, timecode));
+        writer.newLine();
+        empty = false;
+    }
+
+    /**
+     * Starts a new cue like writeHeader, with a timecode line as it is, for one that couldn't be read.
+     *
+     * @param number the number of the cue
+     * @param timecodeLine the timecode line
+     */
+    public void writeHeader(final int number, final CharSequence timecodeLine) throws IOException {
+        if (!empty) {
+            writer.newLine();
+        }
+        writer.write(Integer.toString(number));
+        writer.newLine();
+        writer.append(timecodeLine);
+        writer.newLine();
+        empty = false;
+    }
+
+    /**
+     * Writes a line of text of the current cue.
+     */
+    public void writeLine(final CharSequence line) throws IOException {
+        writer.append(line);
+        writer.newLine();
+        empty = false;
+    }
+
+    /**
+     * Writes a line of text of the current cue, from a range of a buffer.
+     */
+    public void writeLine(final char[] buffer, final int offset, final int length) throws IOException {
+        writer.write(buffer, offset, length);
+        writer.newLine();
+        empty = false;
+    }
+}
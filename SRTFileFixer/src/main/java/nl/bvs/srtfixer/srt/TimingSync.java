@@ -0,0 +1,258 @@
+package nl.bvs.srtfixer.srt;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * How to get the times of a subtitle in sync with a reference subtitle of the same video,
+ * usually one in another language: time * speed + offset.
+ *
+ * Found from the start times of the cues alone. For each speed to try (1, and the speeds of
+ * the common framerate mix-ups, like 23.976 vs 25 fps) every cue votes for the offsets to the
+ * reference cues near it, in buckets of 100 ms. Translations don't split their cues the same
+ * way, but enough of them start at the same moment for the right offset to stand out. The
+ * cues within a few hundred ms of their reference cue at that offset are then matched up, and
+ * the offset (and with drift, the speed) is fitted on those pairs. The speed that matches the
+ * most cues wins, as long as it matches clearly more than just an offset does.
+ *
+ * With the reference sorted, that's O(n log n) plus a vote for each reference cue within the
+ * max offset of each cue, which is a small constant for sane offsets.
+ */
+public final class TimingSync {
+    /** Speeds to try when there may be drift: the file was made for one framerate, the video has the other. */
+    private static final double[] SPEEDS = {1.0, 25 / 23.976, 23.976 / 25, 25 / 24.0, 24 / 25.0, 24 / 23.976, 23.976 / 24};
+    /** The size of the buckets the offsets are voted into. */
+    private static final long BUCKET_MILLIS = 100L;
+    /** How far a cue can be off from its reference cue, once in sync, and still be a match. */
+    private static final long MATCH_MILLIS = 400L;
+    /** At least this many cues have to match to believe it. */
+    private static final int MIN_MATCHES = 3;
+    /** Smaller offsets (without drift) are just the difference between translations, not worth rewriting a file for. */
+    private static final long MIN_OFFSET_MILLIS = 100L;
+    /** A day, either way. Nothing is that far off, and the votes for it still fit in memory. */
+    public static final long MAX_OFFSET_MILLIS = 24L * 60 * 60 * 1000;
+
+    private final double speed;
+    private final long offsetMillis;
+    private final int matches;
+
+    private TimingSync(final double speed, final long offsetMillis, final int matches) {
+        this.speed = speed;
+        this.offsetMillis = offsetMillis;
+        this.matches = matches;
+    }
+
+    /**
+     * Finds how to sync a subtitle to the reference.
+     *
+     * @param starts the start times of the cues of the subtitle to sync, in milliseconds
+     * @param referenceStarts the start times of the cues of the reference, in milliseconds
+     * @param maxOffsetMillis the largest offset to look for, either way, from 0 up to MAX_OFFSET_MILLIS
+     * @param drift true to look for a different speed too, false for an offset only
+     * @return how to sync, or null if the two don't line up well enough (at least a quarter of the cues has to match)
+     * @throws IllegalArgumentException when the max offset is negative or more than MAX_OFFSET_MILLIS
+     */
+    public static TimingSync find(final long[] starts, final long[] referenceStarts, final long maxOffsetMillis, final boolean drift) {
+        if (maxOffsetMillis < 0 || maxOffsetMillis > MAX_OFFSET_MILLIS) {
+            throw new IllegalArgumentException("The max offset must be between 0 and " + MAX_OFFSET_MILLIS + " ms :: " + maxOffsetMillis);
+        }
+        final long[] reference = referenceStarts.clone();
+        Arrays.sort(reference);
+
+        TimingSync best = find(starts, reference, 1.0, maxOffsetMillis, false);
+        if (drift) {
+            // a fitted speed is never exactly 1, so it has to be clearly better than just an offset
+            int toBeat = best == null ? 0 : best.matches + best.matches / 20;
+            for (final double speed : SPEEDS) {
+                final TimingSync sync = find(starts, reference, speed, maxOffsetMillis, true);
+                if (sync != null && sync.matches > toBeat) {
+                    best = sync;
+                    toBeat = sync.matches;
+                }
+            }
+        }
+
+        final int needed = Math.max(MIN_MATCHES, Math.min(starts.length, reference.length) / 4);
+        if (best == null || best.matches < needed) {
+            return null;
+        }
+        if (best.speed == 1.0 && Math.abs(best.offsetMillis) < MIN_OFFSET_MILLIS) {
+            return new TimingSync(1.0, 0L, best.matches);
+        }
+        return best;
+    }
+
+    private static TimingSync find(final long[] starts, final long[] reference, final double speed,
+                                   final long maxOffsetMillis, final boolean drift) {
+        final long[] scaled = new long[starts.length];
+        for (int i = 0; i < starts.length; i++) {
+            scaled[i] = Math.round(starts[i] * speed);
+        }
+
+        // every cue votes for the offsets to the reference cues around it
+        final int buckets = (int) (2 * maxOffsetMillis / BUCKET_MILLIS) + 1;
+        final int[] votes = new int[buckets];
+        for (final long start : scaled) {
+            for (int j = lowerBound(reference, start - maxOffsetMillis); j < reference.length && reference[j] <= start + maxOffsetMillis; j++) {
+                votes[(int) ((reference[j] - start + maxOffsetMillis) / BUCKET_MILLIS)]++;
+            }
+        }
+
+        // the best three buckets in a row, since the right offset can be on the edge of one
+        int bestBucket = -1;
+        int bestVotes = 0;
+        for (int i = 0; i < buckets; i++) {
+            final int windowVotes = votes[i] + (i > 0 ? votes[i - 1] : 0) + (i + 1 < buckets ? votes[i + 1] : 0);
+            if (windowVotes > bestVotes) {
+                bestVotes = windowVotes;
+                bestBucket = i;
+            }
+        }
+        if (bestBucket < 0) {
+            return null;
+        }
+
+        final long roughOffset = bestBucket * BUCKET_MILLIS + BUCKET_MILLIS / 2 - maxOffsetMillis;
+        final long[] pairs = new long[starts.length * 2];
+        int matches = match(starts, scaled, reference, roughOffset, pairs);
+        if (matches == 0) {
+            return null;
+        }
+        if (!drift) {
+            return new TimingSync(1.0, medianOffset(pairs, matches), matches);
+        }
+
+        // fit the line through the pairs, and once more through the pairs that line gives
+        double[] line = fit(pairs, matches, speed, roughOffset);
+        for (int i = 0; i < starts.length; i++) {
+            scaled[i] = Math.round(starts[i] * line[0]);
+        }
+        matches = match(starts, scaled, reference, Math.round(line[1]), pairs);
+        if (matches == 0) {
+            return null;
+        }
+        line = fit(pairs, matches, line[0], line[1]);
+        return new TimingSync(line[0], Math.round(line[1]), matches);
+    }
+
+    /**
+     * Matches each cue with the nearest reference cue, if near enough once shifted.
+     *
+     * @param pairs filled with the start and the reference start of each match
+     * @return the number of matches
+     */
+    private static int match(final long[] starts, final long[] scaled, final long[] reference, final long offsetMillis, final long[] pairs) {
+        int matches = 0;
+        for (int i = 0; i < starts.length; i++) {
+            final long shifted = scaled[i] + offsetMillis;
+            final int j = lowerBound(reference, shifted);
+
+            // the reference cue at or after it, or the one before if that's nearer
+            int nearest = j;
+            if (j == reference.length || (j > 0 && shifted - reference[j - 1] < reference[j] - shifted)) {
+                nearest = j - 1;
+            }
+            if (nearest >= 0 && Math.abs(reference[nearest] - shifted) <= MATCH_MILLIS) {
+                pairs[matches * 2] = starts[i];
+                pairs[matches * 2 + 1] = reference[nearest];
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * The median of reference start - start of the pairs.
+     */
+    private static long medianOffset(final long[] pairs, final int matches) {
+        final long[] offsets = new long[matches];
+        for (int i = 0; i < matches; i++) {
+            offsets[i] = pairs[i * 2 + 1] - pairs[i * 2];
+        }
+        Arrays.sort(offsets);
+        return offsets[matches / 2];
+    }
+
+    /**
+     * Least squares fit of reference start = start * speed + offset.
+     *
+     * @return the speed and the offset, or the given ones when all starts are the same
+     */
+    private static double[] fit(final long[] pairs, final int matches, final double speed, final double offset) {
+        // around the mean, or the squares of a two hour film lose precision
+        double meanX = 0;
+        double meanY = 0;
+        for (int i = 0; i < matches; i++) {
+            meanX += pairs[i * 2];
+            meanY += pairs[i * 2 + 1];
+        }
+        meanX /= matches;
+        meanY /= matches;
+
+        double covariance = 0;
+        double variance = 0;
+        for (int i = 0; i < matches; i++) {
+            final double x = pairs[i * 2] - meanX;
+            covariance += x * (pairs[i * 2 + 1] - meanY);
+            variance += x * x;
+        }
+        if (variance == 0) {
+            return new double[]{speed, offset};
+        }
+
+        final double fittedSpeed = covariance / variance;
+        return new double[]{fittedSpeed, meanY - fittedSpeed * meanX};
+    }
+
+    /**
+     * @return the index of the first value >= key, or the length if there is none
+     */
+    private static int lowerBound(final long[] sorted, final long key) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (sorted[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @param millis a time of the subtitle, in milliseconds
+     * @return the time in sync with the reference, but not before zero
+     */
+    public long apply(final long millis) {
+        return Math.max(0L, Math.round(millis * speed) + offsetMillis);
+    }
+
+    /**
+     * @return true if the times don't change
+     */
+    public boolean isIdentity() {
+        return speed == 1.0 && offsetMillis == 0L;
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    public long getOffsetMillis() {
+        return offsetMillis;
+    }
+
+    /**
+     * @return the number of cues that matched a reference cue
+     */
+    public int getMatches() {
+        return matches;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "offset %+d ms, speed x%.5f, %d cues matched", offsetMillis, speed, matches);
+    }
+}
@@ -0,0 +1,17 @@
+package nl.bvs.srtfixer.util;
+
+/**
+ * How the BackupUtil stores the contents of a file, the first time it sees them.
+ */
+public enum BackupMode {
+    /** A plain copy. */
+    COPY,
+    /**
+     * A hard link to the original, so no copying at all. Safe because the fixers replace files
+     * instead of writing into them, but anything else that changes the original in place
+     * changes the backup too. Falls back to a copy where links can't be made.
+     */
+    HARD_LINK,
+    /** A gzipped copy, subtitles compress to about a third. */
+    COMPRESSED
+}
@@ -1,43 +1,354 @@
 package nl.bvs.srtfixer.util;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
+/**
+ * Keeps backups of files in the backup dir, stored by the hash of their contents, so files with
+ * the same name don't overwrite each other and the same contents are only stored once, however
+ * many runs back them up.
+ *
+ * The backup dir has an 'objects' dir with a file per distinct contents, named after its SHA-256
+ * hash ('.gz' added when compressed), and an 'index' file with a line per backup: the time, the
+ * hash and the full path of the original, separated by tabs.
+ *
+ * Safe to use from multiple threads.
+ */
 public class BackupUtil {
+    private static final String OBJECTS_DIR = "objects";
+    private static final String INDEX_FILE = "index";
+    private static final String COMPRESSED_SUFFIX = ".gz";
+
+    private final Path objectsDir;
+    private final Path indexFile;
+    private final BackupMode mode;
+
+    /**
+     * Restore or prune backups. Usage:
+     *
+     * restore [path of the original file]
+     * prune [days to keep]
+     *
+     * @param args the command and its argument
+     */
+    public static void main(final String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: restore [path of the original file] | prune [days to keep]");
+            return;
+        }
+
+        final BackupUtil backupUtil = new BackupUtil(new File(Constants.BACKUP_DIR));
+        if ("restore".equals(args[0])) {
+            final File file = new File(args[1]);
+            System.out.println((backupUtil.restore(file) ? "Restored :: " : "No backup of :: ") + file.getPath());
+        } else if ("prune".equals(args[0])) {
+            final int removed = backupUtil.prune(TimeUnit.DAYS.toMillis(Long.parseLong(args[1])));
+            System.out.println("Removed " + removed + " backups");
+        } else {
+            System.err.println("Unknown command :: " + args[0]);
+        }
+    }
+
     public BackupUtil() {
+        this(new File(Constants.BACKUP_DIR));
+    }
+
+    /**
+     * @param backupDir the dir to keep the backups in
+     */
+    public BackupUtil(final File backupDir) {
+        this(backupDir, Constants.BACKUP_MODE);
+    }
+
+    /**
+     * @param backupDir the dir to keep the backups in
+     * @param mode how to store contents that aren't in there yet
+     */
+    BackupUtil(final File backupDir, final BackupMode mode) {
+        this.mode = mode;
+        objectsDir = backupDir.toPath().resolve(OBJECTS_DIR);
+        indexFile = backupDir.toPath().resolve(INDEX_FILE);
+
         if (Constants.MAKE_BACKUPS) {
-            final File backupDir = getBackupDir();
-            final boolean tempDirMade = backupDir.mkdirs();
-            if (!tempDirMade && !backupDir.exists()) {
+            final File dir = objectsDir.toFile();
+            final boolean tempDirMade = dir.mkdirs();
+            if (!tempDirMade && !dir.exists()) {
                 System.err.println("Failed to make the temp dir.");
                 throw new IllegalStateException("I wanted backups. Not getting any, so kaboom!");
             }
         }
     }
 
-    private File getBackupDir() {
-        return new File(Constants.BACKUP_DIR);
-    }
-
     /**
-     * Makes a backup of the given file.
+     * Makes a backup of the given file. Contents that are already in the store are not stored again.
      * @param fileToBackup the file to backup
      */
     public void makeBackup(final File fileToBackup) {
-        final File backupDir = getBackupDir();
-
-        // make a backup
-        final Path source = Paths.get(fileToBackup.getAbsolutePath());
-        final Path destination = Paths.get(backupDir.getAbsolutePath() + File.separator + fileToBackup.getName());
+        final Path source = fileToBackup.toPath().toAbsolutePath().normalize();
         try {
-            Files.copy(source, destination, StandardCopyOption.REPLACE_EXISTING);
+            final String hash;
+            try (InputStream in = Files.newInputStream(source)) {
+                hash = hash(in);
+            }
+            if (findObject(hash) == null) {
+                store(source, hash);
+            }
+            addToIndex(System.currentTimeMillis(), hash, source);
         } catch (IOException e) {
             // stuff may go wrong sometimes - e.g. locked files - tough luck
             e.printStackTrace();
         }
     }
+
+    /**
+     * Makes a backup of the given contents of a file, as they were read, whatever is on disk now.
+     * Always a copy, even with hard links, since the file may not have these contents anymore.
+     * @param fileToBackup the file the contents are of
+     * @param contents the contents to backup
+     */
+    public void makeBackup(final File fileToBackup, final byte[] contents) {
+        final Path source = fileToBackup.toPath().toAbsolutePath().normalize();
+        try {
+            final String hash = hash(new ByteArrayInputStream(contents));
+            if (findObject(hash) == null) {
+                store(new ByteArrayInputStream(contents), hash);
+            }
+            addToIndex(System.currentTimeMillis(), hash, source);
+        } catch (IOException e) {
+            // stuff may go wrong sometimes - e.g. a full disk - tough luck
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Puts the latest backup of a file back in its place.
+     *
+     * @param original the file as it was backed up
+     * @return true if it was restored, false if there is no backup of it
+     */
+    public boolean restore(final File original) {
+        final Path path = original.toPath().toAbsolutePath().normalize();
+        return restore(original, path.toFile());
+    }
+
+    /**
+     * Writes the latest backup of a file to the given target.
+     *
+     * @param original the file as it was backed up
+     * @param target the file to write the backup to
+     * @return true if it was restored, false if there is no backup of it
+     */
+    public boolean restore(final File original, final File target) {
+        final String path = original.toPath().toAbsolutePath().normalize().toString();
+
+        try {
+            String hash = null;
+            for (final IndexEntry entry : readIndex()) {
+                if (entry.path.equals(path)) {
+                    hash = entry.hash;
+                }
+            }
+            final Path object = hash == null ? null : findObject(hash);
+            if (object == null) {
+                return false;
+            }
+
+            final Path targetPath = target.toPath();
+            final Path tmpPath = targetPath.resolveSibling("tmp_" + targetPath.getFileName());
+            try (InputStream in = open(object)) {
+                Files.copy(in, tmpPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+            SubtitleIO.replace(tmpPath, targetPath);
+            return true;
+        } catch (final IOException e) {
+            System.err.println("Failed to restore :: " + path);
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Forgets backups older than the given age, and removes the contents no backup needs anymore.
+     *
+     * @param maxAgeMillis the age of the backups to keep
+     * @return the number of backups that were removed
+     */
+    public synchronized int prune(final long maxAgeMillis) {
+        final long cutoff = System.currentTimeMillis() - maxAgeMillis;
+
+        try {
+            final List<IndexEntry> entries = readIndex();
+            final List<IndexEntry> kept = new ArrayList<>();
+            final Set<String> keptHashes = new HashSet<>();
+            for (final IndexEntry entry : entries) {
+                if (entry.time >= cutoff) {
+                    kept.add(entry);
+                    keptHashes.add(entry.hash);
+                }
+            }
+
+            // a new index first, so no backup is ever listed without its contents
+            final Path tmpIndex = indexFile.resolveSibling("tmp_" + INDEX_FILE);
+            try (BufferedWriter writer = Files.newBufferedWriter(tmpIndex, StandardCharsets.UTF_8)) {
+                for (final IndexEntry entry : kept) {
+                    writer.write(entry.toLine());
+                    writer.newLine();
+                }
+            }
+            SubtitleIO.replace(tmpIndex, indexFile);
+
+            try (DirectoryStream<Path> objects = Files.newDirectoryStream(objectsDir)) {
+                for (final Path object : objects) {
+                    final String name = object.getFileName().toString();
+                    if (name.startsWith("tmp_")) {
+                        // still being written
+                        continue;
+                    }
+                    final String hash = name.endsWith(COMPRESSED_SUFFIX)
+                            ? name.substring(0, name.length() - COMPRESSED_SUFFIX.length()) : name;
+                    if (!keptHashes.contains(hash)) {
+                        Files.deleteIfExists(object);
+                    }
+                }
+            }
+            return entries.size() - kept.size();
+        } catch (final IOException e) {
+            System.err.println("Failed to prune the backups :: " + indexFile.getParent());
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    private void store(final Path source, final String hash) throws IOException {
+        final Path object = objectsDir.resolve(hash);
+
+        if (mode == BackupMode.HARD_LINK) {
+            try {
+                Files.createLink(object, source);
+                return;
+            } catch (final FileAlreadyExistsException e) {
+                // another thread beat us to it
+                return;
+            } catch (final IOException | UnsupportedOperationException e) {
+                // other file system perhaps, a copy will do
+            }
+        }
+
+        try (InputStream in = Files.newInputStream(source)) {
+            store(in, hash);
+        }
+    }
+
+    private void store(final InputStream in, final String hash) throws IOException {
+        // write it under a temp name, so a half written object is never mistaken for a backup
+        final Path tmpObject = objectsDir.resolve("tmp_" + hash + "_" + Thread.currentThread().getId());
+        if (mode == BackupMode.COMPRESSED) {
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmpObject), 64 * 1024)) {
+                final byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            }
+            SubtitleIO.replace(tmpObject, objectsDir.resolve(hash + COMPRESSED_SUFFIX));
+        } else {
+            Files.copy(in, tmpObject, StandardCopyOption.REPLACE_EXISTING);
+            SubtitleIO.replace(tmpObject, objectsDir.resolve(hash));
+        }
+    }
+
+    private Path findObject(final String hash) {
+        final Path object = objectsDir.resolve(hash);
+        if (Files.exists(object)) {
+            return object;
+        }
+        final Path compressed = objectsDir.resolve(hash + COMPRESSED_SUFFIX);
+        return Files.exists(compressed) ? compressed : null;
+    }
+
+    private static InputStream open(final Path object) throws IOException {
+        final InputStream in = Files.newInputStream(object);
+        return object.getFileName().toString().endsWith(COMPRESSED_SUFFIX) ? new GZIPInputStream(in) : in;
+    }
+
+    private synchronized void addToIndex(final long time, final String hash, final Path source) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(indexFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            writer.write(new IndexEntry(time, hash, source.toString()).toLine());
+            writer.newLine();
+        }
+    }
+
+    private synchronized List<IndexEntry> readIndex() throws IOException {
+        final List<IndexEntry> entries = new ArrayList<>();
+        if (!Files.exists(indexFile)) {
+            return entries;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] parts = line.split("\t", 3);
+                if (parts.length == 3) {
+                    entries.add(new IndexEntry(Long.parseLong(parts[0]), parts[1], parts[2]));
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static String hash(final InputStream in) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No SHA-256, no backups", e);
+        }
+
+        final byte[] buffer = new byte[64 * 1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+
+        final StringBuilder hex = new StringBuilder(64);
+        for (final byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * A line of the index.
+     */
+    private static final class IndexEntry {
+        private final long time;
+        private final String hash;
+        private final String path;
+
+        IndexEntry(final long time, final String hash, final String path) {
+            this.time = time;
+            this.hash = hash;
+            this.path = path;
+        }
+
+        String toLine() {
+            return time + "\t" + hash + "\t" + path;
+        }
+    }
 }
@@ -0,0 +1,401 @@
+package nl.bvs.srtfixer.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Keeps track of a run over a whole root dir, so a run that gets killed halfway can carry on
+ * where it was instead of starting over. Stored as an append-only file in the root dir, which
+ * is removed once the run is done.
+ *
+ * Each file is recorded when it is found, before it is fixed, and again once it is done. When
+ * the walk is over, that's recorded too. So on a restart
+ *
+ * - the files that were done are skipped, without looking at them at all (no manifest check,
+ *   no hashing)
+ * - the files that were found but not done are fixed first, after repairing what an interrupted
+ *   rewrite may have left behind, see recover
+ * - if the walk was over, that's it: no walking the tree again. Otherwise the walk starts over,
+ *   skipping the files it has seen already
+ *
+ * The records are written as they happen, so a killed run loses none of them. Forcing them to
+ * disk costs too much to do for every file on a NAS, so that's done in batches: a crashed machine
+ * loses at most the last batch, whose files are simply fixed again.
+ *
+ * Safe to use from multiple threads.
+ */
+public class BatchJob implements Closeable {
+    /** 'SRTJ', so we don't go reading some random file. */
+    private static final int MAGIC = 0x5352544A;
+    /** Bump this when changing the file format. Old jobs are then simply started over. */
+    private static final int FORMAT_VERSION = 1;
+    /** The length of the header: magic, format version and rules version. */
+    private static final int HEADER_LENGTH = 12;
+
+    private static final byte FOUND = 1;
+    private static final byte DONE = 2;
+    private static final byte WALKED = 3;
+
+    /** What the temp files of BaseFixer.fix start with. */
+    private static final String TMP_PREFIX = "tmp_";
+
+    private final Path root;
+    private final Path jobFile;
+    private final FileChannel channel;
+    private final Set<String> found;
+    private final Set<String> done;
+    private final boolean walked;
+    /** Files that were found, but not done, by the run before. */
+    private final Set<String> unfinished;
+
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private int unsyncedRecords;
+    private long lastSyncNanos = System.nanoTime();
+
+    private BatchJob(final Path root, final Path jobFile, final FileChannel channel, final Set<String> found,
+                     final Set<String> done, final boolean walked) {
+        this.root = root;
+        this.jobFile = jobFile;
+        this.channel = channel;
+        this.found = Collections.synchronizedSet(found);
+        this.done = Collections.synchronizedSet(done);
+        this.walked = walked;
+
+        final Set<String> left = new LinkedHashSet<>();
+        for (final String key : found) {
+            if (!done.contains(key)) {
+                left.add(key);
+            }
+        }
+        this.unfinished = left;
+    }
+
+    /**
+     * Picks up the job in the given root dir where it was left, or starts a new one if there is
+     * none, or if it was for other rules. A broken end, from a run that died while writing it,
+     * is cut off.
+     *
+     * @param rootDir the root dir of the files, where the job is kept
+     * @param rulesVersion the version of the rules the files are going to be fixed with
+     * @return the job
+     */
+    public static BatchJob open(final File rootDir, final int rulesVersion) throws IOException {
+        final Path root = rootDir.toPath().toAbsolutePath();
+        final Path jobFile = root.resolve(Constants.JOB_FILE_NAME);
+        final Set<String> found = new LinkedHashSet<>();
+        final Set<String> done = new HashSet<>();
+        boolean walked = false;
+
+        final FileChannel channel = FileChannel.open(jobFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            long end = 0;
+            if (channel.size() >= HEADER_LENGTH) {
+                final DataInputStream in = new DataInputStream(new BufferedInputStream(new ChannelInputStream(channel)));
+                if (in.readInt() == MAGIC && in.readInt() == FORMAT_VERSION && in.readInt() == rulesVersion) {
+                    end = HEADER_LENGTH;
+                    try {
+                        while (true) {
+                            final byte type = in.readByte();
+                            if (type == WALKED) {
+                                walked = true;
+                            } else {
+                                final String key = in.readUTF();
+                                if (type == FOUND) {
+                                    found.add(key);
+                                } else if (type == DONE) {
+                                    done.add(key);
+                                } else {
+                                    break;
+                                }
+                            }
+                            end = channel.position() - in.available();
+                        }
+                    } catch (final EOFException e) {
+                        // the end, or a record that was cut off
+                    }
+                } else {
+                    System.err.println("Starting the job over, it was for other rules :: " + jobFile);
+                }
+            }
+
+            if (end == 0) {
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(rulesVersion).flip();
+                channel.truncate(0);
+                channel.write(header, 0);
+                end = HEADER_LENGTH;
+                found.clear();
+                done.clear();
+                walked = false;
+            }
+            channel.truncate(end);
+            channel.position(end);
+            channel.force(true);
+        } catch (final IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+
+        final BatchJob job = new BatchJob(root, jobFile, channel, found, done, walked);
+        if (!found.isEmpty() && Constants.VERBOSITY != Verbosity.QUIET) {
+            System.out.println("Resuming job :: " + done.size() + " files done, " + job.unfinished.size() + " unfinished"
+                    + (walked ? "" : ", walking again"));
+        }
+        return job;
+    }
+
+    /**
+     * The files to fix: first the unfinished ones of the run before, then (if that run didn't get
+     * to the end of the walk) the ones found by the given walk that weren't seen before. Every file
+     * is recorded as found before it is handed out.
+     *
+     * @param walk the walk over the root dir, only started if needed
+     * @return the files still to fix
+     */
+    public Iterable<File> files(final Iterable<File> walk) {
+        return new Iterable<File>() {
+            @Override
+            public Iterator<File> iterator() {
+                return new FileIterator(walk);
+            }
+        };
+    }
+
+    /**
+     * Records that a file is done: fixed, or up to date already.
+     */
+    public void done(final File file) {
+        final String key = toKey(file);
+        if (done.add(key)) {
+            append(DONE, key);
+        }
+    }
+
+    /**
+     * Repairs what a rewrite of the file may have left behind when the run was killed: the file is
+     * written to a temp file first, which replaces it once it is complete and on disk. So a temp file
+     * next to the file was not complete yet and is removed, and a temp file without the file was about
+     * to replace it (on shares that can't do that in one go) and takes its place.
+     *
+     * @param original the file that was being fixed
+     * @return the file, or null if it is gone
+     */
+    public static File recover(final File original) {
+        final File tmpFile = new File(original.getAbsoluteFile().getParentFile(), TMP_PREFIX + original.getName());
+
+        try {
+            if (!Files.exists(tmpFile.toPath())) {
+                return original.exists() ? original : null;
+            }
+            if (original.exists()) {
+                Files.delete(tmpFile.toPath());
+                System.err.println("Removed an unfinished temp file :: " + tmpFile.getPath());
+            } else {
+                SubtitleIO.replace(tmpFile.toPath(), original.toPath());
+                System.err.println("Finished an interrupted rewrite :: " + original.getPath());
+            }
+        } catch (final IOException e) {
+            System.err.println("Could not clean up the temp file :: " + tmpFile.getPath());
+            e.printStackTrace();
+        }
+        return original.exists() ? original : null;
+    }
+
+    /**
+     * @return true for the temp files of BaseFixer.fix, which are found along with the real files
+     */
+    public static boolean isTmpFile(final File file) {
+        return file.getName().startsWith(TMP_PREFIX);
+    }
+
+    /**
+     * @return the file the temp file was written for
+     */
+    private static File getOriginal(final File tmpFile) {
+        return new File(tmpFile.getAbsoluteFile().getParentFile(), tmpFile.getName().substring(TMP_PREFIX.length()));
+    }
+
+    /**
+     * Forces what was recorded to disk and closes the job. Call finish instead when all files are done.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (!channel.isOpen()) {
+                return;
+            }
+            try {
+                channel.force(false);
+            } catch (final IOException e) {
+                System.err.println("Failed to sync the job :: " + jobFile);
+            }
+            try {
+                channel.close();
+            } catch (final IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Closes the job and removes it, the next run will start a new one.
+     */
+    public void finish() {
+        close();
+        try {
+            Files.deleteIfExists(jobFile);
+        } catch (final IOException e) {
+            System.err.println("Failed to remove the finished job :: " + jobFile);
+        }
+    }
+
+    private synchronized void append(final byte type, final String key) {
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            record.reset();
+            recordOut.writeByte(type);
+            if (key != null) {
+                recordOut.writeUTF(key);
+            }
+            final ByteBuffer buffer = ByteBuffer.wrap(record.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+
+            unsyncedRecords++;
+            final long now = System.nanoTime();
+            if (unsyncedRecords >= Constants.JOB_SYNC_RECORDS || now - lastSyncNanos >= Constants.JOB_SYNC_MILLIS * 1000000L) {
+                channel.force(false);
+                unsyncedRecords = 0;
+                lastSyncNanos = now;
+            }
+        } catch (final IOException e) {
+            // without the record the file is fixed again next time, no biggie
+            System.err.println("Failed to write to the job :: " + jobFile);
+        }
+    }
+
+    private String toKey(final File file) {
+        return root.relativize(file.toPath().toAbsolutePath()).toString();
+    }
+
+    /**
+     * The unfinished files, then the walk if needed. Leftover temp files are recovered instead of
+     * fixed, and the files are recorded as found.
+     */
+    private final class FileIterator implements Iterator<File> {
+        private final Iterator<String> left = unfinished.iterator();
+        private final Iterable<File> walk;
+        private Iterator<File> walker;
+        private File next;
+
+        FileIterator(final Iterable<File> walk) {
+            this.walk = walk;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                if (left.hasNext()) {
+                    next = recover(root.resolve(left.next()).toFile());
+                    continue;
+                }
+                if (walked) {
+                    return false;
+                }
+                if (walker == null) {
+                    walker = walk.iterator();
+                }
+                if (!walker.hasNext()) {
+                    append(WALKED, null);
+                    return false;
+                }
+
+                final File file = walker.next();
+                if (isTmpFile(file)) {
+                    next = recoverFound(file);
+                } else if (!found.contains(toKey(file))) {
+                    next = file;
+                }
+            }
+
+            if (found.add(toKey(next))) {
+                append(FOUND, toKey(next));
+            }
+            return true;
+        }
+
+        /**
+         * A temp file without its original is an interrupted rewrite, which is finished. One with its
+         * original could be a subtitle that happens to be called tmp_, unless this job was fixing the
+         * original, so that one is left alone.
+         *
+         * @return the original if it still needs fixing, null otherwise
+         */
+        private File recoverFound(final File tmpFile) {
+            final File original = getOriginal(tmpFile);
+            if (original.exists()) {
+                if (!unfinished.contains(toKey(original))) {
+                    System.err.println("Leaving a temp file of another run alone :: " + tmpFile.getPath());
+                }
+                return null;
+            }
+
+            // the original may have been found by the walk already, before it went missing
+            final File recovered = recover(original);
+            return recovered != null && !found.contains(toKey(recovered)) ? recovered : null;
+        }
+
+        @Override
+        public File next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final File result = next;
+            next = null;
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Reads a channel from its position, moving it along. Unlike Channels.newInputStream, it keeps
+     * the channel open when closed, and it doesn't mind the channel being open for writing.
+     */
+    private static final class ChannelInputStream extends InputStream {
+        private final FileChannel channel;
+
+        ChannelInputStream(final FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+            return channel.read(ByteBuffer.wrap(bytes, offset, length));
+        }
+    }
+}
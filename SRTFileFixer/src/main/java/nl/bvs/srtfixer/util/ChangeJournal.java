@@ -0,0 +1,370 @@
+package nl.bvs.srtfixer.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Keeps a record of every change made during a run, so they can be looked at afterwards:
+ * the file, the cue, the rules that fired and the text before and after.
+ *
+ * The fixing threads only put the changes in a queue, a background thread writes them out
+ * in batches, so a run with millions of changes isn't held up by writing them. When the
+ * writer can't keep up, the queue fills up and the fixing threads wait for it.
+ *
+ * Written as JSON Lines, one change per line:
+ *
+ * {"file":"/subs/movie.srt","cue":12,"rules":["CAPSED_I","WORD_START"],"before":"lt is","after":"It is"}
+ *
+ * Or as a compact binary file: 'SRTC', the format version, the number of rules and their
+ * names, and then for each change the file, the cue, a bit mask of the rules, the before
+ * and the after. Numbers are ints, strings are an int with the number of UTF-8 bytes and
+ * then the bytes.
+ *
+ * Each run adds its changes to the journal, so resuming a job that was killed doesn't lose what
+ * the killed run changed. Whatever that run was halfway writing is cut off first.
+ */
+public final class ChangeJournal {
+    /** 'SRTC', so nobody mistakes it for something else. */
+    private static final int MAGIC = 0x53525443;
+    /** Bump this when changing the binary format. */
+    private static final int FORMAT_VERSION = 1;
+    private static final int QUEUE_CAPACITY = 64 * 1024;
+    private static final int BATCH_SIZE = 1024;
+    private static final FixerMetrics.Rule[] RULES = FixerMetrics.Rule.values();
+
+    /** Put in the queue by close, to let the writer know it is done. */
+    private static final Change END = new Change(null, 0, 0, null, null);
+
+    private final Path journalFile;
+    private final boolean binary;
+    private final boolean writeHeader;
+    private final OutputStream out;
+    private final BlockingQueue<Change> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread writerThread;
+    private volatile boolean failed;
+
+    private ChangeJournal(final Path journalFile, final boolean binary, final boolean writeHeader, final OutputStream out) {
+        this.journalFile = journalFile;
+        this.binary = binary;
+        this.writeHeader = writeHeader;
+        this.out = out;
+
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeChanges();
+            }
+        }, "change-journal");
+        writerThread.setDaemon(true);
+    }
+
+    /**
+     * Opens the journal in the given dir, to add the changes of this run to those of the runs before.
+     * A binary journal of another format is started over.
+     *
+     * @param dir the dir to keep the journal in
+     * @param binary true for the binary format, false for JSON Lines
+     * @return the journal, or null if it could not be made
+     */
+    public static ChangeJournal open(final File dir, final boolean binary) {
+        final Path journalFile = dir.toPath().resolve(Constants.JOURNAL_FILE_NAME + (binary ? ".bin" : ".jsonl"));
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            final long end = binary ? binaryEnd(channel, journalFile) : linesEnd(channel);
+            channel.truncate(end);
+            channel.position(end);
+
+            final ChangeJournal journal = new ChangeJournal(journalFile, binary, binary && end == 0,
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+            journal.writerThread.start();
+            return journal;
+        } catch (final IOException e) {
+            System.err.println("Failed to open the change journal, changes won't be recorded :: " + journalFile);
+            e.printStackTrace();
+            closeQuietly(channel);
+            return null;
+        }
+    }
+
+    /**
+     * @return the end of the last whole line, a line without its newline was cut off
+     */
+    private static long linesEnd(final FileChannel channel) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+        long end = channel.size();
+        while (end > 0) {
+            final long start = Math.max(0, end - buffer.capacity());
+            buffer.clear().limit((int) (end - start));
+            while (buffer.hasRemaining() && channel.read(buffer, start + buffer.position()) >= 0) {
+                // read the rest
+            }
+            for (int i = buffer.position() - 1; i >= 0; i--) {
+                if (buffer.get(i) == '\n') {
+                    return start + i + 1;
+                }
+            }
+            end = start;
+        }
+        return 0;
+    }
+
+    /**
+     * @return the end of the last whole change, or 0 if the journal has to be started over
+     */
+    private static long binaryEnd(final FileChannel channel, final Path journalFile) throws IOException {
+        if (channel.size() == 0) {
+            return 0;
+        }
+
+        // not closed, that would close the channel too
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024));
+        long end = 0;
+        try {
+            boolean sameFormat = in.readInt() == MAGIC && in.readInt() == FORMAT_VERSION && in.readInt() == RULES.length;
+            long header = 12;
+            for (int i = 0; sameFormat && i < RULES.length; i++) {
+                final int length = in.readInt();
+                final byte[] name = new byte[Math.max(0, Math.min(length, 256))];
+                in.readFully(name);
+                sameFormat = length == name.length && RULES[i].name().equals(new String(name, StandardCharsets.UTF_8));
+                header += 4 + length;
+            }
+            if (!sameFormat) {
+                System.err.println("Starting the journal over, it was of another format :: " + journalFile);
+                return 0;
+            }
+            end = header;
+
+            while (true) {
+                // the file, the cue and the rules, the before and the after
+                final long file = skipString(in);
+                final boolean numbers = file >= 0 && in.skipBytes(8) == 8;
+                final long before = numbers ? skipString(in) : -1;
+                final long after = before >= 0 ? skipString(in) : -1;
+                if (after < 0) {
+                    return end;
+                }
+                end += file + 8 + before + after;
+            }
+        } catch (final EOFException e) {
+            // the end, or a change that was cut off, or even the header
+            return end;
+        }
+    }
+
+    /**
+     * @return the bytes the string took, negative if it was cut off
+     */
+    private static long skipString(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        return length >= 0 && in.skipBytes(length) == length ? 4L + length : -1;
+    }
+
+    private static void closeQuietly(final Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (final IOException e) {
+            // nothing to be done about it
+        }
+    }
+
+    /**
+     * Records a change. Waits if the writer is too far behind.
+     *
+     * @param file the file that was changed
+     * @param cue the number of the cue that was changed
+     * @param rules the rules that fired, a bit for each FixerMetrics.Rule by ordinal
+     * @param before the text before
+     * @param after the text after, empty if it was removed
+     */
+    public void add(final String file, final int cue, final int rules, final String before, final String after) {
+        if (failed) {
+            return;
+        }
+        try {
+            queue.put(new Change(file, cue, rules, before, after));
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes the changes that are still queued and closes the journal.
+     */
+    public void close() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(END);
+                writerThread.join();
+                break;
+            } catch (final InterruptedException e) {
+                // the changes still have to be written, so keep waiting
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeChanges() {
+        final List<Change> batch = new ArrayList<>(BATCH_SIZE);
+        try (DataOutputStream data = new DataOutputStream(out)) {
+            if (writeHeader) {
+                writeHeader(data);
+            }
+
+            boolean done = false;
+            while (!done) {
+                batch.add(queue.take());
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                for (final Change change : batch) {
+                    if (change == END) {
+                        done = true;
+                        break;
+                    }
+                    if (!failed) {
+                        write(data, change);
+                    }
+                }
+                batch.clear();
+
+                // nothing else waiting, a good time to get it on disk
+                if (!failed && queue.isEmpty()) {
+                    data.flush();
+                }
+            }
+        } catch (final IOException e) {
+            // carry on without the journal, the fixing is what matters
+            failed = true;
+            System.err.println("Failed to write the change journal :: " + journalFile);
+            e.printStackTrace();
+            drainUntilEnd();
+        } catch (final InterruptedException e) {
+            failed = true;
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Throws away the queued changes after a failure, so nobody waits for a full queue forever.
+     */
+    private void drainUntilEnd() {
+        try {
+            while (queue.take() != END) {
+                // thrown away
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write(final DataOutputStream data, final Change change) throws IOException {
+        if (binary) {
+            writeString(data, change.file);
+            data.writeInt(change.cue);
+            data.writeInt(change.rules);
+            writeString(data, change.before);
+            writeString(data, change.after);
+            return;
+        }
+
+        final StringBuilder json = new StringBuilder(128);
+        json.append("{\"file\":");
+        appendJson(json, change.file);
+        json.append(",\"cue\":").append(change.cue).append(",\"rules\":[");
+        boolean first = true;
+        for (final FixerMetrics.Rule rule : RULES) {
+            if ((change.rules & 1 << rule.ordinal()) != 0) {
+                if (!first) {
+                    json.append(',');
+                }
+                appendJson(json, rule.name());
+                first = false;
+            }
+        }
+        json.append("],\"before\":");
+        appendJson(json, change.before);
+        json.append(",\"after\":");
+        appendJson(json, change.after);
+        json.append("}\n");
+        data.write(json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeHeader(final DataOutputStream data) throws IOException {
+        data.writeInt(MAGIC);
+        data.writeInt(FORMAT_VERSION);
+        data.writeInt(RULES.length);
+        for (final FixerMetrics.Rule rule : RULES) {
+            writeString(data, rule.name());
+        }
+    }
+
+    private static void writeString(final DataOutputStream data, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+    private static void appendJson(final StringBuilder json, final String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < ' ') {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+    private static final class Change {
+        private final String file;
+        private final int cue;
+        private final int rules;
+        private final String before;
+        private final String after;
+
+        Change(final String file, final int cue, final int rules, final String before, final String after) {
+            this.file = file;
+            this.cue = cue;
+            this.rules = rules;
+            this.before = before;
+            this.after = after;
+        }
+    }
+}
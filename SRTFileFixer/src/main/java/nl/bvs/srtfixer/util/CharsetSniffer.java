@@ -0,0 +1,152 @@
+package nl.bvs.srtfixer.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Figures out the charset of a subtitle file from its first bytes. A BOM settles it,
+ * otherwise the bytes are checked for being valid UTF-8 or looking like UTF-16. And if
+ * all of that fails, it is probably Windows-1252, which a lot of OCR software spits out.
+ */
+public final class CharsetSniffer {
+    /** How many bytes to look at. Subtitles are chatty, this is plenty. */
+    public static final int SNIFF_LENGTH = 64 * 1024;
+
+    public static final Charset WINDOWS_1252 = Charset.forName("windows-1252");
+
+    private CharsetSniffer() {
+        // static stuff only
+    }
+
+    /**
+     * Detects the charset of the given bytes, from the buffer's position up to its limit.
+     * The buffer itself is left alone.
+     *
+     * @param prefix the first bytes of the file
+     * @return the detected charset, and how long the BOM is, if any
+     */
+    public static Detection detect(final ByteBuffer prefix) {
+        final ByteBuffer bytes = prefix.duplicate();
+
+        if (startsWith(bytes, 0xEF, 0xBB, 0xBF)) {
+            return new Detection(StandardCharsets.UTF_8, 3);
+        }
+        if (startsWith(bytes, 0xFF, 0xFE)) {
+            return new Detection(StandardCharsets.UTF_16LE, 2);
+        }
+        if (startsWith(bytes, 0xFE, 0xFF)) {
+            return new Detection(StandardCharsets.UTF_16BE, 2);
+        }
+
+        final Charset utf16 = guessUtf16(bytes);
+        if (utf16 != null) {
+            return new Detection(utf16, 0);
+        }
+        if (isUtf8(bytes)) {
+            return new Detection(StandardCharsets.UTF_8, 0);
+        }
+        return new Detection(WINDOWS_1252, 0);
+    }
+
+    private static boolean startsWith(final ByteBuffer bytes, final int... values) {
+        if (bytes.remaining() < values.length) {
+            return false;
+        }
+        for (int i = 0; i < values.length; i++) {
+            if ((bytes.get(bytes.position() + i) & 0xFF) != values[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Text without a BOM in UTF-16 has lots of zero bytes, at every even position for
+     * big endian and at every odd position for little endian, since most of it is ASCII.
+     */
+    private static Charset guessUtf16(final ByteBuffer bytes) {
+        final int pairs = bytes.remaining() / 2;
+        if (pairs == 0) {
+            return null;
+        }
+
+        int evenZeros = 0;
+        int oddZeros = 0;
+        for (int i = 0; i < pairs; i++) {
+            if (bytes.get(bytes.position() + 2 * i) == 0) {
+                evenZeros++;
+            }
+            if (bytes.get(bytes.position() + 2 * i + 1) == 0) {
+                oddZeros++;
+            }
+        }
+
+        if (oddZeros > pairs / 2 && evenZeros < pairs / 10) {
+            return StandardCharsets.UTF_16LE;
+        }
+        if (evenZeros > pairs / 2 && oddZeros < pairs / 10) {
+            return StandardCharsets.UTF_16BE;
+        }
+        return null;
+    }
+
+    /**
+     * Checks for valid UTF-8. A sequence cut off at the end of the prefix is fine, the rest of it
+     * is just not in the prefix.
+     */
+    private static boolean isUtf8(final ByteBuffer bytes) {
+        final int end = bytes.limit();
+        int i = bytes.position();
+        while (i < end) {
+            final int b = bytes.get(i) & 0xFF;
+            final int followers;
+            if (b < 0x80) {
+                followers = 0;
+            } else if (b >= 0xC2 && b <= 0xDF) {
+                followers = 1;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                followers = 2;
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                followers = 3;
+            } else {
+                return false;
+            }
+
+            for (int j = 1; j <= followers; j++) {
+                if (i + j >= end) {
+                    return true;
+                }
+                if ((bytes.get(i + j) & 0xC0) != 0x80) {
+                    return false;
+                }
+            }
+            i += followers + 1;
+        }
+        return true;
+    }
+
+    /**
+     * What the sniffer found.
+     */
+    public static final class Detection {
+        private final Charset charset;
+        private final int bomLength;
+
+        Detection(final Charset charset, final int bomLength) {
+            this.charset = charset;
+            this.bomLength = bomLength;
+        }
+
+        public Charset getCharset() {
+            return charset;
+        }
+
+        /**
+         * @return the length of the BOM in bytes, 0 if there is none
+         */
+        public int getBomLength() {
+            return bomLength;
+        }
+    }
+}
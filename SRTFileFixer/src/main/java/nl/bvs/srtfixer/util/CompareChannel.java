@@ -0,0 +1,150 @@
+package nl.bvs.srtfixer.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compares what is written to it with the original file, and only starts writing to the target
+ * once they differ, so files that don't change are never written. At the first difference, the
+ * part that was the same is copied over from the original and the rest is written as it comes.
+ *
+ * Without a target it only checks: the first difference is reported with a ChangedException,
+ * so there is no need to fix the rest of the file, and everything after that is dropped.
+ */
+public final class CompareChannel implements WritableByteChannel {
+    private final FileChannel original;
+    /** Where the changed file goes, null when only checking. */
+    private final Path target;
+    /** The bytes of the original, from where the comparing is at. */
+    private final ByteBuffer compared = ByteBuffer.allocate(64 * 1024);
+    /** The number of bytes written so far. */
+    private long position;
+    private boolean changed;
+    /** Opened at the first difference. */
+    private FileChannel out;
+    private boolean open = true;
+
+    /**
+     * @param original the file to compare with, which is read without moving its position
+     * @param target where to write the file once it differs, null to only check
+     */
+    public CompareChannel(final FileChannel original, final Path target) {
+        this.original = original;
+        this.target = target;
+        compared.limit(0);
+    }
+
+    @Override
+    public int write(final ByteBuffer source) throws IOException {
+        final int count = source.remaining();
+        if (!changed) {
+            position += compare(source);
+            if (!source.hasRemaining()) {
+                return count;
+            }
+            change();
+            if (target == null) {
+                throw new ChangedException();
+            }
+        }
+
+        if (out == null) {
+            // only checking, we know enough
+            source.position(source.limit());
+            return count;
+        }
+        while (source.hasRemaining()) {
+            position += out.write(source);
+        }
+        return count;
+    }
+
+    /**
+     * Finishes the comparing, and makes sure the target is on disk if it was written. Call it
+     * after everything has been written.
+     *
+     * @return true if what was written differs from the original
+     */
+    public boolean finish() throws IOException {
+        if (!changed && position != original.size()) {
+            // the same, but shorter
+            change();
+        }
+        if (out != null) {
+            out.force(false);
+        }
+        return changed;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+        if (out != null) {
+            out.close();
+        }
+    }
+
+    /**
+     * Skips over the bytes that are the same as in the original.
+     *
+     * @return the number of bytes that were the same
+     */
+    private int compare(final ByteBuffer source) throws IOException {
+        int same = 0;
+        while (source.hasRemaining()) {
+            if (!compared.hasRemaining()) {
+                compared.clear();
+                final int read = original.read(compared, position + same);
+                compared.flip();
+                if (read <= 0) {
+                    // longer than the original
+                    return same;
+                }
+            }
+            if (source.get(source.position()) != compared.get()) {
+                return same;
+            }
+            source.position(source.position() + 1);
+            same++;
+        }
+        return same;
+    }
+
+    private void change() throws IOException {
+        changed = true;
+        if (target == null) {
+            return;
+        }
+
+        out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        long copied = 0;
+        while (copied < position) {
+            copied += original.transferTo(copied, position - copied, out);
+        }
+    }
+
+    /**
+     * Thrown at the first difference when only checking. No stack trace, it's not an error.
+     */
+    public static final class ChangedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ChangedException() {
+            super("The file would change");
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+}
@@ -1,21 +1,124 @@
 package nl.bvs.srtfixer.util;
 
+import java.util.List;
+
+/**
+ * The settings of a run. The values here are the defaults, each can be changed with the
+ * setting named after it, in a config file or on the command line, see Settings and SrtFixerCli.
+ */
 public class Constants {
     /** The path to the file to change. */
-    public static final String TIMEFIXER_FILE_PATH = "[path to the file to fix]";
+    public static final String TIMEFIXER_FILE_PATH = Settings.getString("timefixer.file", "[path to the file to fix]");
+    /** The amount of milliseconds to add or subtract from all time codes, unless another amount is given to the SrtTimeFixer. */
+    public static final long TIMEFIXER_OFFSET_MILLIS = Settings.getLong("timefixer.offset", 0);
+    /** The correctly timed subtitle to sync to, when syncing. Empty to sync each file to the one next to it in the reference language. */
+    public static final String TIMEFIXER_REFERENCE_PATH = Settings.getString("timefixer.reference", "");
+    /** When syncing, Movie.nl.srt is synced to Movie.en.srt, if that's there. */
+    public static final String TIMEFIXER_REFERENCE_LANGUAGE = Settings.getString("timefixer.reference-language", "en");
+    /** The largest offset to look for when syncing, either way, at most a day (see TimingSync). */
+    public static final long TIMEFIXER_MAX_OFFSET_MILLIS = Settings.getLong("timefixer.max-offset", 300000);
+    /** Flag to enable/disable looking for drift when syncing, from a framerate mix-up, on top of an offset. */
+    public static final boolean TIMEFIXER_FIND_DRIFT = Settings.getBoolean("timefixer.drift", true);
 
     /** The root directory containing the SRT file(s) to process. It will recursively collect items from sub dirs too. */
-    public static final String FILEFIXER_ROOT_DIR = "[path to the directory containing the files to fix]";
+    public static final String FILEFIXER_ROOT_DIR = Settings.getString("root", "[path to the directory containing the files to fix]");
     /** Oh well.. */
     public static final String SRT_EXTENSION = "srt";
+    /** Zip archives full of SRT files. */
+    public static final String ZIP_EXTENSION = "zip";
+    /** Whether to fix the SRT files inside zip archives too, without unzipping them. */
+    public static final boolean FIX_ARCHIVES = Settings.getBoolean("archives", false);
+    /** Globs (relative to the root directory) the SRT files must match, e.g. "Series/**". Empty to fix all of them. */
+    public static final List<String> FILEFIXER_INCLUDES = Settings.getList("includes");
+    /** Globs (relative to the root directory) of files and directories to skip, e.g. "Extras". */
+    public static final List<String> FILEFIXER_EXCLUDES = Settings.getList("excludes");
+    /** How deep to go into sub dirs. Files directly in the root directory are at depth 1. */
+    public static final int FILEFIXER_MAX_DEPTH = Settings.getInt("max-depth", Integer.MAX_VALUE);
+    /** Flag to enable/disable following symbolic links. Links looping back to a parent directory are always skipped. */
+    public static final boolean FILEFIXER_FOLLOW_LINKS = Settings.getBoolean("follow-links", true);
+    /** The number of files to fix at the same time. Set to 1 to fix them one by one. */
+    public static final int FILEFIXER_THREADS = Settings.getInt("threads", Runtime.getRuntime().availableProcessors());
+    /** The number of files to read ahead while others are fixed and written, see FilePrefetcher. 0 to read each file when it's up. */
+    public static final int PREFETCH_FILES = Settings.getInt("prefetch.files", 16);
+    /** The bytes the files read ahead may take, at most, their fixed versions come on top. Bigger files are streamed. */
+    public static final long PREFETCH_MAX_MEMORY = Settings.getLong("prefetch.max-memory", 64L * 1024 * 1024);
+    /** The number of threads backing up and writing the fixed files, while the next ones are fixed. At least 1. */
+    public static final int WRITE_THREADS = Settings.getInt("write-threads", 2);
+
+    /** Files with more cues than this are cut into chunks of this many cues, which are fixed in parallel. */
+    public static final int FILEFIXER_CHUNK_CUES = Settings.getInt("chunk-cues", 2048);
+    /** Flag to enable/disable repairing the order of the cues, removing duplicates and trimming overlaps, see CueRepair. */
+    public static final boolean REPAIR_CUES = Settings.getBoolean("repair", false);
+    /** How much memory the cues of a file may take while repairing, in bytes, before they're sorted on disk instead. */
+    public static final long REPAIR_MAX_MEMORY = Settings.getLong("repair.max-memory", 64L * 1024 * 1024);
+    /** When watching, how long a new or changed file must be left alone before it is fixed. */
+    public static final long WATCH_QUIET_MILLIS = Settings.getLong("watch.quiet-millis", 2000);
+
+    /** The port the FixServer listens on, on localhost only. */
+    public static final int SERVER_PORT = Settings.getInt("server.port", 8177);
+    /** The number of requests the FixServer handles at the same time. */
+    public static final int SERVER_THREADS = Settings.getInt("server.threads", Runtime.getRuntime().availableProcessors());
+    /** The largest subtitle file the FixServer accepts, in bytes. */
+    public static final int SERVER_MAX_BODY_SIZE = Settings.getInt("server.max-body-size", 16 * 1024 * 1024);
+
+    /** Flag to enable/disable skipping files that were fixed before and haven't changed since. */
+    public static final boolean USE_MANIFEST = Settings.getBoolean("manifest", true);
+    /** The name of the file in the root directory that keeps track of the files that were fixed. */
+    public static final String MANIFEST_FILE_NAME = Settings.getString("manifest.file", ".srtfixer-manifest");
+
+    /** Flag to enable/disable keeping track of a run over a dir, so a run that is killed carries on where it was next time. See BatchJob. */
+    public static final boolean USE_JOB = Settings.getBoolean("job", true);
+    /** The name of the file in the root directory that keeps track of the run. Removed when the run is done. */
+    public static final String JOB_FILE_NAME = Settings.getString("job.file", ".srtfixer-job");
+    /** The job is forced to disk after this many files, or after JOB_SYNC_MILLIS, whichever comes first. */
+    public static final int JOB_SYNC_RECORDS = Settings.getInt("job.sync-records", 256);
+    /** The job is forced to disk after this long, or after JOB_SYNC_RECORDS files, whichever comes first. */
+    public static final long JOB_SYNC_MILLIS = Settings.getLong("job.sync-millis", 1000);
 
     /** Flag to enable/disable the making of backups. */
-    public static final boolean MAKE_BACKUPS = true;
+    public static final boolean MAKE_BACKUPS = Settings.getBoolean("backups", true);
     /** In case you do not trust the code, a backup of the original SRT file is placed here. If backup is enabled. */
-    public static final String BACKUP_DIR = "[path to the directory in which backups are placed]";
+    public static final String BACKUP_DIR = Settings.getString("backup.dir", "[path to the directory in which backups are placed]");
+    /** How to store the backups: COPY, HARD_LINK (no copying, see BackupMode) or COMPRESSED. */
+    public static final BackupMode BACKUP_MODE = Settings.getEnum("backup.mode", BackupMode.COPY);
 
     /** Flag to enable/disable the removal of italic/bold/br tags. */
-    public static final boolean REMOVE_HTML_TAGS = true;
+    public static final boolean REMOVE_HTML_TAGS = Settings.getBoolean("remove-tags", true);
     /** Flag to enable/disable the change of '`' quotes to regular single quotes. And some other weird quotes too. */
-    public static final boolean CHANGE_QUOTES = true;
+    public static final boolean CHANGE_QUOTES = Settings.getBoolean("change-quotes", true);
+
+    /** How much to print while fixing: QUIET, FILES or CHANGES (every changed line, slow on big runs). */
+    public static final Verbosity VERBOSITY = Settings.getEnum("verbosity", Verbosity.FILES);
+    /** Flag to enable/disable recording every change in a journal next to the fixed files, to look at after the run. */
+    public static final boolean WRITE_JOURNAL = Settings.getBoolean("journal", false);
+    /** Flag to write the journal in a compact binary format instead of JSON Lines. */
+    public static final boolean JOURNAL_BINARY = Settings.getBoolean("journal.binary", false);
+    /** The name of the journal file, without the extension (.jsonl or .bin). Each run adds to it. */
+    public static final String JOURNAL_FILE_NAME = Settings.getString("journal.file", "srtfixer-changes");
+
+    /** Flag to enable/disable remembering how lines were fixed, so lines that repeat don't go through all rules again. */
+    public static final boolean CACHE_LINES = Settings.getBoolean("line-cache", true);
+    /** The number of fixed lines to remember, at most. */
+    public static final int LINE_CACHE_MAX_LINES = Settings.getInt("line-cache.max-lines", 100000);
+    /** The memory the remembered lines may take, at most, in bytes. */
+    public static final long LINE_CACHE_MAX_MEMORY = Settings.getLong("line-cache.max-memory", 32L * 1024 * 1024);
+    /** The file to keep the remembered lines in between runs. Empty to start with an empty cache every run. */
+    public static final String LINE_CACHE_FILE = Settings.getString("line-cache.file", "");
+
+    /** Flag to enable/disable fixing each file with the rules of its language, told by its name (Movie.nl.srt) or its words. */
+    public static final boolean USE_RULE_PACKS = Settings.getBoolean("rule-packs", true);
+    /** A dir with .rules files to use instead of the ones in the jar, or on top of them for other languages. Empty for none. */
+    public static final String RULE_PACKS_DIR = Settings.getString("rule-packs.dir", "");
+
+    /** Flag to enable/disable using a dictionary to tell real 'l' words from misread 'I' words, e.g. 'llegar'. */
+    public static final boolean USE_DICTIONARY = Settings.getBoolean("dictionary", false);
+    /** The dictionary, built from word lists with WordIndex. If the dictionary is enabled. */
+    public static final String DICTIONARY_INDEX_FILE = Settings.getString("dictionary.file", "[path to the dictionary index]");
+
+    /** Flag to enable/disable showing the metrics of a run (rule hits, lines per second etc.) through JMX. */
+    public static final boolean METRICS_JMX = Settings.getBoolean("metrics.jmx", true);
+    /** Flag to enable/disable printing a summary of the metrics at the end of a run. */
+    public static final boolean PRINT_METRICS = Settings.getBoolean("metrics.print", true);
+    /** Flag to enable/disable timing each rule. Costs a bit, so only when you're hunting for slow rules. */
+    public static final boolean TIME_RULES = Settings.getBoolean("metrics.time-rules", false);
 }
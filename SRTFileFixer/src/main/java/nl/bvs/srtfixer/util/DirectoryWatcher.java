@@ -0,0 +1,237 @@
+package nl.bvs.srtfixer.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches a dir and its sub dirs for new and changed files, and hands them over once they
+ * have been left alone for a while, so files that are still being downloaded or copied aren't
+ * picked up halfway. Sleeps while nothing happens.
+ *
+ * Which files and dirs are watched is decided by a FileFinder, the same way it would find
+ * them. Temp files (starting with 'tmp_') are ignored, and so are the given dirs, like the
+ * backup dir.
+ */
+public class DirectoryWatcher {
+    /** Called with the files that changed and have been quiet since. */
+    public interface Listener {
+        void filesReady(List<File> files);
+    }
+
+    private final File rootDir;
+    private final FileFinder fileFinder;
+    private final String[] extensions;
+    private final long quietMillis;
+    private final Set<Path> ignoredDirs = new HashSet<>();
+
+    private final Map<WatchKey, Path> watchedDirs = new HashMap<>();
+    /** The changed files that haven't been quiet long enough yet. */
+    private final Map<Path, Pending> pending = new LinkedHashMap<>();
+
+    /**
+     * @param rootDir the dir to watch
+     * @param fileFinder decides which files and dirs to watch
+     * @param extensions the extensions of the files to watch, without the dot
+     * @param quietMillis how long a file must be left alone before it is handed over
+     * @param ignoredDirs dirs to leave alone
+     */
+    public DirectoryWatcher(final File rootDir, final FileFinder fileFinder, final String[] extensions,
+                            final long quietMillis, final Collection<File> ignoredDirs) {
+        this.rootDir = rootDir.getAbsoluteFile();
+        this.fileFinder = fileFinder;
+        this.extensions = extensions;
+        this.quietMillis = quietMillis;
+        for (final File ignoredDir : ignoredDirs) {
+            this.ignoredDirs.add(ignoredDir.toPath().toAbsolutePath().normalize());
+        }
+    }
+
+    /**
+     * Watches until the thread is interrupted.
+     *
+     * @param listener gets the files that are ready, on this thread
+     * @throws IOException if the root dir can't be watched
+     */
+    public void watch(final Listener listener) throws IOException {
+        try (WatchService watchService = rootDir.toPath().getFileSystem().newWatchService()) {
+            register(watchService, rootDir.toPath(), false);
+
+            while (!Thread.currentThread().isInterrupted()) {
+                // nothing going on, so sleep until something happens
+                WatchKey key = pending.isEmpty() ? watchService.take()
+                        : watchService.poll(timeUntilNextCheck(), TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    if (handleEvents(watchService, key)) {
+                        // missed some events, so look at everything
+                        listener.filesReady(fileFinder.collect(rootDir, extensions));
+                    }
+                    key = watchService.poll();
+                }
+
+                final List<File> ready = takeReadyFiles();
+                if (!ready.isEmpty()) {
+                    listener.filesReady(ready);
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final ClosedWatchServiceException e) {
+            // closed from somewhere else, done watching
+        }
+    }
+
+    /**
+     * @return true if events were lost
+     */
+    private boolean handleEvents(final WatchService watchService, final WatchKey key) {
+        final Path dir = watchedDirs.get(key);
+        boolean overflow = false;
+
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            if (dir == null) {
+                continue;
+            }
+
+            final Path path = dir.resolve((Path) event.context());
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+                // files may have been put in before it was registered
+                register(watchService, path, true);
+            } else if (event.kind() != ENTRY_DELETE) {
+                changed(path);
+            }
+        }
+
+        if (!key.reset()) {
+            // the dir is gone
+            watchedDirs.remove(key);
+        }
+        return overflow;
+    }
+
+    /**
+     * Registers the dir and its sub dirs.
+     *
+     * @param existingFilesChanged whether the files already in there count as changed
+     */
+    private void register(final WatchService watchService, final Path dir, final boolean existingFilesChanged) {
+        final Set<FileVisitOption> options = Constants.FILEFIXER_FOLLOW_LINKS
+                ? EnumSet.of(FileVisitOption.FOLLOW_LINKS) : EnumSet.noneOf(FileVisitOption.class);
+        try {
+            Files.walkFileTree(dir, options, Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(final Path subDir, final BasicFileAttributes attributes) throws IOException {
+                    if (ignoredDirs.contains(subDir.toAbsolutePath().normalize()) || fileFinder.isSkipped(rootDir, subDir.toFile())) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    watchedDirs.put(subDir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), subDir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes) {
+                    if (existingFilesChanged) {
+                        changed(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+                    // gone already, or a link looping back
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (final IOException e) {
+            System.err.println("Could not watch directory :: " + dir);
+            e.printStackTrace();
+        }
+    }
+
+    private void changed(final Path path) {
+        if (path.getFileName().toString().startsWith("tmp_") || !fileFinder.matches(rootDir, path.toFile(), extensions)) {
+            return;
+        }
+
+        final Pending current = pending.get(path);
+        if (current != null) {
+            // still busy, wait a bit longer
+            current.due = System.currentTimeMillis() + quietMillis;
+        } else {
+            pending.put(path, new Pending(System.currentTimeMillis() + quietMillis, stateOf(path)));
+        }
+    }
+
+    /**
+     * Takes the files that have been quiet long enough and haven't changed since they were last looked at.
+     */
+    private List<File> takeReadyFiles() {
+        final List<File> ready = new ArrayList<>();
+        final long now = System.currentTimeMillis();
+
+        final Iterator<Map.Entry<Path, Pending>> entries = pending.entrySet().iterator();
+        while (entries.hasNext()) {
+            final Map.Entry<Path, Pending> entry = entries.next();
+            final Pending file = entry.getValue();
+            if (file.due > now) {
+                continue;
+            }
+
+            final String state = stateOf(entry.getKey());
+            if (state == null) {
+                // deleted or moved away
+                entries.remove();
+            } else if (state.equals(file.state)) {
+                ready.add(entry.getKey().toFile());
+                entries.remove();
+            } else {
+                // changed without an event reaching us yet, give it another round
+                file.state = state;
+                file.due = now + quietMillis;
+            }
+        }
+        return ready;
+    }
+
+    private long timeUntilNextCheck() {
+        long due = Long.MAX_VALUE;
+        for (final Pending file : pending.values()) {
+            due = Math.min(due, file.due);
+        }
+        return Math.max(1L, due - System.currentTimeMillis());
+    }
+
+    /**
+     * The size and last modified time of the file, null if it's gone.
+     */
+    private static String stateOf(final Path path) {
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return attributes.size() + ":" + attributes.lastModifiedTime().toMillis();
+        } catch (final IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A changed file, waiting to be quiet long enough.
+     */
+    private static final class Pending {
+        private long due;
+        private String state;
+
+        Pending(final long due, final String state) {
+            this.due = due;
+            this.state = state;
+        }
+    }
+}
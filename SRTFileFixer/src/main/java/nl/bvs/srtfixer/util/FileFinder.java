@@ -1,36 +1,392 @@
 package nl.bvs.srtfixer.util;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
+/**
+ * Finds files with certain extensions in a directory and its sub dirs. The files
+ * are found lazily, one directory at a time, so there is no need to wait for a huge
+ * tree to be scanned before the first file can be processed.
+ *
+ * Since the files are fixed while the walk goes on, the temp files of their rewrites
+ * (starting with 'tmp_') turn up in the dirs being walked. Those are never found,
+ * except by walkWithTempFiles.
+ */
 public class FileFinder {
-    public List<File> collect(final File dir, final String extension) {
-        return find(dir, extension);
+    /** The temp files the fixed files are written to before they replace the originals. */
+    public static final String TMP_PREFIX = "tmp_";
+    private static final LinkOption[] FOLLOW_LINKS = {};
+    private static final LinkOption[] NO_FOLLOW_LINKS = {LinkOption.NOFOLLOW_LINKS};
+
+    /** Globs a file path (relative to the root dir) must match one of. No globs means everything matches. */
+    private final List<String> includes;
+    /** Globs for file and directory paths (relative to the root dir) to skip. */
+    private final List<String> excludes;
+    /** How many directories deep to go. Files directly in the root dir are at depth 1. */
+    private final int maxDepth;
+    /** Whether to follow symbolic links. Links that loop back to a parent dir are skipped. */
+    private final boolean followLinks;
+
+    /**
+     * A finder that finds everything, however deep, and follows links.
+     */
+    public FileFinder() {
+        this(Collections.<String>emptyList(), Collections.<String>emptyList(), Integer.MAX_VALUE, true);
     }
 
-    private List<File> find(final File dir, final String extension) {
-        final File[] list = dir.listFiles();
+    public FileFinder(final List<String> includes, final List<String> excludes, final int maxDepth, final boolean followLinks) {
+        this.includes = includes;
+        this.excludes = excludes;
+        this.maxDepth = maxDepth;
+        this.followLinks = followLinks;
+    }
 
-        if (list == null) {
-            return Collections.emptyList();
+    /**
+     * Collects all matching files in a list. Only use this if you really need all of them up front, see walk.
+     */
+    public List<File> collect(final File dir, final String... extensions) {
+        final List<File> files = new ArrayList<>();
+        try (Walk walk = walk(dir, extensions)) {
+            for (final File file : walk) {
+                files.add(file);
+            }
         }
+        return files;
+    }
 
-        final List<File> files = new ArrayList<>();
+    /**
+     * Lazily walks the given dir. Every iterator starts a new walk. Close the walk when done with it,
+     * to close the dirs of walks that didn't get to the end.
+     *
+     * @param dir the dir to search
+     * @param extensions the extensions of the files to find, without the dot
+     * @return the matching files, found as they are iterated over
+     */
+    public Walk walk(final File dir, final String... extensions) {
+        return new Walk(dir.toPath(), extensions, false);
+    }
+
+    /**
+     * Lazily walks the given dir like walk, finding the temp files of rewrites as well, to clean up
+     * after a run that was killed (see BatchJob).
+     *
+     * @param dir the dir to search
+     * @param extensions the extensions of the files to find, without the dot
+     * @return the matching files and temp files, found as they are iterated over
+     */
+    public Walk walkWithTempFiles(final File dir, final String... extensions) {
+        return new Walk(dir.toPath(), extensions, true);
+    }
+
+    /**
+     * Checks whether a single file would be found by walking the given dir, without walking it.
+     * Links are not checked.
+     *
+     * @param dir the dir that is searched
+     * @param file the file to check, somewhere in the dir
+     * @param extensions the extensions of the files to find, without the dot
+     * @return true if the file would be found
+     */
+    public boolean matches(final File dir, final File file, final String... extensions) {
+        final Path root = dir.toPath().toAbsolutePath();
+        final Path path = file.toPath().toAbsolutePath();
+        if (!path.startsWith(root) || path.equals(root)) {
+            return false;
+        }
+
+        final Path relativePath = root.relativize(path);
+        if (relativePath.getNameCount() > maxDepth || !hasExtension(path, extensions) || isTempFile(path)) {
+            return false;
+        }
+
+        final FileSystem fileSystem = root.getFileSystem();
+        if (isExcluded(toMatchers(fileSystem, excludes), relativePath)) {
+            return false;
+        }
+        final List<PathMatcher> includeMatchers = toMatchers(fileSystem, includes);
+        return includeMatchers.isEmpty() || matchesAny(includeMatchers, relativePath);
+    }
+
+    /**
+     * Checks whether a dir would be skipped while walking the given dir.
+     *
+     * @param dir the dir that is searched
+     * @param subDir the dir to check, somewhere in the dir
+     * @return true if it is excluded, or too deep
+     */
+    public boolean isSkipped(final File dir, final File subDir) {
+        final Path root = dir.toPath().toAbsolutePath();
+        final Path relativePath = root.relativize(subDir.toPath().toAbsolutePath());
+        if (relativePath.toString().isEmpty()) {
+            return false;
+        }
+        return relativePath.getNameCount() >= maxDepth || isExcluded(toMatchers(root.getFileSystem(), excludes), relativePath);
+    }
+
+    /**
+     * Whether the path, or one of the dirs it is in, is excluded.
+     */
+    private static boolean isExcluded(final List<PathMatcher> excludeMatchers, final Path relativePath) {
+        for (int i = 1; i <= relativePath.getNameCount(); i++) {
+            if (matchesAny(excludeMatchers, relativePath.subpath(0, i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isTempFile(final Path path) {
+        return path.getFileName().toString().startsWith(TMP_PREFIX);
+    }
+
+    private static boolean hasExtension(final Path path, final String[] extensions) {
+        // assume no files without extension exist
+        final String name = path.getFileName().toString();
+        final String extension = name.substring(name.lastIndexOf('.') + 1);
+        for (final String wanted : extensions) {
+            if (wanted.equalsIgnoreCase(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<PathMatcher> toMatchers(final FileSystem fileSystem, final List<String> globs) {
+        final List<PathMatcher> matchers = new ArrayList<>();
+        for (final String glob : globs) {
+            matchers.add(fileSystem.getPathMatcher("glob:" + glob));
+        }
+        return matchers;
+    }
+
+    private static boolean matchesAny(final List<PathMatcher> matchers, final Path path) {
+        for (final PathMatcher matcher : matchers) {
+            if (matcher.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The walks over a dir, one for each of its iterators.
+     */
+    public final class Walk implements Iterable<File>, Closeable {
+        private final Path root;
+        private final String[] extensions;
+        private final boolean tempFiles;
+        private final List<PathMatcher> includeMatchers;
+        private final List<PathMatcher> excludeMatchers;
+        private final List<Walker> walkers = new ArrayList<>();
 
-        for (final File f : list) {
-            if (f.isDirectory()) {
-                files.addAll(find(f, extension));
-            } else {
-                // assume no files without extension exist
-                final String fileExtension = f.getName().substring(f.getName().lastIndexOf('.') + 1);
-                if (extension.equalsIgnoreCase(fileExtension)) {
-                    files.add(f);
+        Walk(final Path root, final String[] extensions, final boolean tempFiles) {
+            this.root = root;
+            this.extensions = extensions;
+            this.tempFiles = tempFiles;
+            final FileSystem fileSystem = root.getFileSystem();
+            this.includeMatchers = toMatchers(fileSystem, includes);
+            this.excludeMatchers = toMatchers(fileSystem, excludes);
+        }
+
+        @Override
+        public synchronized Iterator<File> iterator() {
+            final Walker walker = new Walker(root, extensions, tempFiles, includeMatchers, excludeMatchers);
+            walkers.add(walker);
+            return walker;
+        }
+
+        /**
+         * Closes the dirs that are still open, of walks that were given up on halfway. They find nothing more.
+         */
+        @Override
+        public synchronized void close() {
+            for (final Walker walker : walkers) {
+                walker.close();
+            }
+            walkers.clear();
+        }
+    }
+
+    /**
+     * Depth first walk with one open DirectoryStream per level.
+     */
+    private final class Walker implements Iterator<File> {
+        private final Path root;
+        private final String[] extensions;
+        private final boolean tempFiles;
+        private final List<PathMatcher> includeMatchers;
+        private final List<PathMatcher> excludeMatchers;
+        private final LinkOption[] linkOptions;
+
+        private final Deque<Level> levels = new ArrayDeque<>();
+        /** Keys of the dirs currently being walked, to detect links looping back to them. */
+        private final Set<Object> openDirs = new HashSet<>();
+
+        private File next;
+
+        Walker(final Path root, final String[] extensions, final boolean tempFiles, final List<PathMatcher> includeMatchers,
+               final List<PathMatcher> excludeMatchers) {
+            this.root = root;
+            this.extensions = extensions;
+            this.tempFiles = tempFiles;
+            this.includeMatchers = includeMatchers;
+            this.excludeMatchers = excludeMatchers;
+            this.linkOptions = followLinks ? FOLLOW_LINKS : NO_FOLLOW_LINKS;
+
+            if (maxDepth > 0) {
+                open(root, 1);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                next = findNext();
+            }
+            return next != null;
+        }
+
+        @Override
+        public File next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final File result = next;
+            next = null;
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Closes all levels, so this walk finds nothing more.
+         */
+        void close() {
+            while (!levels.isEmpty()) {
+                close(levels.pop());
+            }
+            next = null;
+        }
+
+        private File findNext() {
+            while (!levels.isEmpty()) {
+                final Level level = levels.peek();
+
+                final Path path;
+                try {
+                    if (!level.entries.hasNext()) {
+                        close(levels.pop());
+                        continue;
+                    }
+                    path = level.entries.next();
+                } catch (final DirectoryIteratorException e) {
+                    // stuff may go wrong sometimes - e.g. a share going away - skip the rest of this dir
+                    e.printStackTrace();
+                    close(levels.pop());
+                    continue;
+                }
+
+                final BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(path, BasicFileAttributes.class, linkOptions);
+                } catch (final IOException e) {
+                    // dangling link or the file is gone already, nothing to fix there
+                    continue;
+                }
+
+                final Path relativePath = root.relativize(path);
+                if (matchesAny(excludeMatchers, relativePath)) {
+                    continue;
+                }
+
+                if (attributes.isDirectory()) {
+                    if (level.depth < maxDepth) {
+                        open(path, level.depth + 1);
+                    }
+                } else if (attributes.isRegularFile() && hasExtension(path, extensions) && (tempFiles || !isTempFile(path))
+                        && (includeMatchers.isEmpty() || matchesAny(includeMatchers, relativePath))) {
+                    return path.toFile();
                 }
             }
+            return null;
         }
 
-        return files;
+        private void open(final Path dir, final int depth) {
+            final Object key = getKey(dir);
+            if (key == null || !openDirs.add(key)) {
+                // been here before, this is a link looping back
+                return;
+            }
+
+            try {
+                final DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+                levels.push(new Level(stream, key, depth));
+            } catch (final IOException e) {
+                // locked, gone, no permission - tough luck
+                openDirs.remove(key);
+                System.err.println("Could not read directory :: " + dir);
+            }
+        }
+
+        private void close(final Level level) {
+            openDirs.remove(level.key);
+            try {
+                level.stream.close();
+            } catch (final IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * Something that identifies a dir, even when reached through a link.
+         */
+        private Object getKey(final Path dir) {
+            try {
+                final Object fileKey = Files.readAttributes(dir, BasicFileAttributes.class).fileKey();
+                return fileKey != null ? fileKey : dir.toRealPath();
+            } catch (final IOException e) {
+                System.err.println("Could not read directory :: " + dir);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * A dir that is being walked.
+     */
+    private static final class Level {
+        private final DirectoryStream<Path> stream;
+        private final Iterator<Path> entries;
+        private final Object key;
+        /** The depth of the entries in this dir. */
+        private final int depth;
+
+        Level(final DirectoryStream<Path> stream, final Object key, final int depth) {
+            this.stream = stream;
+            this.entries = stream.iterator();
+            this.key = key;
+            this.depth = depth;
+        }
     }
 }
@@ -0,0 +1,192 @@
+package nl.bvs.srtfixer.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads files ahead, while the ones read before are fixed and written. On a NAS most of the time of
+ * a file is spent waiting for its bytes, so a couple of reads are kept going in the background, with
+ * AsynchronousFileChannel, instead of one at a time when the file is up.
+ *
+ * A file keeps its room until it's released, after it's written, so there are never more than the
+ * given number of files, or bytes, in memory: read blocks until there is room. When the fixing or the
+ * writing can't keep up, the reading waits for them, and the other way round. Files that don't fit at
+ * all are not read ahead, they should be streamed instead (see read).
+ *
+ * Safe to use from multiple threads.
+ */
+public final class FilePrefetcher {
+    /** The biggest array there is, give or take. */
+    private static final long MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+    private final int maxFiles;
+    private final long maxBytes;
+    private int files;
+    private long bytes;
+
+    /**
+     * @param maxFiles the number of files in memory, at most
+     * @param maxBytes the bytes of the files in memory, at most
+     */
+    public FilePrefetcher(final int maxFiles, final long maxBytes) {
+        this.maxFiles = Math.max(1, maxFiles);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Starts reading a file, once there's room for it. The listener is called from a thread of the
+     * channels when the file is read, and should hand it on quickly. A file that is shorter than it
+     * was when the read started is not read, someone's busy with it.
+     *
+     * @param file the file to read
+     * @param listener the listener to hand the file to
+     * @return false if the file is bigger than the max bytes, and isn't read
+     * @throws InterruptedException when interrupted while waiting for room
+     */
+    public boolean read(final File file, final Listener listener) throws InterruptedException {
+        final long size = file.length();
+        if (size > maxBytes || size > MAX_ARRAY_LENGTH) {
+            return false;
+        }
+        reserve(size);
+
+        final Prefetched prefetched = new Prefetched(file, size, file.lastModified());
+        final AsynchronousFileChannel channel;
+        final ByteBuffer buffer;
+        try {
+            channel = AsynchronousFileChannel.open(file.toPath(), StandardOpenOption.READ);
+            buffer = ByteBuffer.allocate((int) size);
+        } catch (final IOException | RuntimeException e) {
+            listener.readFailed(prefetched, e);
+            return true;
+        }
+
+        channel.read(buffer, 0, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(final Integer read, final Void nothing) {
+                if (read >= 0 && buffer.hasRemaining()) {
+                    channel.read(buffer, buffer.position(), null, this);
+                    return;
+                }
+                close(channel);
+
+                if (buffer.hasRemaining()) {
+                    listener.readFailed(prefetched, new IOException("Shorter than it was a moment ago, someone's busy with it :: "
+                            + file.getPath()));
+                    return;
+                }
+                prefetched.bytes = buffer.array();
+                listener.fileRead(prefetched);
+            }
+
+            @Override
+            public void failed(final Throwable e, final Void nothing) {
+                close(channel);
+                listener.readFailed(prefetched, e);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Frees the room of a file, once it's done with.
+     */
+    public synchronized void release(final Prefetched prefetched) {
+        if (prefetched.released) {
+            return;
+        }
+        prefetched.released = true;
+        files--;
+        bytes -= prefetched.reserved;
+        notifyAll();
+    }
+
+    /**
+     * Waits until all files are released. Keeps waiting when interrupted, the files are halfway
+     * through, but lets the caller know.
+     */
+    public synchronized void awaitIdle() {
+        boolean interrupted = false;
+        while (files > 0) {
+            try {
+                wait();
+            } catch (final InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void reserve(final long size) throws InterruptedException {
+        while (files >= maxFiles || bytes + size > maxBytes) {
+            wait();
+        }
+        files++;
+        bytes += size;
+    }
+
+    private static void close(final AsynchronousFileChannel channel) {
+        try {
+            channel.close();
+        } catch (final IOException e) {
+            // read it already, no biggie
+        }
+    }
+
+    /**
+     * Gets the files that were read.
+     */
+    public interface Listener {
+        /**
+         * @param prefetched the file and its bytes
+         */
+        void fileRead(Prefetched prefetched);
+
+        /**
+         * @param prefetched the file, without bytes
+         * @param e what went wrong
+         */
+        void readFailed(Prefetched prefetched, Throwable e);
+    }
+
+    /**
+     * A file that was read ahead.
+     */
+    public static final class Prefetched {
+        private final File file;
+        private final long reserved;
+        private final long lastModified;
+        private byte[] bytes;
+        private boolean released;
+
+        Prefetched(final File file, final long reserved, final long lastModified) {
+            this.file = file;
+            this.reserved = reserved;
+            this.lastModified = lastModified;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * @return the contents of the file, null if it couldn't be read
+         */
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return true if the file was changed by someone else since it was read
+         */
+        public boolean isStale() {
+            return file.lastModified() != lastModified || file.length() != reserved;
+        }
+    }
+}
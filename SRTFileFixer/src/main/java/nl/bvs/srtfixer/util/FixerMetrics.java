@@ -0,0 +1,438 @@
+package nl.bvs.srtfixer.util;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts what the fixers do: how often each rule fires (and optionally how long it takes),
+ * how many lines and bytes go through, how long each file takes and how much time goes to
+ * backing up and replacing files. One instance for the whole run, shown through JMX and
+ * printed as a summary at the end.
+ *
+ * The rules fire way too often to update shared counters for each hit, so each thread counts
+ * them in its own RuleCounters, which are added to the totals once a file is done.
+ */
+public final class FixerMetrics implements FixerMetricsMBean {
+    /** The name the metrics are registered under in JMX. */
+    public static final String OBJECT_NAME = "nl.bvs.srtfixer:type=FixerMetrics";
+
+    /** Latencies are kept in buckets of powers of two microseconds, the last one catches everything above. */
+    private static final int LATENCY_BUCKETS = 40;
+
+    /**
+     * The rules of the SrtFileFixer, as far as they are worth counting. When timed, the time of
+     * a step is booked on its main rule, e.g. WORD_START also holds the time of LOWER_CASE_I.
+     */
+    public enum Rule {
+        NUL_CHARACTER,
+        HTML_TAG,
+        CAPS_ONLY_LINE,
+        QUOTE,
+        CAPSED_I,
+        LINE_START,
+        LONE_L,
+        WORD_START,
+        IGNORED_WORD,
+        LONE_L_PUNCTUATION,
+        LOWER_CASE_I,
+        DASHED_WORD,
+        MISTAKE,
+        DICTIONARY_WORD
+    }
+
+    private static final Rule[] RULES = Rule.values();
+    /** Made after the rules, it needs them. */
+    private static final FixerMetrics INSTANCE = new FixerMetrics();
+
+    private final ThreadLocal<RuleCounters> ruleCounters = new ThreadLocal<RuleCounters>() {
+        @Override
+        protected RuleCounters initialValue() {
+            return new RuleCounters();
+        }
+    };
+
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong failedFiles = new AtomicLong();
+    private final AtomicLong changedFiles = new AtomicLong();
+    private final AtomicLong lines = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong backupNanos = new AtomicLong();
+    private final AtomicLong replaceNanos = new AtomicLong();
+    private final AtomicLongArray fileLatencies = new AtomicLongArray(LATENCY_BUCKETS);
+    private final AtomicLong maxFileNanos = new AtomicLong();
+    private final AtomicLongArray ruleHits = new AtomicLongArray(RULES.length);
+    private final AtomicLongArray ruleNanos = new AtomicLongArray(RULES.length);
+    private final AtomicLong cachedLines = new AtomicLong();
+    private final AtomicLong uncachedLines = new AtomicLong();
+
+    private boolean registered;
+
+    private FixerMetrics() {
+        // one for the whole run
+    }
+
+    public static FixerMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, once. Failing to do so is not worth
+     * stopping for.
+     */
+    public synchronized void register() {
+        if (registered) {
+            return;
+        }
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(this, new ObjectName(OBJECT_NAME));
+            registered = true;
+        } catch (final JMException e) {
+            System.err.println("Failed to register the metrics with JMX :: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the rule counters of the current thread
+     */
+    public RuleCounters getRuleCounters() {
+        return ruleCounters.get();
+    }
+
+    /**
+     * Adds the rule counters of the current thread to the totals, and starts them over.
+     */
+    public void flushRuleCounters() {
+        final RuleCounters counters = ruleCounters.get();
+        for (int i = 0; i < RULES.length; i++) {
+            if (counters.hits[i] != 0) {
+                ruleHits.addAndGet(i, counters.hits[i]);
+                counters.hits[i] = 0;
+            }
+            if (counters.nanos[i] != 0) {
+                ruleNanos.addAndGet(i, counters.nanos[i]);
+                counters.nanos[i] = 0;
+            }
+        }
+        if (counters.cacheHits != 0 || counters.cacheMisses != 0) {
+            cachedLines.addAndGet(counters.cacheHits);
+            uncachedLines.addAndGet(counters.cacheMisses);
+            counters.cacheHits = 0;
+            counters.cacheMisses = 0;
+        }
+    }
+
+    /**
+     * Records a file that was fixed.
+     *
+     * @param lineCount the number of lines read
+     * @param byteCount the size of the original file
+     * @param nanos how long it took to fix it, from opening it to replacing it
+     */
+    public void recordFile(final long lineCount, final long byteCount, final long nanos) {
+        files.incrementAndGet();
+        lines.addAndGet(lineCount);
+        bytes.addAndGet(byteCount);
+        fileLatencies.incrementAndGet(bucket(nanos));
+
+        long max = maxFileNanos.get();
+        while (nanos > max && !maxFileNanos.compareAndSet(max, nanos)) {
+            max = maxFileNanos.get();
+        }
+    }
+
+    public void recordFailure() {
+        failedFiles.incrementAndGet();
+    }
+
+    /**
+     * Counts a file that was changed by fixing it, or would be when only checking.
+     */
+    public void recordChanged() {
+        changedFiles.incrementAndGet();
+    }
+
+    public void recordBackup(final long nanos) {
+        backupNanos.addAndGet(nanos);
+    }
+
+    /**
+     * @param nanos the time spent forcing the fixed file to disk and moving it over the original
+     */
+    public void recordReplace(final long nanos) {
+        replaceNanos.addAndGet(nanos);
+    }
+
+    @Override
+    public long getFiles() {
+        return files.get();
+    }
+
+    @Override
+    public long getFailedFiles() {
+        return failedFiles.get();
+    }
+
+    @Override
+    public long getChangedFiles() {
+        return changedFiles.get();
+    }
+
+    @Override
+    public long getLines() {
+        return lines.get();
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    @Override
+    public double getLinesPerSecond() {
+        return perSecond(lines.get());
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        return perSecond(bytes.get());
+    }
+
+    @Override
+    public long getMedianFileMicros() {
+        return getFilePercentileMicros(0.5);
+    }
+
+    @Override
+    public long getSlowestPercentileFileMicros() {
+        return getFilePercentileMicros(0.99);
+    }
+
+    @Override
+    public long getMaxFileMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxFileNanos.get());
+    }
+
+    /**
+     * The time it took to fix a file, below which the given fraction of files were fixed.
+     * Rounded up to a power of two microseconds, that's as precise as the buckets get.
+     *
+     * @param fraction the fraction of files, e.g. 0.99
+     * @return the time in microseconds, 0 if no files were fixed yet
+     */
+    public long getFilePercentileMicros(final double fraction) {
+        long total = 0;
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            total += fileLatencies.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        final long wanted = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            seen += fileLatencies.get(i);
+            if (seen >= wanted) {
+                return i == LATENCY_BUCKETS - 1 ? getMaxFileMicros() : Math.min(1L << (i + 1), getMaxFileMicros());
+            }
+        }
+        return getMaxFileMicros();
+    }
+
+    @Override
+    public long getBackupMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(backupNanos.get());
+    }
+
+    @Override
+    public long getReplaceMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(replaceNanos.get());
+    }
+
+    @Override
+    public String[] getRuleNames() {
+        final String[] names = new String[RULES.length];
+        for (int i = 0; i < RULES.length; i++) {
+            names[i] = RULES[i].name();
+        }
+        return names;
+    }
+
+    @Override
+    public long[] getRuleHits() {
+        final long[] hits = new long[RULES.length];
+        for (int i = 0; i < RULES.length; i++) {
+            hits[i] = ruleHits.get(i);
+        }
+        return hits;
+    }
+
+    @Override
+    public long[] getRuleMillis() {
+        final long[] millis = new long[RULES.length];
+        for (int i = 0; i < RULES.length; i++) {
+            millis[i] = TimeUnit.NANOSECONDS.toMillis(ruleNanos.get(i));
+        }
+        return millis;
+    }
+
+    @Override
+    public long getCachedLines() {
+        return cachedLines.get();
+    }
+
+    @Override
+    public double getLineCacheHitRate() {
+        final long cached = cachedLines.get();
+        final long total = cached + uncachedLines.get();
+        return total > 0 ? cached / (double) total : 0;
+    }
+
+    @Override
+    public String getSummary() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("Fixed ").append(getFiles()).append(" files (").append(getChangedFiles()).append(" changed, ")
+                .append(getFailedFiles()).append(" failed), ")
+                .append(getLines()).append(" lines, ").append(getBytes()).append(" bytes")
+                .append(System.lineSeparator());
+        builder.append(String.format(Locale.ROOT, "  %.0f lines/s, %.0f bytes/s", getLinesPerSecond(), getBytesPerSecond()))
+                .append(System.lineSeparator());
+        builder.append("  Per file :: median <= ").append(getMedianFileMicros()).append(" us, 99% <= ")
+                .append(getSlowestPercentileFileMicros()).append(" us, max ").append(getMaxFileMicros()).append(" us")
+                .append(System.lineSeparator());
+        builder.append("  Backups took ").append(getBackupMillis()).append(" ms, replacing files took ")
+                .append(getReplaceMillis()).append(" ms").append(System.lineSeparator());
+        if (getCachedLines() + uncachedLines.get() > 0) {
+            builder.append(String.format(Locale.ROOT, "  %d lines from the line cache, a hit rate of %.1f%%",
+                    getCachedLines(), getLineCacheHitRate() * 100)).append(System.lineSeparator());
+        }
+
+        final long[] hits = getRuleHits();
+        final long[] millis = getRuleMillis();
+        for (int i = 0; i < RULES.length; i++) {
+            builder.append(String.format(Locale.ROOT, "  %-20s %12d hits", RULES[i].name(), hits[i]));
+            if (Constants.TIME_RULES) {
+                builder.append(String.format(Locale.ROOT, " %10d ms", millis[i]));
+            }
+            if (hits[i] == 0) {
+                builder.append("  (never fired)");
+            }
+            builder.append(System.lineSeparator());
+        }
+        return builder.toString();
+    }
+
+    private double perSecond(final long count) {
+        final long elapsed = System.nanoTime() - startNanos;
+        return elapsed > 0 ? count * (double) TimeUnit.SECONDS.toNanos(1) / elapsed : 0;
+    }
+
+    private static int bucket(final long nanos) {
+        final long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        final int bucket = 63 - Long.numberOfLeadingZeros(Math.max(1L, micros));
+        return Math.min(bucket, LATENCY_BUCKETS - 1);
+    }
+
+    /**
+     * The rule counts of a single thread. Not thread safe, and doesn't need to be.
+     * Also keeps track of which rules fired since clearFired, for the change journal.
+     */
+    public static final class RuleCounters {
+        private final long[] hits = new long[RULES.length];
+        private final long[] nanos = new long[RULES.length];
+        /** The hits at the last mark. */
+        private final long[] marked = new long[RULES.length];
+        private int fired;
+        private long cacheHits;
+        private long cacheMisses;
+
+        public void hit(final Rule rule) {
+            hits[rule.ordinal()]++;
+            fired |= 1 << rule.ordinal();
+        }
+
+        public void hit(final Rule rule, final int count) {
+            if (count > 0) {
+                hits[rule.ordinal()] += count;
+                fired |= 1 << rule.ordinal();
+            }
+        }
+
+        /**
+         * @return the rules that fired since the last clearFired, a bit for each rule by ordinal
+         */
+        public int getFired() {
+            return fired;
+        }
+
+        public void clearFired() {
+            fired = 0;
+        }
+
+        public void time(final Rule rule, final long elapsedNanos) {
+            nanos[rule.ordinal()] += elapsedNanos;
+        }
+
+        /**
+         * Remembers the hits so far, to see which rules fire on a single line.
+         */
+        public void mark() {
+            System.arraycopy(hits, 0, marked, 0, hits.length);
+        }
+
+        /**
+         * @return the rules that fired since the last mark and how often, as ordinal << 24 | count.
+         * Null if none fired. For the LineCache.
+         */
+        public int[] getHitsSinceMark() {
+            int count = 0;
+            for (int i = 0; i < hits.length; i++) {
+                if (hits[i] != marked[i]) {
+                    count++;
+                }
+            }
+            if (count == 0) {
+                return null;
+            }
+
+            final int[] since = new int[count];
+            count = 0;
+            for (int i = 0; i < hits.length; i++) {
+                if (hits[i] != marked[i]) {
+                    since[count++] = i << 24 | (int) Math.min(hits[i] - marked[i], 0xFFFFFF);
+                }
+            }
+            return since;
+        }
+
+        /**
+         * Counts the hits of a line that came from the LineCache as if the rules fired again.
+         *
+         * @param since the hits, as given by getHitsSinceMark
+         */
+        public void replay(final int[] since) {
+            cacheHits++;
+            if (since == null) {
+                return;
+            }
+            for (final int hit : since) {
+                hit(RULES[hit >>> 24], hit & 0xFFFFFF);
+            }
+        }
+
+        /**
+         * Counts a line that wasn't in the LineCache.
+         */
+        public void cacheMiss() {
+            cacheMisses++;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package nl.bvs.srtfixer.util;
+
+/**
+ * What the FixerMetrics show in JConsole, VisualVM and the like.
+ */
+public interface FixerMetricsMBean {
+    long getFiles();
+
+    long getFailedFiles();
+
+    long getChangedFiles();
+
+    long getLines();
+
+    long getBytes();
+
+    double getLinesPerSecond();
+
+    double getBytesPerSecond();
+
+    long getMedianFileMicros();
+
+    long getSlowestPercentileFileMicros();
+
+    long getMaxFileMicros();
+
+    long getBackupMillis();
+
+    long getReplaceMillis();
+
+    String[] getRuleNames();
+
+    long[] getRuleHits();
+
+    long[] getRuleMillis();
+
+    long getCachedLines();
+
+    double getLineCacheHitRate();
+
+    String getSummary();
+}
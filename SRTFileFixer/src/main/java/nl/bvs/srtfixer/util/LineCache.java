@@ -0,0 +1,279 @@
+package nl.bvs.srtfixer.util;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Remembers how lines were fixed, since subtitles say the same things over and over: '[MUSIC]',
+ * '- What?', 'l don't know.', in every episode of a season. A line that was fixed before is looked
+ * up instead of going through all the rules again.
+ *
+ * Split into stripes, each an LRU map with its own lock, so the threads fixing files don't wait
+ * for each other much. Each stripe gets its share of the number of lines and the memory the cache
+ * may take, and drops the lines that weren't used for the longest time when it's full. Long lines
+ * hardly ever repeat, they aren't kept.
+ *
+ * A cache is only valid for one version of the rules. When saved to a file, it's only loaded again
+ * for the same version.
+ *
+ * Safe to use from multiple threads.
+ */
+public final class LineCache {
+    /** 'SRTL', for lines, so neither a journal nor some random file is read as a cache. */
+    private static final int MAGIC = 0x5352544C;
+    /** Bump this when changing the file format. Old caches are then simply ignored. */
+    private static final int FORMAT_VERSION = 1;
+    /** Lines longer than this aren't kept. */
+    private static final int MAX_LINE_LENGTH = 200;
+    /** What an entry costs besides its chars, roughly: the map entry, the Entry and two String headers. */
+    private static final int ENTRY_BYTES = 128;
+
+    private final int rulesVersion;
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final int maxLinesPerStripe;
+    private final long maxBytesPerStripe;
+
+    /**
+     * @param rulesVersion the version of the rules the lines are fixed with
+     * @param maxLines the number of lines to keep, at most
+     * @param maxMemoryBytes the memory the lines may take, at most, roughly
+     */
+    public LineCache(final int rulesVersion, final int maxLines, final long maxMemoryBytes) {
+        // a few stripes per core keeps the locks free most of the time
+        this(rulesVersion, maxLines, maxMemoryBytes,
+                Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 4 - 1)) * 2);
+    }
+
+    /**
+     * @param rulesVersion the version of the rules the lines are fixed with
+     * @param maxLines the number of lines to keep, at most
+     * @param maxMemoryBytes the memory the lines may take, at most, roughly
+     * @param stripeCount the number of stripes, a power of two
+     */
+    LineCache(final int rulesVersion, final int maxLines, final long maxMemoryBytes, final int stripeCount) {
+        this.rulesVersion = rulesVersion;
+
+        stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+        stripeMask = stripeCount - 1;
+        maxLinesPerStripe = Math.max(1, maxLines / stripeCount);
+        maxBytesPerStripe = Math.max(1, maxMemoryBytes / stripeCount);
+    }
+
+    /**
+     * @param line the line as it was before fixing
+     * @return how it was fixed, null if it isn't known
+     */
+    public Entry get(final String line) {
+        if (line.length() > MAX_LINE_LENGTH) {
+            return null;
+        }
+
+        final Stripe stripe = stripeOf(line);
+        stripe.lock.lock();
+        try {
+            return stripe.entries.get(line);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * @param line the line as it was before fixing
+     * @param fixedLine the fixed line, the same instance if nothing changed
+     * @param hits the rules that fired and how often, see FixerMetrics.RuleCounters.getHitsSinceMark
+     */
+    public void put(final String line, final String fixedLine, final int[] hits) {
+        if (line.length() > MAX_LINE_LENGTH) {
+            return;
+        }
+        put(line, new Entry(fixedLine == line ? null : fixedLine, hits));
+    }
+
+    private void put(final String line, final Entry entry) {
+        final int bytes = ENTRY_BYTES + 2 * (line.length() + (entry.fixedLine != null ? entry.fixedLine.length() : 0))
+                + (entry.hits != null ? 4 * entry.hits.length : 0);
+
+        final Stripe stripe = stripeOf(line);
+        stripe.lock.lock();
+        try {
+            final Entry previous = stripe.entries.put(line, entry);
+            if (previous != null) {
+                // another thread fixed the same line at the same time, it's the same
+                entry.bytes = previous.bytes;
+                return;
+            }
+            stripe.bytes += bytes;
+            entry.bytes = bytes;
+
+            final Iterator<Entry> eldest = stripe.entries.values().iterator();
+            while (eldest.hasNext() && (stripe.entries.size() > maxLinesPerStripe || stripe.bytes > maxBytesPerStripe)) {
+                stripe.bytes -= eldest.next().bytes;
+                eldest.remove();
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of lines kept
+     */
+    public int size() {
+        int size = 0;
+        for (final Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                size += stripe.entries.size();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Loads the lines that were saved, if they were fixed with the same rules. A missing or broken
+     * file is no problem, the cache is just empty then.
+     *
+     * @param file the file the cache was saved to
+     */
+    public void load(final Path file) {
+        if (!Files.exists(file)) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || in.readInt() != rulesVersion) {
+                // other rules, or another format, the lines would be fixed differently now
+                return;
+            }
+
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final String line = in.readUTF();
+                final String fixedLine = in.readBoolean() ? in.readUTF() : null;
+                int[] hits = null;
+                final int hitCount = in.readUnsignedByte();
+                if (hitCount > 0) {
+                    hits = new int[hitCount];
+                    for (int j = 0; j < hitCount; j++) {
+                        hits[j] = in.readInt();
+                    }
+                }
+                put(line, new Entry(fixedLine, hits));
+            }
+        } catch (final IOException e) {
+            System.err.println("Ignoring broken line cache :: " + file);
+        }
+    }
+
+    /**
+     * Writes the lines to a temp file and moves it over the old one. The most recently used lines
+     * are written last, so they are kept if the cache is smaller next time.
+     *
+     * @param file the file to save the cache to
+     */
+    public void save(final Path file) {
+        final Path tmpFile = file.resolveSibling("tmp_" + file.getFileName());
+
+        final List<Map.Entry<String, Entry>> toWrite = new ArrayList<>();
+        for (final Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                toWrite.addAll(new ArrayList<>(stripe.entries.entrySet()));
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(rulesVersion);
+            out.writeInt(toWrite.size());
+            for (final Map.Entry<String, Entry> entry : toWrite) {
+                out.writeUTF(entry.getKey());
+                final Entry value = entry.getValue();
+                out.writeBoolean(value.fixedLine != null);
+                if (value.fixedLine != null) {
+                    out.writeUTF(value.fixedLine);
+                }
+                final int hitCount = value.hits != null ? value.hits.length : 0;
+                out.writeByte(hitCount);
+                for (int j = 0; j < hitCount; j++) {
+                    out.writeInt(value.hits[j]);
+                }
+            }
+        } catch (final IOException e) {
+            System.err.println("Failed to write the line cache :: " + file);
+            e.printStackTrace();
+            return;
+        }
+
+        try {
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException e) {
+            System.err.println("Failed to replace the line cache :: " + file);
+            e.printStackTrace();
+        }
+    }
+
+    private Stripe stripeOf(final String line) {
+        // spread the bits of the hash, Strings that look alike tend to have hashes that do too
+        final int hash = line.hashCode() * 0x9E3779B9;
+        return stripes[(hash ^ (hash >>> 16)) & stripeMask];
+    }
+
+    /**
+     * How a line was fixed.
+     */
+    public static final class Entry {
+        /** Null if the line didn't change. */
+        private final String fixedLine;
+        private final int[] hits;
+        /** What it costs, set once it's in a stripe. */
+        private int bytes;
+
+        Entry(final String fixedLine, final int[] hits) {
+            this.fixedLine = fixedLine;
+            this.hits = hits;
+        }
+
+        /**
+         * @param line the line that was looked up
+         * @return the fixed line, the same instance if nothing changed
+         */
+        public String getFixedLine(final String line) {
+            return fixedLine != null ? fixedLine : line;
+        }
+
+        /**
+         * @return the rules that fired when fixing the line, see FixerMetrics.RuleCounters.replay
+         */
+        public int[] getHits() {
+            return hits;
+        }
+    }
+
+    /**
+     * A part of the cache, with its own lock.
+     */
+    private static final class Stripe {
+        private final ReentrantLock lock = new ReentrantLock();
+        /** In access order, the one used longest ago first. */
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+        private long bytes;
+    }
+}
@@ -0,0 +1,207 @@
+package nl.bvs.srtfixer.util;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Remembers which files were fixed, and what they looked like afterwards, so the next
+ * run can skip them without even opening them. Stored as a small binary file in the
+ * root directory.
+ *
+ * For each file the size, last modified time, a hash of the contents and the version of
+ * the rules that fixed it are stored. A file is up to date if the rules are the same and
+ * either the size and time, or (when those changed, e.g. the file was touched) the hash
+ * still match. Changing the rules makes every entry out of date.
+ *
+ * Safe to use from multiple threads.
+ */
+public class Manifest {
+    /** 'SRTM', so we don't go reading some random file. */
+    private static final int MAGIC = 0x5352544D;
+    /** Bump this when changing the file format. Old manifests are then simply ignored. */
+    private static final int FORMAT_VERSION = 1;
+
+    private final Path root;
+    private final Path manifestFile;
+    private final int rulesVersion;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private Manifest(final Path root, final Path manifestFile, final int rulesVersion) {
+        this.root = root;
+        this.manifestFile = manifestFile;
+        this.rulesVersion = rulesVersion;
+    }
+
+    /**
+     * Loads the manifest in the given root dir. A missing or broken manifest results in an
+     * empty one, meaning all files will be fixed.
+     *
+     * @param rootDir the root dir of the files, where the manifest is kept
+     * @param rulesVersion the version of the rules the files are going to be fixed with
+     * @return the manifest
+     */
+    public static Manifest load(final File rootDir, final int rulesVersion) {
+        final Path root = rootDir.toPath().toAbsolutePath();
+        final Manifest manifest = new Manifest(root, root.resolve(Constants.MANIFEST_FILE_NAME), rulesVersion);
+
+        if (!Files.exists(manifest.manifestFile)) {
+            return manifest;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(manifest.manifestFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                System.err.println("Ignoring manifest of an unknown format :: " + manifest.manifestFile);
+                return manifest;
+            }
+
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final String path = in.readUTF();
+                manifest.entries.put(path, new Entry(in.readLong(), in.readLong(), in.readLong(), in.readInt(), false));
+            }
+        } catch (final IOException e) {
+            // half a manifest is no manifest, just fix everything again
+            System.err.println("Ignoring broken manifest :: " + manifest.manifestFile);
+            manifest.entries.clear();
+        }
+
+        return manifest;
+    }
+
+    /**
+     * Checks whether the file was fixed with the current rules and hasn't changed since.
+     * Only reads the file if the size or time changed.
+     *
+     * @param file the file to check
+     * @return true if the file can be skipped, false if it needs fixing
+     */
+    public boolean isUpToDate(final File file) {
+        final String key = toKey(file);
+        final Entry entry = entries.get(key);
+        if (entry == null || entry.rulesVersion != rulesVersion) {
+            return false;
+        }
+
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            final long size = attributes.size();
+            final long lastModified = attributes.lastModifiedTime().toMillis();
+            if (size == entry.size && lastModified == entry.lastModified) {
+                entries.put(key, entry.seen());
+                return true;
+            }
+
+            // touched, or copied over with the same contents perhaps
+            if (size == entry.size && hash(file) == entry.hash) {
+                entries.put(key, new Entry(size, lastModified, entry.hash, rulesVersion, true));
+                return true;
+            }
+        } catch (final IOException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Records the current state of a file that has just been fixed.
+     *
+     * @param file the fixed file
+     */
+    public void record(final File file) {
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            entries.put(toKey(file), new Entry(attributes.size(), attributes.lastModifiedTime().toMillis(), hash(file),
+                    rulesVersion, true));
+        } catch (final IOException e) {
+            // no entry means it will be fixed again next time, no biggie
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes the manifest to a temp file and moves it over the old one. Entries of files that
+     * weren't seen during this run and no longer exist are dropped.
+     */
+    public void save() {
+        final Path tmpFile = manifestFile.resolveSibling("tmp_" + manifestFile.getFileName());
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+
+            final Map<String, Entry> toWrite = new LinkedHashMap<>();
+            for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+                if (entry.getValue().seen || Files.exists(root.resolve(entry.getKey()))) {
+                    toWrite.put(entry.getKey(), entry.getValue());
+                }
+            }
+
+            out.writeInt(toWrite.size());
+            for (final Map.Entry<String, Entry> entry : toWrite.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().size);
+                out.writeLong(entry.getValue().lastModified);
+                out.writeLong(entry.getValue().hash);
+                out.writeInt(entry.getValue().rulesVersion);
+            }
+        } catch (final IOException e) {
+            System.err.println("Failed to write the manifest :: " + manifestFile);
+            e.printStackTrace();
+            return;
+        }
+
+        try {
+            Files.move(tmpFile, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException e) {
+            System.err.println("Failed to replace the manifest :: " + manifestFile);
+            e.printStackTrace();
+        }
+    }
+
+    private String toKey(final File file) {
+        return root.relativize(file.toPath().toAbsolutePath()).toString();
+    }
+
+    private static long hash(final File file) throws IOException {
+        final CRC32 crc = new CRC32();
+        final byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * What a file looked like after it was fixed.
+     */
+    private static final class Entry {
+        private final long size;
+        private final long lastModified;
+        private final long hash;
+        private final int rulesVersion;
+        /** Whether the file was seen during this run. Not stored. */
+        private final boolean seen;
+
+        Entry(final long size, final long lastModified, final long hash, final int rulesVersion, final boolean seen) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.rulesVersion = rulesVersion;
+            this.seen = seen;
+        }
+
+        Entry seen() {
+            return seen ? this : new Entry(size, lastModified, hash, rulesVersion, true);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package nl.bvs.srtfixer.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Where the Constants get their values: a config file and the command line, on top of the
+ * defaults in the Constants themselves. The Constants read them once, the first time they
+ * are used, so everything has to be set before that. No recompiling to change a path.
+ */
+public final class Settings {
+    private static final Properties VALUES = new Properties();
+    /** The settings the Constants asked for, with the values they got. Also to tell typos from settings. */
+    private static final Map<String, String> READ_VALUES = new TreeMap<>();
+    private static boolean read;
+
+    private Settings() {
+        // static stuff only
+    }
+
+    /**
+     * Sets a single setting, e.g. from the command line.
+     *
+     * @throws IllegalStateException if the Constants have been read already
+     */
+    public static synchronized void set(final String key, final String value) {
+        if (read) {
+            throw new IllegalStateException("The settings have been read already :: " + key);
+        }
+        VALUES.setProperty(key, value);
+    }
+
+    /**
+     * Loads the settings in a properties file (UTF-8), over the ones set so far.
+     *
+     * @param file the file to load
+     */
+    public static synchronized void load(final Path file) throws IOException {
+        final Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        for (final String key : properties.stringPropertyNames()) {
+            set(key, properties.getProperty(key).trim());
+        }
+    }
+
+    /**
+     * @return the keys that were set, but aren't settings. Only makes sense once the Constants have been read.
+     */
+    public static synchronized List<String> getUnknownKeys() {
+        final List<String> unknown = new ArrayList<>();
+        for (final String key : VALUES.stringPropertyNames()) {
+            if (!READ_VALUES.containsKey(key)) {
+                unknown.add(key);
+            }
+        }
+        Collections.sort(unknown);
+        return unknown;
+    }
+
+    /**
+     * @return all keys there are, sorted. Only makes sense once the Constants have been read.
+     */
+    public static synchronized List<String> getKeys() {
+        return new ArrayList<>(READ_VALUES.keySet());
+    }
+
+    /**
+     * @return the value the Constants got for the setting, null if they didn't ask for it (yet)
+     */
+    public static synchronized String getValue(final String key) {
+        return READ_VALUES.get(key);
+    }
+
+    static synchronized String getString(final String key, final String defaultValue) {
+        read = true;
+        final String value = VALUES.getProperty(key, defaultValue);
+        READ_VALUES.put(key, value);
+        return value;
+    }
+
+    static boolean getBoolean(final String key, final boolean defaultValue) {
+        final String value = getString(key, Boolean.toString(defaultValue));
+        if ("true".equalsIgnoreCase(value)) {
+            return true;
+        }
+        if ("false".equalsIgnoreCase(value)) {
+            return false;
+        }
+        throw new IllegalArgumentException("Setting " + key + " must be true or false :: " + value);
+    }
+
+    static int getInt(final String key, final int defaultValue) {
+        return (int) getLong(key, defaultValue, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    static long getLong(final String key, final long defaultValue) {
+        return getLong(key, defaultValue, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    private static long getLong(final String key, final long defaultValue, final long min, final long max) {
+        final String value = getString(key, Long.toString(defaultValue));
+        try {
+            final long number = Long.parseLong(value);
+            if (number >= min && number <= max) {
+                return number;
+            }
+        } catch (final NumberFormatException e) {
+            // same as out of range
+        }
+        throw new IllegalArgumentException("Setting " + key + " must be a number :: " + value);
+    }
+
+    /**
+     * A comma separated list, empty by default.
+     */
+    static List<String> getList(final String key) {
+        final String value = getString(key, "").trim();
+        if (value.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<String> values = new ArrayList<>(Arrays.asList(value.split("\\s*,\\s*")));
+        return Collections.unmodifiableList(values);
+    }
+
+    static <E extends Enum<E>> E getEnum(final String key, final E defaultValue) {
+        final String value = getString(key, defaultValue.name());
+        try {
+            return Enum.valueOf(defaultValue.getDeclaringClass(), value.toUpperCase(Locale.ROOT));
+        } catch (final IllegalArgumentException e) {
+            throw new IllegalArgumentException("Setting " + key + " must be one of "
+                    + Arrays.toString(defaultValue.getDeclaringClass().getEnumConstants()) + " :: " + value, e);
+        }
+    }
+}
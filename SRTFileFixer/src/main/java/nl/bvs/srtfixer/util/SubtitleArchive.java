@@ -0,0 +1,248 @@
+package nl.bvs.srtfixer.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Fixes the subtitles inside a zip archive, without extracting them: the archive is read
+ * once, entry by entry, and written once, with the subtitles fixed on the way through.
+ * Everything else in it is copied as it is.
+ */
+public final class SubtitleArchive {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Fixes a single subtitle in an archive.
+     */
+    public interface EntryFixer {
+        /**
+         * @param name the name of the entry, its path in the archive
+         * @param reader the text of the entry
+         * @param writer where the fixed text goes
+         */
+        void fixEntry(String name, BufferedReader reader, BufferedWriter writer) throws Exception;
+    }
+
+    private SubtitleArchive() {
+        // static stuff only
+    }
+
+    /**
+     * Checks whether the archive has any entries with the given extension. Only its central
+     * directory is read, through the zip file system, so archives without subtitles aren't
+     * rewritten for nothing.
+     *
+     * @param archive the archive to look in
+     * @param extension the extension of the entries to look for, without the dot
+     * @return true if there is at least one
+     */
+    public static boolean contains(final Path archive, final String extension) throws IOException {
+        final boolean[] found = new boolean[1];
+        try (FileSystem zip = FileSystems.newFileSystem(archive, (ClassLoader) null)) {
+            for (final Path root : zip.getRootDirectories()) {
+                Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes) {
+                        found[0] = hasExtension(file.toString(), extension);
+                        return found[0] ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+                    }
+                });
+                if (found[0]) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes a copy of the archive, with the entries with the given extension fixed. They are
+     * written back in the charset they came in. The target is on disk when this returns.
+     *
+     * An entry counts as changed when its size or CRC differs from the original.
+     *
+     * @param archive the archive to fix
+     * @param target where to write the fixed archive, null to only check which entries would change
+     * @param extension the extension of the entries to fix, without the dot
+     * @param fixer fixes the entries
+     * @return the number of entries that changed
+     */
+    public static int fix(final Path archive, final Path target, final String extension, final EntryFixer fixer) throws Exception {
+        if (target == null) {
+            try (ZipInputStream in = open(archive)) {
+                return fix(in, null, extension, fixer);
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+             ZipInputStream in = open(archive);
+             ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE))) {
+            final int changed = fix(in, out, extension, fixer);
+            out.finish();
+            out.flush();
+            channel.force(false);
+            return changed;
+        }
+    }
+
+    private static ZipInputStream open(final Path archive) throws IOException {
+        return new ZipInputStream(new BufferedInputStream(Files.newInputStream(archive), BUFFER_SIZE));
+    }
+
+    /**
+     * @param out the fixed archive, null to only check
+     */
+    private static int fix(final ZipInputStream in, final ZipOutputStream out, final String extension, final EntryFixer fixer) throws Exception {
+        int changed = 0;
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        ZipEntry entry;
+        while ((entry = in.getNextEntry()) != null) {
+            if (!entry.isDirectory() && hasExtension(entry.getName(), extension)) {
+                if (out != null) {
+                    out.putNextEntry(copyOf(entry, ZipEntry.DEFLATED));
+                }
+                final CheckedStream fixed = new CheckedStream(out);
+                fixEntry(entry.getName(), in, fixed, fixer);
+                // the sizes and CRC of the original are known once the whole entry has been read
+                if (fixed.size != entry.getSize() || fixed.crc.getValue() != entry.getCrc()) {
+                    changed++;
+                }
+            } else if (out != null) {
+                out.putNextEntry(copyOf(entry, entry.getMethod()));
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            }
+            if (out != null) {
+                out.closeEntry();
+            }
+        }
+        return changed;
+    }
+
+    private static void fixEntry(final String name, final InputStream in, final OutputStream out, final EntryFixer fixer) throws Exception {
+        // the readers and writers must not close the archives, only the entry is theirs
+        final InputStream entryIn = new BufferedInputStream(new FilterInputStream(in) {
+            @Override
+            public void close() {
+                // leave the archive open
+            }
+        }, BUFFER_SIZE);
+        final OutputStream entryOut = new FilterOutputStream(out) {
+            @Override
+            public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+                out.write(bytes, offset, length);
+            }
+
+            @Override
+            public void close() throws IOException {
+                // leave the archive open
+                flush();
+            }
+        };
+
+        final CharsetSniffer.Detection detection = sniff(entryIn);
+        try (BufferedReader reader = SubtitleIO.newReader(entryIn, detection);
+             BufferedWriter writer = SubtitleIO.newWriter(entryOut, detection)) {
+            fixer.fixEntry(name, reader, writer);
+        }
+        // the sizes and CRC of the entry are only read at its end, in case the fixer stopped early
+        while (in.skip(BUFFER_SIZE) > 0) {
+            // skip
+        }
+    }
+
+    /**
+     * Sniffs the charset by peeking at the first bytes, and skips the BOM if there is one.
+     */
+    private static CharsetSniffer.Detection sniff(final InputStream in) throws IOException {
+        final byte[] prefix = new byte[CharsetSniffer.SNIFF_LENGTH];
+        in.mark(prefix.length);
+        int length = 0;
+        int read;
+        while (length < prefix.length && (read = in.read(prefix, length, prefix.length - length)) != -1) {
+            length += read;
+        }
+        in.reset();
+
+        final CharsetSniffer.Detection detection = CharsetSniffer.detect(ByteBuffer.wrap(prefix, 0, length));
+        for (int i = 0; i < detection.getBomLength(); i++) {
+            in.read();
+        }
+        return detection;
+    }
+
+    /**
+     * A new entry like the given one. Sizes are only kept for stored entries, which need them
+     * up front; deflated entries are compressed again, so their compressed size will differ.
+     */
+    private static ZipEntry copyOf(final ZipEntry entry, final int method) {
+        final ZipEntry copy = new ZipEntry(entry.getName());
+        copy.setTime(entry.getTime());
+        copy.setComment(entry.getComment());
+        copy.setExtra(entry.getExtra());
+        copy.setMethod(method);
+        if (method == ZipEntry.STORED) {
+            copy.setSize(entry.getSize());
+            copy.setCompressedSize(entry.getCompressedSize());
+            copy.setCrc(entry.getCrc());
+        }
+        return copy;
+    }
+
+    private static boolean hasExtension(final String name, final String extension) {
+        final int dot = name.lastIndexOf('.');
+        return dot >= 0 && name.substring(dot + 1).equalsIgnoreCase(extension);
+    }
+
+    /**
+     * Keeps the size and CRC of what goes through, on the way to the archive, if there is one.
+     */
+    private static final class CheckedStream extends OutputStream {
+        private final OutputStream out;
+        private final CRC32 crc = new CRC32();
+        private long size;
+
+        CheckedStream(final OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+            crc.update(bytes, offset, length);
+            size += length;
+            if (out != null) {
+                out.write(bytes, offset, length);
+            }
+        }
+    }
+}
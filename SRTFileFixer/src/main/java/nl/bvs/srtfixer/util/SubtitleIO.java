@@ -0,0 +1,227 @@
+package nl.bvs.srtfixer.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.LineNumberReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Reading and writing subtitle files through file channels, in the charset they came in.
+ * Characters that don't fit the charset are reported instead of silently replaced, so a
+ * file is never mangled, just left alone.
+ */
+public final class SubtitleIO {
+    /** Size of the byte buffer the reader decodes from. */
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    /** Size of the direct byte buffer the writer encodes into. Most subtitle files fit in one go. */
+    private static final int WRITE_BUFFER_SIZE = 256 * 1024;
+    /** The byte order mark, written back to files that had one. */
+    private static final char BOM = '\uFEFF';
+
+    /** Direct buffers are expensive to make, so each thread keeps one around. */
+    private static final ThreadLocal<ByteBuffer> WRITE_BUFFERS = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        }
+    };
+
+    private SubtitleIO() {
+        // static stuff only
+    }
+
+    /**
+     * Sniffs the charset of the file behind the channel, by reading its first bytes.
+     * Does not move the channel's position.
+     *
+     * @param channel the channel to read from
+     * @return the detected charset
+     */
+    public static CharsetSniffer.Detection sniff(final FileChannel channel) throws IOException {
+        final ByteBuffer prefix = ByteBuffer.allocate((int) Math.min(CharsetSniffer.SNIFF_LENGTH, channel.size()));
+        while (prefix.hasRemaining() && channel.read(prefix, prefix.position()) >= 0) {
+            // keep reading until the prefix is full or the file ends
+        }
+        prefix.flip();
+        return CharsetSniffer.detect(prefix);
+    }
+
+    /**
+     * Opens a reader on the channel, skipping the BOM, if there is one. It keeps count of the
+     * lines read, for the metrics.
+     *
+     * @param channel the channel to read from
+     * @param detection the charset of the file
+     * @return the reader
+     */
+    public static LineNumberReader newReader(final FileChannel channel, final CharsetSniffer.Detection detection) throws IOException {
+        channel.position(detection.getBomLength());
+        final CharsetDecoder decoder = detection.getCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        return new LineNumberReader(Channels.newReader(channel, decoder, READ_BUFFER_SIZE), READ_BUFFER_SIZE);
+    }
+
+    /**
+     * Opens a writer on the channel, starting with a BOM if the original file had one.
+     *
+     * @param channel the channel to write to
+     * @param detection the charset of the original file
+     * @return the writer
+     */
+    public static BufferedWriter newWriter(final WritableByteChannel channel, final CharsetSniffer.Detection detection) throws IOException {
+        final CharsetEncoder encoder = detection.getCharset().newEncoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        final BufferedWriter writer = new BufferedWriter(new ChannelWriter(channel, encoder));
+        if (detection.getBomLength() > 0) {
+            writer.write(BOM);
+        }
+        return writer;
+    }
+
+    /**
+     * Opens a reader on a stream, like newReader for channels. The BOM, if there is one, must
+     * have been skipped already.
+     *
+     * @param in the stream to read from
+     * @param detection the charset of the stream
+     * @return the reader
+     */
+    public static BufferedReader newReader(final InputStream in, final CharsetSniffer.Detection detection) {
+        final CharsetDecoder decoder = detection.getCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        return new BufferedReader(new InputStreamReader(in, decoder), READ_BUFFER_SIZE);
+    }
+
+    /**
+     * Opens a writer on a stream, like newWriter for channels.
+     *
+     * @param out the stream to write to
+     * @param detection the charset of the original
+     * @return the writer
+     */
+    public static BufferedWriter newWriter(final OutputStream out, final CharsetSniffer.Detection detection) throws IOException {
+        final CharsetEncoder encoder = detection.getCharset().newEncoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, encoder));
+        if (detection.getBomLength() > 0) {
+            writer.write(BOM);
+        }
+        return writer;
+    }
+
+    /**
+     * Moves the source over the target in one go, so the target is either the old or the new
+     * file, never half of one or missing.
+     *
+     * @param source the file to move
+     * @param target the file to replace
+     */
+    public static void replace(final Path source, final Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final AtomicMoveNotSupportedException e) {
+            // some shares can't do it, still beats deleting and renaming ourselves
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Encodes characters into a large direct buffer, which is written to the channel when full.
+     * Closing it does not close the channel.
+     */
+    private static final class ChannelWriter extends Writer {
+        private final WritableByteChannel channel;
+        private final CharsetEncoder encoder;
+        private final CharBuffer chars = CharBuffer.allocate(8 * 1024);
+        private final ByteBuffer bytes;
+        private boolean closed;
+
+        ChannelWriter(final WritableByteChannel channel, final CharsetEncoder encoder) {
+            this.channel = channel;
+            this.encoder = encoder;
+            bytes = WRITE_BUFFERS.get();
+            bytes.clear();
+        }
+
+        @Override
+        public void write(final char[] buffer, final int offset, final int length) throws IOException {
+            int position = offset;
+            int remaining = length;
+            while (remaining > 0) {
+                final int count = Math.min(chars.remaining(), remaining);
+                chars.put(buffer, position, count);
+                position += count;
+                remaining -= count;
+                if (!chars.hasRemaining()) {
+                    encode(false);
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            encode(false);
+            drain();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            encode(true);
+            while (encoder.flush(bytes).isOverflow()) {
+                drain();
+            }
+            drain();
+        }
+
+        private void encode(final boolean endOfInput) throws IOException {
+            chars.flip();
+            while (true) {
+                final CoderResult result = encoder.encode(chars, bytes, endOfInput);
+                if (result.isOverflow()) {
+                    drain();
+                } else if (result.isError()) {
+                    result.throwException();
+                } else {
+                    break;
+                }
+            }
+            // an unfinished surrogate pair stays behind until the next write
+            chars.compact();
+        }
+
+        private void drain() throws IOException {
+            bytes.flip();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            bytes.clear();
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package nl.bvs.srtfixer.util;
+
+/**
+ * Parses and formats SRT timestamps ('HH:MM:SS,mmm') as milliseconds, by hand. No regexes,
+ * no date formats, no time zones and no 24 hour limit. Nothing is allocated per call, the
+ * formatted text goes into a char buffer given by the caller.
+ *
+ * Parsing is forgiving, since SRT files in the wild are a mess: '0:0:5.5' is fine too. The
+ * milliseconds can come after a ',' or a '.', and are a fraction of a second, so '.5' is half
+ * a second. Timestamps are always written the proper way.
+ */
+public final class TimecodeCodec {
+    /** Separates the [from] and [to] of a timecode line. */
+    private static final String ARROW = " --> ";
+    /** The arrow without the spaces around it, which are optional when parsing. */
+    private static final String BARE_ARROW = "-->";
+    /** The most digits of the hours we bother with, 100000 hours is plenty. */
+    private static final int MAX_HOUR_DIGITS = 6;
+    /** Room for a timecode line, even one with a ridiculous amount of hours. */
+    public static final int MAX_LINE_LENGTH = 64;
+
+    private TimecodeCodec() {
+        // static stuff only
+    }
+
+    /**
+     * Checks if the line looks like a timecode line: 'HH:MM:SS,mmm --> HH:MM:SS,mmm', give or take
+     * some digits and spaces, possibly followed by other stuff (like positions) after a space.
+     * Whether the numbers make sense, and whether there is other stuff, is checked while parsing,
+     * so a line that looks like a timecode line can still fail to parse.
+     *
+     * @param line the line to check
+     * @return true if it is a timecode line, false if not
+     */
+    public static boolean isTimecodeLine(final CharSequence line) {
+        final int startEnd = timestampEnd(line, skipSpaces(line, 0));
+        if (startEnd < 0) {
+            return false;
+        }
+        final int arrow = skipSpaces(line, startEnd);
+        if (!regionMatches(line, arrow, BARE_ARROW)) {
+            return false;
+        }
+        final int endEnd = timestampEnd(line, skipSpaces(line, arrow + BARE_ARROW.length()));
+        return endEnd >= 0 && (endEnd == line.length() || line.charAt(endEnd) <= ' ');
+    }
+
+    /**
+     * Parses the [from] of a timecode line.
+     *
+     * @throws IllegalArgumentException if it isn't a timestamp, or the minutes or seconds are 60 or more
+     */
+    public static long parseStart(final CharSequence line) {
+        return parseTimestamp(line, skipSpaces(line, 0));
+    }
+
+    /**
+     * Parses the [to] of a timecode line.
+     *
+     * @throws IllegalArgumentException if it isn't a timestamp, the minutes or seconds are 60 or more,
+     *                                  or there is more than a timestamp after the arrow
+     */
+    public static long parseEnd(final CharSequence line) {
+        final int startEnd = timestampEnd(line, skipSpaces(line, 0));
+        final int arrow = startEnd < 0 ? -1 : skipSpaces(line, startEnd);
+        if (arrow < 0 || !regionMatches(line, arrow, BARE_ARROW)) {
+            throw new IllegalArgumentException("Not a timecode line :: " + line);
+        }
+
+        final int offset = skipSpaces(line, arrow + BARE_ARROW.length());
+        final long end = parseTimestamp(line, offset);
+        if (skipSpaces(line, timestampEnd(line, offset)) != line.length()) {
+            throw new IllegalArgumentException("More than a timecode :: " + line);
+        }
+        return end;
+    }
+
+    /**
+     * Parses a 'HH:MM:SS,mmm' timestamp, or a sloppy one like '0:0:5.5'.
+     *
+     * @param text the text containing the timestamp
+     * @param offset where the timestamp starts
+     * @return the timestamp in milliseconds
+     * @throws IllegalArgumentException if it isn't a timestamp, or the minutes or seconds are 60 or more
+     */
+    public static long parseTimestamp(final CharSequence text, final int offset) {
+        final int end = timestampEnd(text, offset);
+        if (end < 0) {
+            throw new IllegalArgumentException("Not a timestamp :: " + text);
+        }
+
+        final int hoursEnd = nextNonDigit(text, offset);
+        final int minutesEnd = nextNonDigit(text, hoursEnd + 1);
+        final int secondsEnd = nextNonDigit(text, minutesEnd + 1);
+        final long hours = digits(text, offset, hoursEnd);
+        final int minutes = (int) digits(text, hoursEnd + 1, minutesEnd);
+        final int seconds = (int) digits(text, minutesEnd + 1, secondsEnd);
+        int millis = (int) digits(text, secondsEnd + 1, end);
+        for (int i = end - secondsEnd - 1; i < 3; i++) {
+            millis *= 10;
+        }
+        if (minutes > 59 || seconds > 59) {
+            throw new IllegalArgumentException("Minutes and seconds go up to 59 :: " + text);
+        }
+
+        return ((hours * 60L + minutes) * 60L + seconds) * 1000L + millis;
+    }
+
+    /**
+     * Writes a 'HH:MM:SS,mmm' timestamp. Negative times are written as zero, and more than
+     * 99 hours simply gives more digits.
+     *
+     * @param millis the time in milliseconds
+     * @param target the buffer to write to
+     * @param offset where to start writing
+     * @return the offset just after the timestamp
+     */
+    public static int formatTimestamp(final long millis, final char[] target, final int offset) {
+        final long time = Math.max(0L, millis);
+        final long hours = time / 3600000L;
+
+        int hourDigits = 2;
+        for (long h = hours / 100; h > 0; h /= 10) {
+            hourDigits++;
+        }
+
+        int position = writeDigits(hours, target, offset, hourDigits);
+        target[position++] = ':';
+        position = writeDigits(time / 60000L % 60, target, position, 2);
+        target[position++] = ':';
+        position = writeDigits(time / 1000L % 60, target, position, 2);
+        target[position++] = ',';
+        return writeDigits(time % 1000L, target, position, 3);
+    }
+
+    /**
+     * Writes a 'HH:MM:SS,mmm --> HH:MM:SS,mmm' line.
+     *
+     * @param start the [from] in milliseconds
+     * @param end the [to] in milliseconds
+     * @param target the buffer to write to, at least MAX_LINE_LENGTH long
+     * @return the length of the line
+     */
+    public static int formatTimecodeLine(final long start, final long end, final char[] target) {
+        int position = formatTimestamp(start, target, 0);
+        ARROW.getChars(0, ARROW.length(), target, position);
+        position += ARROW.length();
+        return formatTimestamp(end, target, position);
+    }
+
+    /**
+     * Shifts both times of a timecode line. Times that end up before zero become zero.
+     *
+     * @param line the timecode line
+     * @param offsetMillis the amount of milliseconds to add, or subtract when negative
+     * @param target the buffer to write the shifted line to, at least MAX_LINE_LENGTH long
+     * @return the length of the shifted line
+     * @throws IllegalArgumentException if the line is not a valid timecode line
+     */
+    public static int shiftTimecodeLine(final CharSequence line, final long offsetMillis, final char[] target) {
+        if (!isTimecodeLine(line)) {
+            throw new IllegalArgumentException("Not a timecode line :: " + line);
+        }
+        return formatTimecodeLine(parseStart(line) + offsetMillis, parseEnd(line) + offsetMillis, target);
+    }
+
+    /**
+     * Checks the form of a timestamp: 1 to 6 digits, ':', 1 or 2 digits, ':', 1 or 2 digits, ',' or '.'
+     * and 1 to 3 digits. Not whether the numbers make sense.
+     *
+     * @return where the timestamp ends, -1 if there is none at the offset
+     */
+    private static int timestampEnd(final CharSequence text, final int offset) {
+        int position = offset;
+        for (int field = 0; field < 4; field++) {
+            final int end = nextNonDigit(text, position);
+            final int count = end - position;
+            if (count < 1 || count > (field == 0 ? MAX_HOUR_DIGITS : field == 3 ? 3 : 2)) {
+                return -1;
+            }
+            if (field == 3) {
+                return end;
+            }
+            if (end == text.length()) {
+                return -1;
+            }
+            final char separator = text.charAt(end);
+            if (field < 2 ? separator != ':' : separator != ',' && separator != '.') {
+                return -1;
+            }
+            position = end + 1;
+        }
+        return -1;
+    }
+
+    private static int nextNonDigit(final CharSequence text, final int offset) {
+        int i = offset;
+        while (i < text.length() && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipSpaces(final CharSequence text, final int offset) {
+        int i = offset;
+        while (i < text.length() && text.charAt(i) <= ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean regionMatches(final CharSequence text, final int offset, final String value) {
+        if (text.length() < offset + value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (text.charAt(offset + i) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long digits(final CharSequence text, final int from, final int to) {
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            value = value * 10 + (text.charAt(i) - '0');
+        }
+        return value;
+    }
+
+    private static int writeDigits(final long value, final char[] target, final int offset, final int count) {
+        long remaining = value;
+        for (int i = offset + count - 1; i >= offset; i--) {
+            target[i] = (char) ('0' + remaining % 10);
+            remaining /= 10;
+        }
+        return offset + count;
+    }
+}
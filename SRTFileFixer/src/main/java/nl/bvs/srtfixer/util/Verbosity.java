@@ -0,0 +1,13 @@
+package nl.bvs.srtfixer.util;
+
+/**
+ * How much the fixers print while running. Errors and the summary at the end are always printed.
+ */
+public enum Verbosity {
+    /** Nothing but errors and the summary. */
+    QUIET,
+    /** Also each file that is fixed. */
+    FILES,
+    /** Also each line that is changed. Slow on big runs, the change journal is the better place for these. */
+    CHANGES
+}
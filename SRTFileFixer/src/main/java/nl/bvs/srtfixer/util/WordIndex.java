@@ -0,0 +1,224 @@
+package nl.bvs.srtfixer.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * A big set of words, like a dictionary, built once into a file that is mapped into memory
+ * when used. No parsing at startup, no objects per word, and lookups take a range of a char
+ * buffer, so no Strings either. Case insensitive.
+ *
+ * The file is an open addressing hash table: a header ('SRTD', the format version, the number
+ * of words, the number of slots, the number of chars and a checksum of the words), then an
+ * int per slot (0 for empty, otherwise the position of the word in the chars plus one), and
+ * then the words, each as its length followed by its chars, all lower case.
+ *
+ * Build one from word lists with one word per line (lines starting with '#' are skipped):
+ *
+ *     java nl.bvs.srtfixer.util.WordIndex [index file] [word list]...
+ *
+ * Safe to use from multiple threads.
+ */
+public final class WordIndex {
+    /** 'SRTD', for dictionary. */
+    private static final int MAGIC = 0x53525444;
+    /** Bump this when changing the file format, or the hash. */
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 6 * 4;
+
+    private final IntBuffer slots;
+    private final CharBuffer chars;
+    private final int mask;
+    private final int size;
+    private final int checksum;
+
+    private WordIndex(final ByteBuffer buffer) {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Not a word index of a known format");
+        }
+        size = buffer.getInt(8);
+        final int slotCount = buffer.getInt(12);
+        final int charCount = buffer.getInt(16);
+        checksum = buffer.getInt(20);
+        if (Integer.bitCount(slotCount) != 1 || buffer.capacity() != HEADER_SIZE + slotCount * 4L + charCount * 2L) {
+            throw new IllegalArgumentException("Broken word index");
+        }
+        mask = slotCount - 1;
+
+        buffer.position(HEADER_SIZE);
+        slots = buffer.slice().asIntBuffer();
+        buffer.position(HEADER_SIZE + slotCount * 4);
+        chars = buffer.slice().asCharBuffer();
+    }
+
+    /**
+     * Builds an index from word lists.
+     * @param args the index file to write, and the word lists to read
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: [index file] [word list]...");
+            return;
+        }
+
+        final Set<String> words = new LinkedHashSet<>();
+        for (int i = 1; i < args.length; i++) {
+            for (final String line : Files.readAllLines(Paths.get(args[i]), StandardCharsets.UTF_8)) {
+                final String word = line.trim();
+                if (!word.isEmpty() && !word.startsWith("#")) {
+                    words.add(word);
+                }
+            }
+        }
+        build(words, Paths.get(args[0]));
+        System.out.println("Indexed " + words.size() + " words :: " + args[0]);
+    }
+
+    /**
+     * Writes an index of the given words.
+     *
+     * @param words the words, in any case
+     * @param indexFile the file to write the index to
+     */
+    public static void build(final Iterable<String> words, final Path indexFile) throws IOException {
+        final List<char[]> unique = new ArrayList<>();
+        final Set<String> seen = new LinkedHashSet<>();
+        int charCount = 0;
+        for (final String word : words) {
+            final char[] lowerCase = new char[word.length()];
+            for (int i = 0; i < lowerCase.length; i++) {
+                lowerCase[i] = toLowerCase(word.charAt(i));
+            }
+            if (lowerCase.length > 0 && lowerCase.length <= Character.MAX_VALUE && seen.add(new String(lowerCase))) {
+                unique.add(lowerCase);
+                charCount += lowerCase.length + 1;
+            }
+        }
+
+        int slotCount = 4;
+        while (slotCount < unique.size() * 2) {
+            slotCount <<= 1;
+        }
+
+        final int[] slots = new int[slotCount];
+        final char[] chars = new char[charCount];
+        final CRC32 crc = new CRC32();
+        int position = 0;
+        for (final char[] word : unique) {
+            int slot = hash(word, 0, word.length) & (slotCount - 1);
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & (slotCount - 1);
+            }
+            slots[slot] = position + 1;
+
+            chars[position++] = (char) word.length;
+            System.arraycopy(word, 0, chars, position, word.length);
+            position += word.length;
+            crc.update(new String(word).getBytes(StandardCharsets.UTF_8));
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + slotCount * 4 + charCount * 2);
+        buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(unique.size()).putInt(slotCount).putInt(charCount)
+                .putInt((int) crc.getValue());
+        buffer.asIntBuffer().put(slots);
+        buffer.position(HEADER_SIZE + slotCount * 4);
+        buffer.asCharBuffer().put(chars);
+        buffer.rewind();
+
+        final Path tmpFile = indexFile.resolveSibling("tmp_" + indexFile.getFileName());
+        try (FileChannel out = FileChannel.open(tmpFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        }
+        SubtitleIO.replace(tmpFile, indexFile);
+    }
+
+    /**
+     * Maps an index file into memory.
+     *
+     * @param indexFile the file made by build
+     * @return the index
+     * @throws IllegalArgumentException if it isn't an index
+     */
+    public static WordIndex open(final Path indexFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new WordIndex(buffer);
+        }
+    }
+
+    /**
+     * @return the number of words
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return a checksum of the words, which changes when the words do
+     */
+    public int getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Checks whether the given range of a buffer is one of the words, ignoring case.
+     */
+    public boolean contains(final char[] buffer, final int offset, final int length) {
+        int slot = hash(buffer, offset, length) & mask;
+        int position;
+        while ((position = slots.get(slot)) != 0) {
+            if (regionEquals(position - 1, buffer, offset, length)) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    private boolean regionEquals(final int position, final char[] buffer, final int offset, final int length) {
+        if (chars.get(position) != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (chars.get(position + 1 + i) != toLowerCase(buffer[offset + i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stored in the file, so never change this without bumping the format version.
+     */
+    private static int hash(final char[] buffer, final int offset, final int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + toLowerCase(buffer[i]);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static char toLowerCase(final char c) {
+        if (c < 128) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return Character.toLowerCase(c);
+    }
+}
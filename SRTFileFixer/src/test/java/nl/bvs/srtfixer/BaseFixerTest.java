@@ -0,0 +1,159 @@
+package nl.bvs.srtfixer;
+
+import nl.bvs.srtfixer.util.BackupUtil;
+import nl.bvs.srtfixer.util.Manifest;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The prefetching fixAll: reading ahead, fixing, and backing up and writing in stages of their own.
+ */
+public class BaseFixerTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File root;
+    private BackupUtil backupUtil;
+
+    @Before
+    public void makeFiles() throws IOException {
+        root = folder.newFolder("subs");
+        backupUtil = new BackupUtil(folder.newFolder("backups"));
+        for (final String name : new String[]{"a.srt", "b.srt", "c.srt"}) {
+            write(new File(root, name), "text of " + name + "\n");
+        }
+    }
+
+    @Test
+    public void fixesAndBacksUpFiles() throws IOException {
+        new UpperCaseFixer(backupUtil).fixAll(files(), 2, null);
+
+        assertEquals("TEXT OF A.SRT\n", read(new File(root, "a.srt")));
+        assertEquals("TEXT OF C.SRT\n", read(new File(root, "c.srt")));
+        assertEquals("text of a.srt\n", restore("a.srt"));
+    }
+
+    @Test
+    public void leavesFilesChangedWhileFixingAlone() throws IOException {
+        final File changed = new File(root, "b.srt");
+        final Manifest manifest = Manifest.load(root, 1);
+        new UpperCaseFixer(backupUtil) {
+            @Override
+            void fixing(final File file) throws IOException {
+                if (file.equals(changed)) {
+                    write(file, "someone else's edit\n");
+                }
+            }
+        }.fixAll(files(), 2, manifest);
+
+        assertEquals("someone else's edit\n", read(changed));
+        assertFalse(manifest.isUpToDate(changed));
+        assertTrue(manifest.isUpToDate(new File(root, "a.srt")));
+    }
+
+    @Test
+    public void backsUpTheBytesThatWereFixed() throws IOException {
+        final File changed = new File(root, "b.srt");
+        new UpperCaseFixer(backupUtil) {
+            @Override
+            void fixing(final File file) throws IOException {
+                if (file.equals(changed)) {
+                    // an edit the size and time don't give away
+                    final long lastModified = file.lastModified();
+                    write(file, "TEXT OF X.SRT\n");
+                    assertTrue(file.setLastModified(lastModified));
+                }
+            }
+        }.fixAll(files(), 2, null);
+
+        assertEquals("text of b.srt\n", restore("b.srt"));
+        assertEquals("TEXT OF B.SRT\n", read(changed));
+    }
+
+    @Test
+    public void releasesFilesWhenFixingThrowsAnError() throws Exception {
+        final Thread run = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                new UpperCaseFixer(backupUtil) {
+                    @Override
+                    void fixing(final File file) {
+                        if (file.getName().equals("b.srt")) {
+                            throw new StackOverflowError("Deliberately");
+                        }
+                    }
+                }.fixAll(files(), 1, null);
+            }
+        });
+        run.start();
+        run.join(30000);
+
+        assertFalse("Still waiting for the file that failed", run.isAlive());
+        assertEquals("TEXT OF A.SRT\n", read(new File(root, "a.srt")));
+        assertEquals("text of b.srt\n", read(new File(root, "b.srt")));
+        assertEquals("TEXT OF C.SRT\n", read(new File(root, "c.srt")));
+    }
+
+    private Iterable<File> files() {
+        return Arrays.asList(new File(root, "a.srt"), new File(root, "b.srt"), new File(root, "c.srt"));
+    }
+
+    private String restore(final String name) throws IOException {
+        final File restored = folder.newFile("restored-" + name);
+        assertTrue(backupUtil.restore(new File(root, name), restored));
+        return read(restored);
+    }
+
+    private static void write(final File file, final String contents) throws IOException {
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(final File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Puts every line in upper case, so every file changes.
+     */
+    private static class UpperCaseFixer extends BaseFixer {
+        UpperCaseFixer(final BackupUtil backupUtil) {
+            super(backupUtil);
+        }
+
+        /**
+         * Called before the file is fixed.
+         */
+        void fixing(final File file) throws IOException {
+            // nothing
+        }
+
+        @Override
+        protected void process() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void fixFile(final BufferedReader reader, final BufferedWriter writer) throws Exception {
+            fixing(getCurrentFile());
+            String line;
+            while ((line = reader.readLine()) != null) {
+                writer.write(line.toUpperCase());
+                writer.write('\n');
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package nl.bvs.srtfixer;
+
+import nl.bvs.srtfixer.srt.Cue;
+import nl.bvs.srtfixer.srt.SrtReader;
+import nl.bvs.srtfixer.srt.SrtWriter;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SrtFileFixerTest {
+    @Test
+    public void fixesCuesWithDotMillis() throws Exception {
+        assertEquals("1\n00:00:01,000 --> 00:00:02,000\nIt's me.\n\n2\n00:00:03,000 --> 00:00:04,000\nI know.\n",
+                fix("1\n00:00:01.000 --> 00:00:02.000\nlt's me.\n\n2\n00:00:03.000 --> 00:00:04.000\nl know.\n"));
+    }
+
+    @Test
+    public void fixesCuesWithShortFields() throws Exception {
+        assertEquals("1\n00:00:01,000 --> 00:00:02,000\nIt's first\n\n2\n00:00:05,500 --> 00:00:06,000\nIt's second\n",
+                fix("1\n00:00:01,000 --> 00:00:02,000\nlt's first\n\n2\n0:0:5,5 --> 0:0:6,0\nlt's second\n"));
+    }
+
+    @Test
+    public void keepsUnreadableTimecodesAndFixesTheRest() throws Exception {
+        assertEquals("1\n00:00:01,000 --> 00:00:02,000\nIt's first\n\n2\n00:00:75,000 --> 00:00:76,000\nIt's broken\n\n"
+                        + "3\n00:00:07,000 --> 00:00:08,000\nIt's third\n",
+                fix("1\n00:00:01,000 --> 00:00:02,000\nlt's first\n\n2\n00:00:75,000 --> 00:00:76,000\nlt's broken\n\n"
+                        + "3\n00:00:07,000 --> 00:00:08,000\nlt's third\n"));
+    }
+
+    @Test
+    public void leavesEmptyLinesOut() throws Exception {
+        assertEquals("1\n00:00:01,000 --> 00:00:02,000\nOne\n", fix("1\n00:00:01,000 --> 00:00:02,000\n   \nOne\n\n\n"));
+    }
+
+    /**
+     * Fixes the cues the way fixFile does, without a fixer, which would want a backup dir, JMX and all.
+     */
+    private static String fix(final String srt) throws Exception {
+        final StringWriter out = new StringWriter();
+        try (BufferedWriter writer = new BufferedWriter(out)) {
+            final SrtReader reader = new SrtReader(new BufferedReader(new StringReader(srt)));
+            final SrtWriter srtWriter = new SrtWriter(writer);
+            final Cue cue = new Cue();
+            int number = 0;
+            while (reader.next()) {
+                cue.load(reader, number + 1);
+                if (cue.hasTimecode()) {
+                    cue.setNumber(++number);
+                }
+                final List<String> lines = cue.getLines();
+                for (int i = lines.size() - 1; i >= 0; i--) {
+                    final String line = SrtFileFixer.cleanLine(lines.get(i), null, false, false);
+                    if (line == null) {
+                        lines.remove(i);
+                    } else {
+                        lines.set(i, line);
+                    }
+                }
+                cue.write(srtWriter);
+            }
+        }
+        return out.toString().replace(System.lineSeparator(), "\n");
+    }
+}
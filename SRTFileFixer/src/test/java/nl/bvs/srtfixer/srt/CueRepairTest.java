@@ -0,0 +1,62 @@
+package nl.bvs.srtfixer.srt;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+
+public class CueRepairTest {
+    @Test
+    public void keepsCloseCuesThatDontOverlap() throws IOException {
+        final String srt = "1\n00:00:01,000 --> 00:00:01,100\nOne\n\n2\n00:00:01,200 --> 00:00:02,000\nTwo\n";
+        assertEquals(srt, repair(srt));
+    }
+
+    @Test
+    public void mergesCloseCuesThatOverlap() throws IOException {
+        assertEquals("1\n00:00:01,000 --> 00:00:03,000\nOne\nTwo\n",
+                repair("1\n00:00:01,000 --> 00:00:02,000\nOne\n\n2\n00:00:01,100 --> 00:00:03,000\nTwo\n"));
+    }
+
+    @Test
+    public void trimsOverlaps() throws IOException {
+        assertEquals("1\n00:00:01,000 --> 00:00:02,000\nOne\n\n2\n00:00:02,000 --> 00:00:03,000\nTwo\n",
+                repair("1\n00:00:01,000 --> 00:00:02,500\nOne\n\n2\n00:00:02,000 --> 00:00:03,000\nTwo\n"));
+    }
+
+    @Test
+    public void sortsAndRemovesDuplicates() throws IOException {
+        assertEquals("1\n00:00:01,000 --> 00:00:02,000\nOne\n\n2\n00:00:03,000 --> 00:00:04,000\nTwo\n",
+                repair("1\n00:00:03,000 --> 00:00:04,000\nTwo\n\n2\n00:00:01,000 --> 00:00:02,000\nOne\n\n"
+                        + "3\n00:00:03,000 --> 00:00:04,000\nTwo\n"));
+    }
+
+    @Test
+    public void keepsUnreadableTimecodesInPlace() throws IOException {
+        assertEquals("1\n00:00:01,000 --> 00:00:02,000\nOne\n\n2\n00:00:75,000 --> 00:00:76,000\nTwo\n\n"
+                        + "3\n00:00:07,000 --> 00:00:08,000\nThree\n",
+                repair("1\n00:00:01,000 --> 00:00:02,000\nOne\n\n2\n00:00:75,000 --> 00:00:76,000\nTwo\n\n"
+                        + "3\n00:00:07,000 --> 00:00:08,000\nThree\n"));
+    }
+
+    private static String repair(final String srt) throws IOException {
+        final StringWriter out = new StringWriter();
+        try (BufferedWriter writer = new BufferedWriter(out)) {
+            final SrtReader reader = new SrtReader(new BufferedReader(new StringReader(srt)));
+            final CueRepair repair = new CueRepair(new SrtWriter(writer), Long.MAX_VALUE);
+            final Cue cue = new Cue();
+            int index = 0;
+            while (reader.next()) {
+                cue.load(reader, index++);
+                repair.add(cue);
+            }
+            repair.finish();
+        }
+        return out.toString().replace(System.lineSeparator(), "\n");
+    }
+}
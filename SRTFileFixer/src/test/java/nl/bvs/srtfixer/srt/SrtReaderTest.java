@@ -0,0 +1,63 @@
+package nl.bvs.srtfixer.srt;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SrtReaderTest {
+    @Test
+    public void readsDotMillis() throws IOException {
+        final SrtReader reader = reader("1\n00:00:01.000 --> 00:00:02.000\nOne\n\n2\n00:00:03.000 --> 00:00:04.000\nTwo\n");
+
+        assertTrue(reader.next());
+        assertEquals(1000, reader.getStart());
+        assertEquals(Arrays.asList("One"), reader.getLines());
+        assertTrue(reader.next());
+        assertEquals(2, reader.getNumber());
+        assertEquals(3000, reader.getStart());
+        assertEquals(Arrays.asList("Two"), reader.getLines());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void readsShortFieldsAsCueOfTheirOwn() throws IOException {
+        final SrtReader reader = reader("1\n00:00:01,000 --> 00:00:02,000\nOne\n\n2\n0:0:5,5 --> 0:0:6,0\nTwo\n");
+
+        assertTrue(reader.next());
+        assertEquals(Arrays.asList("One"), reader.getLines());
+        assertTrue(reader.next());
+        assertEquals(5500, reader.getStart());
+        assertEquals(6000, reader.getEnd());
+        assertNull(reader.getTimecodeLine());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void keepsUnreadableTimecodes() throws IOException {
+        final SrtReader reader = reader("1\n00:00:01,000 --> 00:00:02,000\nOne\n\n2\n00:00:75,000 --> 00:00:76,000\nTwo\n\n"
+                + "3\n00:00:07,000 --> 00:00:08,000\nThree\n");
+
+        assertTrue(reader.next());
+        assertTrue(reader.next());
+        assertTrue(reader.hasTimecode());
+        assertEquals(-1, reader.getStart());
+        assertEquals("00:00:75,000 --> 00:00:76,000", reader.getTimecodeLine());
+        assertEquals(Arrays.asList("Two"), reader.getLines());
+        assertTrue(reader.next());
+        assertEquals(7000, reader.getStart());
+        assertNull(reader.getTimecodeLine());
+        assertFalse(reader.next());
+    }
+
+    private static SrtReader reader(final String srt) {
+        return new SrtReader(new BufferedReader(new StringReader(srt)));
+    }
+}
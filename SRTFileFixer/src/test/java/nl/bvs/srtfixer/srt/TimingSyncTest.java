@@ -0,0 +1,32 @@
+package nl.bvs.srtfixer.srt;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class TimingSyncTest {
+    private static final long[] STARTS = {1000, 4000, 9000, 12500, 20000, 26000, 31000, 40000};
+
+    @Test
+    public void findsOffset() {
+        final long[] reference = new long[STARTS.length];
+        for (int i = 0; i < STARTS.length; i++) {
+            reference[i] = STARTS[i] + 2500;
+        }
+
+        final TimingSync sync = TimingSync.find(STARTS, reference, 300000, false);
+        assertNotNull(sync);
+        assertEquals(3500, sync.apply(1000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeMaxOffset() {
+        TimingSync.find(STARTS, STARTS, -1, false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsHugeMaxOffset() {
+        TimingSync.find(STARTS, STARTS, Long.MAX_VALUE / 2, false);
+    }
+}
@@ -0,0 +1,159 @@
+package nl.bvs.srtfixer.util;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class BackupUtilTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File backupDir;
+    private File file;
+
+    @Before
+    public void makeFile() throws IOException {
+        backupDir = folder.newFolder("backups");
+        file = new File(folder.newFolder("subs"), "movie.srt");
+        write(file, "original text");
+    }
+
+    @Test
+    public void restoresACopy() throws IOException {
+        final BackupUtil backupUtil = new BackupUtil(backupDir, BackupMode.COPY);
+        backupUtil.makeBackup(file);
+        write(file, "fixed text");
+
+        assertTrue(backupUtil.restore(file));
+        assertEquals("original text", read(file));
+    }
+
+    @Test
+    public void restoresTheLatestBackup() throws IOException {
+        final BackupUtil backupUtil = new BackupUtil(backupDir, BackupMode.COPY);
+        backupUtil.makeBackup(file);
+        backupUtil.makeBackup(file, "fixed text".getBytes(StandardCharsets.UTF_8));
+        write(file, "fixed again");
+
+        assertTrue(backupUtil.restore(file));
+        assertEquals("fixed text", read(file));
+    }
+
+    @Test
+    public void knowsNothingOfOtherFiles() throws IOException {
+        final BackupUtil backupUtil = new BackupUtil(backupDir, BackupMode.COPY);
+        backupUtil.makeBackup(file);
+
+        assertFalse(backupUtil.restore(new File(file.getParentFile(), "other.srt")));
+    }
+
+    @Test
+    public void restoresACompressedCopy() throws IOException {
+        final BackupUtil backupUtil = new BackupUtil(backupDir, BackupMode.COMPRESSED);
+        backupUtil.makeBackup(file);
+        write(file, "fixed text");
+
+        final List<Path> objects = objects();
+        assertEquals(1, objects.size());
+        assertTrue(objects.get(0).getFileName().toString().endsWith(".gz"));
+
+        assertTrue(backupUtil.restore(file));
+        assertEquals("original text", read(file));
+    }
+
+    @Test
+    public void linksToTheOriginal() throws IOException {
+        new BackupUtil(backupDir, BackupMode.HARD_LINK).makeBackup(file);
+
+        assertTrue(Files.isSameFile(file.toPath(), objects().get(0)));
+    }
+
+    @Test
+    public void copiesWhenItCannotLink() throws IOException {
+        // links can't be made across file systems, so the original goes on another one
+        final File otherDir = new File("/dev/shm");
+        assumeTrue("No other file system to link from",
+                otherDir.isDirectory() && otherDir.canWrite()
+                        && !Files.getFileStore(otherDir.toPath()).equals(Files.getFileStore(backupDir.toPath())));
+
+        final File original = File.createTempFile("movie", ".srt", otherDir);
+        try {
+            write(original, "original text");
+            final BackupUtil backupUtil = new BackupUtil(backupDir, BackupMode.HARD_LINK);
+            backupUtil.makeBackup(original);
+            write(original, "fixed text");
+
+            assertTrue(backupUtil.restore(original, file));
+            assertEquals("original text", read(file));
+        } finally {
+            Files.deleteIfExists(original.toPath());
+        }
+    }
+
+    @Test
+    public void prunesWhatNoBackupNeeds() throws IOException {
+        final File old = new File(file.getParentFile(), "old.srt");
+        final File shared = new File(file.getParentFile(), "shared.srt");
+        write(old, "old text");
+        write(shared, "original text");
+
+        final BackupUtil backupUtil = new BackupUtil(backupDir, BackupMode.COPY);
+        backupUtil.makeBackup(old);
+        backupUtil.makeBackup(shared);
+        age();
+        // the same contents as shared.srt, but recent
+        backupUtil.makeBackup(file);
+        assertEquals(2, objects().size());
+
+        assertEquals(2, backupUtil.prune(TimeUnit.DAYS.toMillis(1)));
+        assertEquals(1, objects().size());
+        assertFalse(backupUtil.restore(old));
+        assertFalse(backupUtil.restore(shared));
+        write(file, "fixed text");
+        assertTrue(backupUtil.restore(file));
+        assertEquals("original text", read(file));
+    }
+
+    /**
+     * Makes every backup so far look like it was made in 1970.
+     */
+    private void age() throws IOException {
+        final Path index = new File(backupDir, "index").toPath();
+        final List<String> lines = new ArrayList<>();
+        for (final String line : Files.readAllLines(index, StandardCharsets.UTF_8)) {
+            lines.add("0" + line.substring(line.indexOf('\t')));
+        }
+        Files.write(index, lines, StandardCharsets.UTF_8);
+    }
+
+    private List<Path> objects() {
+        final List<Path> objects = new ArrayList<>();
+        for (final File object : new File(backupDir, "objects").listFiles()) {
+            objects.add(object.toPath());
+        }
+        return objects;
+    }
+
+    private static void write(final File file, final String contents) throws IOException {
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(final File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
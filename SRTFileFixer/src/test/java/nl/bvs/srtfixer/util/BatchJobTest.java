@@ -0,0 +1,242 @@
+package nl.bvs.srtfixer.util;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BatchJobTest {
+    private static final int RULES_VERSION = 42;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File root;
+
+    @Before
+    public void makeFiles() throws IOException {
+        root = folder.getRoot();
+        write("a.srt", "a");
+        write("b.srt", "b");
+        write("c.srt", "c");
+    }
+
+    @Test
+    public void startsWithAllFiles() throws IOException {
+        try (BatchJob job = BatchJob.open(root, RULES_VERSION)) {
+            assertEquals(names("a.srt", "b.srt", "c.srt"), names(job.files(walk())));
+        }
+    }
+
+    @Test
+    public void skipsDoneFilesAndResumesUnfinishedOnes() throws IOException {
+        try (BatchJob job = BatchJob.open(root, RULES_VERSION)) {
+            for (final File file : job.files(walk())) {
+                if (!file.getName().equals("b.srt")) {
+                    job.done(file);
+                }
+            }
+        }
+
+        // the walk was over, so it isn't walked again
+        try (BatchJob job = BatchJob.open(root, RULES_VERSION)) {
+            assertEquals(names("b.srt"), names(job.files(new Iterable<File>() {
+                @Override
+                public Iterator<File> iterator() {
+                    throw new AssertionError("Walked again");
+                }
+            })));
+        }
+    }
+
+    @Test
+    public void walksAgainWhenTheWalkWasCutShort() throws IOException {
+        final List<File> first = new ArrayList<>();
+        try (BatchJob job = BatchJob.open(root, RULES_VERSION)) {
+            final Iterator<File> files = job.files(walk()).iterator();
+            first.add(files.next());
+            first.add(files.next());
+            job.done(first.get(0));
+        }
+
+        try (BatchJob job = BatchJob.open(root, RULES_VERSION)) {
+            final List<File> second = list(job.files(walk()));
+            // the unfinished one first, then the one that wasn't found yet
+            assertEquals(2, second.size());
+            assertEquals(first.get(1).getName(), second.get(0).getName());
+            assertEquals(names("a.srt", "b.srt", "c.srt"), names(first.get(0), second.get(0), second.get(1)));
+        }
+    }
+
+    @Test
+    public void startsOverForOtherRules() throws IOException {
+        try (BatchJob job = BatchJob.open(root, RULES_VERSION)) {
+            for (final File file : job.files(walk())) {
+                job.done(file);
+            }
+        }
+
+        try (BatchJob job = BatchJob.open(root, RULES_VERSION + 1)) {
+            assertEquals(names("a.srt", "b.srt", "c.srt"), names(job.files(walk())));
+        }
+    }
+
+    @Test
+    public void cutsOffABrokenEnd() throws IOException {
+        try (BatchJob job = BatchJob.open(root, RULES_VERSION)) {
+            final Iterator<File> files = job.files(walk()).iterator();
+            job.done(files.next());
+        }
+        final File jobFile = new File(root, Constants.JOB_FILE_NAME);
+        final long length = jobFile.length();
+
+        // a record cut off halfway: a found file, with a name that was 16 bytes long
+        Files.write(jobFile.toPath(), new byte[]{1, 0, 16, 'x', 'y'}, StandardOpenOption.APPEND);
+
+        try (BatchJob job = BatchJob.open(root, RULES_VERSION)) {
+            assertEquals(length, jobFile.length());
+            assertEquals(2, list(job.files(walk())).size());
+        }
+    }
+
+    @Test
+    public void finishesAnInterruptedRewrite() throws IOException {
+        try (BatchJob job = BatchJob.open(root, RULES_VERSION)) {
+            job.files(walk()).iterator().next();
+        }
+        // killed after the original was removed, before the temp file took its place
+        final File file = unfinished();
+        write("tmp_" + file.getName(), "fixed");
+        Files.delete(file.toPath());
+
+        try (BatchJob job = BatchJob.open(root, RULES_VERSION)) {
+            assertEquals(names("a.srt", "b.srt", "c.srt"), names(job.files(walkWithTempFiles())));
+        }
+        assertEquals("fixed", read(file));
+        assertFalse(new File(root, "tmp_" + file.getName()).exists());
+    }
+
+    @Test
+    public void finishesAnInterruptedRewriteFoundByTheWalk() throws IOException {
+        // a run that was killed before it got to record anything about b.srt
+        write("tmp_b.srt", "fixed");
+        Files.delete(new File(root, "b.srt").toPath());
+
+        try (BatchJob job = BatchJob.open(root, RULES_VERSION)) {
+            assertEquals(names("a.srt", "b.srt", "c.srt"), names(job.files(walkWithTempFiles())));
+        }
+        assertEquals("fixed", read(new File(root, "b.srt")));
+        assertFalse(new File(root, "tmp_b.srt").exists());
+    }
+
+    @Test
+    public void removesAnUnfinishedTempFile() throws IOException {
+        try (BatchJob job = BatchJob.open(root, RULES_VERSION)) {
+            job.files(walk()).iterator().next();
+        }
+        // killed while writing the temp file
+        final File file = unfinished();
+        final String contents = read(file);
+        write("tmp_" + file.getName(), "half");
+
+        try (BatchJob job = BatchJob.open(root, RULES_VERSION)) {
+            assertEquals(names("a.srt", "b.srt", "c.srt"), names(job.files(walkWithTempFiles())));
+        }
+        assertEquals(contents, read(file));
+        assertFalse(new File(root, "tmp_" + file.getName()).exists());
+    }
+
+    @Test
+    public void leavesTempFilesOfOthersAlone() throws IOException {
+        write("tmp_a.srt", "someone else's");
+
+        try (BatchJob job = BatchJob.open(root, RULES_VERSION)) {
+            assertEquals(names("a.srt", "b.srt", "c.srt"), names(job.files(walkWithTempFiles())));
+        }
+        assertEquals("someone else's", read(new File(root, "tmp_a.srt")));
+        assertEquals("a", read(new File(root, "a.srt")));
+    }
+
+    @Test
+    public void removesTheJobWhenFinished() throws IOException {
+        final BatchJob job = BatchJob.open(root, RULES_VERSION);
+        for (final File file : job.files(walk())) {
+            job.done(file);
+        }
+        job.finish();
+        assertFalse(new File(root, Constants.JOB_FILE_NAME).exists());
+
+        try (BatchJob again = BatchJob.open(root, RULES_VERSION)) {
+            assertEquals(3, list(again.files(walk())).size());
+        }
+    }
+
+    /**
+     * @return the one file the job before found, but didn't finish
+     */
+    private File unfinished() throws IOException {
+        try (BatchJob job = BatchJob.open(root, RULES_VERSION)) {
+            final Iterator<File> files = job.files(new ArrayList<File>()).iterator();
+            assertTrue(files.hasNext());
+            return files.next();
+        }
+    }
+
+    private FileFinder.Walk walk() {
+        return new FileFinder().walk(root, "srt");
+    }
+
+    private FileFinder.Walk walkWithTempFiles() {
+        return new FileFinder().walkWithTempFiles(root, "srt");
+    }
+
+    private void write(final String name, final String contents) throws IOException {
+        Files.write(new File(root, name).toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(final File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static List<File> list(final Iterable<File> files) {
+        final List<File> result = new ArrayList<>();
+        for (final File file : files) {
+            result.add(file);
+        }
+        return result;
+    }
+
+    private static List<String> names(final String... names) {
+        final List<String> result = new ArrayList<>();
+        Collections.addAll(result, names);
+        Collections.sort(result);
+        return result;
+    }
+
+    private static List<String> names(final File... files) {
+        final List<String> result = new ArrayList<>();
+        for (final File file : files) {
+            result.add(file.getName());
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private static List<String> names(final Iterable<File> files) {
+        return names(list(files).toArray(new File[0]));
+    }
+}
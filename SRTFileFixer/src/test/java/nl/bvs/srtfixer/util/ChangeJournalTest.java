@@ -0,0 +1,105 @@
+package nl.bvs.srtfixer.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ChangeJournalTest {
+    private static final int RULES = 1 << FixerMetrics.Rule.CAPSED_I.ordinal();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void addsToTheLinesOfTheRunBefore() throws IOException {
+        run(false, "lt is");
+        run(false, "lt was");
+
+        final List<String> lines = lines();
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).contains("\"before\":\"lt is\""));
+        assertTrue(lines.get(1).contains("\"before\":\"lt was\""));
+    }
+
+    @Test
+    public void cutsOffAHalfWrittenLine() throws IOException {
+        run(false, "lt is");
+        Files.write(file(false).toPath(), "{\"file\":\"/subs/mo".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+        run(false, "lt was");
+
+        final List<String> lines = lines();
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(1).startsWith("{\"file\":\"/subs/movie.srt\""));
+    }
+
+    @Test
+    public void writesTheBinaryHeaderOnce() throws IOException {
+        run(true);
+        final long header = file(true).length();
+        run(true, "lt is");
+        final long change = file(true).length() - header;
+        run(true, "lt is");
+
+        assertEquals(header + 2 * change, file(true).length());
+    }
+
+    @Test
+    public void cutsOffAHalfWrittenChange() throws IOException {
+        run(true, "lt is");
+        final long length = file(true).length();
+        // a file name of 16 bytes, of which only 2 made it
+        Files.write(file(true).toPath(), new byte[]{0, 0, 0, 16, '/', 's'}, StandardOpenOption.APPEND);
+        run(true);
+
+        assertEquals(length, file(true).length());
+    }
+
+    @Test
+    public void startsOverWithAHalfWrittenHeader() throws IOException {
+        run(true);
+        final byte[] header = Files.readAllBytes(file(true).toPath());
+        Files.write(file(true).toPath(), Arrays.copyOf(header, header.length - 3));
+        run(true);
+
+        assertArrayEquals(header, Files.readAllBytes(file(true).toPath()));
+    }
+
+    @Test
+    public void startsOverWithAnotherFormat() throws IOException {
+        run(true);
+        final long header = file(true).length();
+        Files.write(file(true).toPath(), "not a journal at all".getBytes(StandardCharsets.UTF_8));
+        run(true);
+
+        assertEquals(header, file(true).length());
+    }
+
+    private void run(final boolean binary, final String... befores) {
+        final ChangeJournal journal = ChangeJournal.open(folder.getRoot(), binary);
+        for (final String before : befores) {
+            journal.add("/subs/movie.srt", 1, RULES, before, before.replace('l', 'I'));
+        }
+        journal.close();
+    }
+
+    private List<String> lines() throws IOException {
+        return Files.readAllLines(file(false).toPath(), StandardCharsets.UTF_8);
+    }
+
+    private File file(final boolean binary) {
+        return new File(folder.getRoot(), Constants.JOURNAL_FILE_NAME + (binary ? ".bin" : ".jsonl"));
+    }
+}
@@ -0,0 +1,96 @@
+package nl.bvs.srtfixer.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FileFinderTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void findsFilesWithTheExtensions() throws IOException {
+        folder.newFolder("Series", "S01");
+        folder.newFile("Movie.srt");
+        folder.newFile("Movie.mkv");
+        folder.newFile("Series/S01/E01.SRT");
+
+        assertEquals(names("E01.SRT", "Movie.srt"), names(new FileFinder().collect(folder.getRoot(), "srt")));
+    }
+
+    @Test
+    public void skipsTempFiles() throws IOException {
+        folder.newFile("Movie.srt");
+        folder.newFile("tmp_Movie.srt");
+
+        assertEquals(names("Movie.srt"), names(new FileFinder().collect(folder.getRoot(), "srt")));
+        assertFalse(new FileFinder().matches(folder.getRoot(), new File(folder.getRoot(), "tmp_Movie.srt"), "srt"));
+    }
+
+    @Test
+    public void findsTempFilesWhenAskedTo() throws IOException {
+        folder.newFile("Movie.srt");
+        folder.newFile("tmp_Movie.srt");
+
+        final List<File> files = new ArrayList<>();
+        try (FileFinder.Walk walk = new FileFinder().walkWithTempFiles(folder.getRoot(), "srt")) {
+            for (final File file : walk) {
+                files.add(file);
+            }
+        }
+        assertEquals(names("Movie.srt", "tmp_Movie.srt"), names(files));
+    }
+
+    @Test
+    public void stopsWalksThatAreClosedHalfway() throws IOException {
+        folder.newFolder("a");
+        folder.newFolder("b");
+        folder.newFile("a/1.srt");
+        folder.newFile("a/2.srt");
+        folder.newFile("b/3.srt");
+
+        final FileFinder.Walk walk = new FileFinder().walk(folder.getRoot(), "srt");
+        final Iterator<File> files = walk.iterator();
+        assertTrue(files.hasNext());
+        files.next();
+        walk.close();
+        assertFalse(files.hasNext());
+    }
+
+    @Test
+    public void staysWithinTheMaxDepth() throws IOException {
+        folder.newFolder("Series");
+        folder.newFile("Movie.srt");
+        folder.newFile("Series/E01.srt");
+
+        final FileFinder finder = new FileFinder(Collections.<String>emptyList(), Collections.<String>emptyList(), 1, true);
+        assertEquals(names("Movie.srt"), names(finder.collect(folder.getRoot(), "srt")));
+    }
+
+    private static List<String> names(final String... names) {
+        final List<String> result = new ArrayList<>();
+        Collections.addAll(result, names);
+        Collections.sort(result);
+        return result;
+    }
+
+    private static List<String> names(final List<File> files) {
+        final List<String> result = new ArrayList<>();
+        for (final File file : files) {
+            result.add(file.getName());
+        }
+        Collections.sort(result);
+        return result;
+    }
+}
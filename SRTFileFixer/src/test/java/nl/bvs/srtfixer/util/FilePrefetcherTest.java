@@ -0,0 +1,96 @@
+package nl.bvs.srtfixer.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FilePrefetcherTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsWholeFiles() throws Exception {
+        final byte[] contents = new byte[100000];
+        for (int i = 0; i < contents.length; i++) {
+            contents[i] = (byte) i;
+        }
+        final File file = write("movie.srt", contents);
+
+        final FilePrefetcher prefetcher = new FilePrefetcher(4, 1024 * 1024);
+        final Collector collector = new Collector();
+        assertTrue(prefetcher.read(file, collector));
+
+        final FilePrefetcher.Prefetched prefetched = collector.take();
+        assertArrayEquals(contents, prefetched.getBytes());
+        assertFalse(prefetched.isStale());
+        prefetcher.release(prefetched);
+        prefetcher.awaitIdle();
+    }
+
+    @Test
+    public void leavesFilesThatDontFitToTheCaller() throws Exception {
+        final File file = write("season.srt", new byte[2048]);
+
+        final FilePrefetcher prefetcher = new FilePrefetcher(4, 1024);
+        final Collector collector = new Collector();
+        assertFalse(prefetcher.read(file, collector));
+
+        // nothing was reserved, so this doesn't wait
+        prefetcher.awaitIdle();
+        assertEquals(0, collector.results.size());
+    }
+
+    @Test
+    public void seesChangesAfterTheRead() throws Exception {
+        final File file = write("movie.srt", new byte[10]);
+
+        final FilePrefetcher prefetcher = new FilePrefetcher(4, 1024);
+        final Collector collector = new Collector();
+        prefetcher.read(file, collector);
+        final FilePrefetcher.Prefetched prefetched = collector.take();
+
+        Files.write(file.toPath(), new byte[20]);
+        assertTrue(prefetched.isStale());
+        prefetcher.release(prefetched);
+    }
+
+    private File write(final String name, final byte[] contents) throws IOException {
+        final File file = folder.newFile(name);
+        Files.write(file.toPath(), contents);
+        return file;
+    }
+
+    private static final class Collector implements FilePrefetcher.Listener {
+        private final BlockingQueue<Object> results = new ArrayBlockingQueue<>(4);
+
+        @Override
+        public void fileRead(final FilePrefetcher.Prefetched prefetched) {
+            results.add(prefetched);
+        }
+
+        @Override
+        public void readFailed(final FilePrefetcher.Prefetched prefetched, final Throwable e) {
+            results.add(e);
+        }
+
+        FilePrefetcher.Prefetched take() throws Exception {
+            final Object result = results.poll(10, TimeUnit.SECONDS);
+            if (result instanceof Throwable) {
+                throw new AssertionError(result);
+            }
+            return (FilePrefetcher.Prefetched) result;
+        }
+    }
+}
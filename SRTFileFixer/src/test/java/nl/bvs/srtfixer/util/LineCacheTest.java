@@ -0,0 +1,117 @@
+package nl.bvs.srtfixer.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class LineCacheTest {
+    private static final int RULES_VERSION = 3;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void dropsTheLineUsedLongestAgo() {
+        final LineCache cache = new LineCache(RULES_VERSION, 2, 1 << 20, 1);
+        cache.put("lt's one", "It's one", null);
+        cache.put("lt's two", "It's two", null);
+        cache.get("lt's one");
+        cache.put("lt's three", "It's three", null);
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("lt's one"));
+        assertNull(cache.get("lt's two"));
+        assertNotNull(cache.get("lt's three"));
+    }
+
+    @Test
+    public void dropsLinesWhenTheMemoryIsFull() {
+        // an unchanged line of 6 chars takes about 140 bytes, two fit
+        final LineCache cache = new LineCache(RULES_VERSION, 100, 300, 1);
+        cache.put("line 1", "line 1", null);
+        cache.put("line 2", "line 2", null);
+        assertEquals(2, cache.size());
+
+        cache.put("line 3", "line 3", null);
+        assertEquals(2, cache.size());
+        assertNull(cache.get("line 1"));
+    }
+
+    @Test
+    public void keepsNoLongLines() {
+        final LineCache cache = new LineCache(RULES_VERSION, 100, 1 << 20);
+        final String line = new String(new char[201]).replace('\0', 'l');
+        cache.put(line, line, null);
+
+        assertEquals(0, cache.size());
+        assertNull(cache.get(line));
+    }
+
+    @Test
+    public void remembersLinesBetweenRuns() {
+        final Path file = folder.getRoot().toPath().resolve("lines");
+        final LineCache cache = new LineCache(RULES_VERSION, 100, 1 << 20);
+        final int[] hits = {FixerMetrics.Rule.LINE_START.ordinal() << 24 | 1};
+        cache.put("lt's me.", "It's me.", hits);
+        final String unchanged = "Nothing to see.";
+        cache.put(unchanged, unchanged, null);
+        cache.save(file);
+
+        final LineCache loaded = new LineCache(RULES_VERSION, 100, 1 << 20);
+        loaded.load(file);
+        assertEquals(2, loaded.size());
+        final LineCache.Entry fixed = loaded.get("lt's me.");
+        assertEquals("It's me.", fixed.getFixedLine("lt's me."));
+        assertArrayEquals(hits, fixed.getHits());
+        assertSame(unchanged, loaded.get(unchanged).getFixedLine(unchanged));
+        assertNull(loaded.get(unchanged).getHits());
+    }
+
+    @Test
+    public void forgetsLinesFixedWithOtherRules() {
+        final Path file = folder.getRoot().toPath().resolve("lines");
+        final LineCache cache = new LineCache(RULES_VERSION, 100, 1 << 20);
+        cache.put("lt's me.", "It's me.", null);
+        cache.save(file);
+
+        final LineCache loaded = new LineCache(RULES_VERSION + 1, 100, 1 << 20);
+        loaded.load(file);
+        assertEquals(0, loaded.size());
+    }
+
+    @Test
+    public void ignoresOtherFiles() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("lines");
+        Files.write(file, new byte[]{'S', 'R', 'T', 'C', 0, 0, 0, 1, 0, 0, 0, RULES_VERSION, 0, 0, 0, 1});
+
+        final LineCache loaded = new LineCache(RULES_VERSION, 100, 1 << 20);
+        loaded.load(file);
+        assertEquals(0, loaded.size());
+    }
+
+    @Test
+    public void replaysTheRulesThatFired() {
+        final LineCache cache = new LineCache(RULES_VERSION, 100, 1 << 20);
+        final FixerMetrics.RuleCounters fixing = new FixerMetrics.RuleCounters();
+        fixing.mark();
+        fixing.hit(FixerMetrics.Rule.CAPSED_I, 2);
+        fixing.hit(FixerMetrics.Rule.LONE_L);
+        cache.put("l said lt", "I said It", fixing.getHitsSinceMark());
+
+        final FixerMetrics.RuleCounters replaying = new FixerMetrics.RuleCounters();
+        replaying.mark();
+        replaying.replay(cache.get("l said lt").getHits());
+        assertArrayEquals(fixing.getHitsSinceMark(), replaying.getHitsSinceMark());
+        assertEquals(fixing.getFired(), replaying.getFired());
+    }
+}
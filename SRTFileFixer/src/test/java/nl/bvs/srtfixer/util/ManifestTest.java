@@ -0,0 +1,106 @@
+package nl.bvs.srtfixer.util;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ManifestTest {
+    private static final int RULES_VERSION = 7;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File root;
+    private File file;
+
+    @Before
+    public void makeFile() throws IOException {
+        root = folder.getRoot();
+        file = new File(root, "movie.srt");
+        write("fixed text");
+    }
+
+    @Test
+    public void knowsNothingAtFirst() {
+        assertFalse(Manifest.load(root, RULES_VERSION).isUpToDate(file));
+    }
+
+    @Test
+    public void remembersFixedFilesBetweenRuns() {
+        record();
+        assertTrue(Manifest.load(root, RULES_VERSION).isUpToDate(file));
+    }
+
+    @Test
+    public void fixesAgainWithOtherRules() {
+        record();
+        assertFalse(Manifest.load(root, RULES_VERSION + 1).isUpToDate(file));
+    }
+
+    @Test
+    public void fixesAgainWhenTheSizeChanged() throws IOException {
+        record();
+        final long lastModified = file.lastModified();
+        write("fixed text, and then some");
+        assertTrue(file.setLastModified(lastModified));
+
+        assertFalse(Manifest.load(root, RULES_VERSION).isUpToDate(file));
+    }
+
+    @Test
+    public void fixesAgainWhenTheContentsChanged() throws IOException {
+        record();
+        write("other text");
+        assertTrue(file.setLastModified(file.lastModified() + 5000));
+
+        assertFalse(Manifest.load(root, RULES_VERSION).isUpToDate(file));
+    }
+
+    @Test
+    public void skipsFilesThatWereOnlyTouched() {
+        record();
+        assertTrue(file.setLastModified(file.lastModified() + 5000));
+
+        assertTrue(Manifest.load(root, RULES_VERSION).isUpToDate(file));
+    }
+
+    @Test
+    public void ignoresABrokenManifest() throws IOException {
+        record();
+        final File manifestFile = new File(root, Constants.MANIFEST_FILE_NAME);
+        final byte[] bytes = Files.readAllBytes(manifestFile.toPath());
+        Files.write(manifestFile.toPath(), Arrays.copyOf(bytes, bytes.length - 3));
+
+        assertFalse(Manifest.load(root, RULES_VERSION).isUpToDate(file));
+    }
+
+    @Test
+    public void forgetsFilesThatAreGone() throws IOException {
+        record();
+        Files.delete(file.toPath());
+        Manifest.load(root, RULES_VERSION).save();
+
+        write("fixed text");
+        assertFalse(Manifest.load(root, RULES_VERSION).isUpToDate(file));
+    }
+
+    private void record() {
+        final Manifest manifest = Manifest.load(root, RULES_VERSION);
+        manifest.record(file);
+        manifest.save();
+    }
+
+    private void write(final String contents) throws IOException {
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,65 @@
+package nl.bvs.srtfixer.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimecodeCodecTest {
+    @Test
+    public void parsesStrictTimecodes() {
+        final String line = "01:02:03,456 --> 01:02:04,000";
+        assertTrue(TimecodeCodec.isTimecodeLine(line));
+        assertEquals(3723456, TimecodeCodec.parseStart(line));
+        assertEquals(3724000, TimecodeCodec.parseEnd(line));
+    }
+
+    @Test
+    public void parsesDotMillis() {
+        final String line = "00:00:01.000 --> 00:00:02.500";
+        assertTrue(TimecodeCodec.isTimecodeLine(line));
+        assertEquals(1000, TimecodeCodec.parseStart(line));
+        assertEquals(2500, TimecodeCodec.parseEnd(line));
+    }
+
+    @Test
+    public void parsesShortFields() {
+        final String line = "0:0:5,5 --> 0:0:6,0";
+        assertTrue(TimecodeCodec.isTimecodeLine(line));
+        assertEquals(5500, TimecodeCodec.parseStart(line));
+        assertEquals(6000, TimecodeCodec.parseEnd(line));
+    }
+
+    @Test
+    public void parsesSloppySpacing() {
+        final String line = " 00:00:01,000-->00:00:02,000 ";
+        assertTrue(TimecodeCodec.isTimecodeLine(line));
+        assertEquals(1000, TimecodeCodec.parseStart(line));
+        assertEquals(2000, TimecodeCodec.parseEnd(line));
+    }
+
+    @Test
+    public void recognizesOutOfRangeTimecodes() {
+        assertTrue(TimecodeCodec.isTimecodeLine("00:00:75,000 --> 00:00:76,000"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOutOfRangeSeconds() {
+        TimecodeCodec.parseStart("00:00:75,000 --> 00:00:76,000");
+    }
+
+    @Test
+    public void ignoresText() {
+        assertFalse(TimecodeCodec.isTimecodeLine("Meet me at 10:30, ok?"));
+        assertFalse(TimecodeCodec.isTimecodeLine("00:00:01,000"));
+        assertFalse(TimecodeCodec.isTimecodeLine("00:00:01,0000 --> 00:00:02,000"));
+    }
+
+    @Test
+    public void formatsTimecodes() {
+        final char[] target = new char[TimecodeCodec.MAX_LINE_LENGTH];
+        final int length = TimecodeCodec.formatTimecodeLine(5500, 6000, target);
+        assertEquals("00:00:05,500 --> 00:00:06,000", new String(target, 0, length));
+    }
+}
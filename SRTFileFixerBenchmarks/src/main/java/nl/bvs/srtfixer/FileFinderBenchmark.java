@@ -0,0 +1,62 @@
+package nl.bvs.srtfixer;
+
+import nl.bvs.srtfixer.util.FileFinder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collecting the SRT files of a generated tree in a temp dir. Mostly measures the
+ * file system, but that's what it does on a real library too.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileFinderBenchmark {
+    @Param({"42"})
+    private long seed;
+
+    @Param({"500"})
+    private int files;
+
+    private File dir;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("srt-corpus").toFile();
+        new SrtCorpus(seed).writeTree(dir, files, 10);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(final Path directory, final IOException e) throws IOException {
+                Files.delete(directory);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Benchmark
+    public List<File> collect() {
+        return new FileFinder().collect(dir, "srt");
+    }
+}
@@ -0,0 +1,138 @@
+package nl.bvs.srtfixer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Not a JMH benchmark: fires generated subtitles at a FixServer from a number of clients at
+ * once and reports the latencies. Starts its own server, unless the url of one is given.
+ *
+ *     java -cp SRTFileFixerBenchmarks/target/benchmarks.jar nl.bvs.srtfixer.FixServerLoadTest \
+ *         [clients] [requests per client] [cues per file] [url]
+ */
+public class FixServerLoadTest {
+    private static final int WARMUP_REQUESTS = 2000;
+    private static final int DISTINCT_FILES = 64;
+
+    public static void main(final String[] args) throws Exception {
+        final int clients = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        final int requestsPerClient = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        final int cues = args.length > 2 ? Integer.parseInt(args[2]) : 800;
+
+        FixServer server = null;
+        final URL url;
+        if (args.length > 3) {
+            url = new URL(args[3]);
+        } else {
+            server = new FixServer(0, Runtime.getRuntime().availableProcessors());
+            server.start();
+            url = new URL("http://localhost:" + server.getPort() + "/fix?shift=-1500");
+        }
+
+        final SrtCorpus corpus = new SrtCorpus(42);
+        final byte[][] files = new byte[DISTINCT_FILES][];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = corpus.generateFile(cues).getBytes(StandardCharsets.UTF_8);
+        }
+
+        try {
+            System.out.println("Warming up with " + WARMUP_REQUESTS + " requests");
+            run(url, files, clients, WARMUP_REQUESTS / clients);
+
+            System.out.println("Running " + clients + " clients, " + requestsPerClient + " requests each, " + cues + " cues per file");
+            final long startNanos = System.nanoTime();
+            final long[] latencies = run(url, files, clients, requestsPerClient);
+            final long elapsedNanos = System.nanoTime() - startNanos;
+
+            Arrays.sort(latencies);
+            System.out.println(String.format(Locale.ROOT, "  %.0f requests/s", latencies.length * 1e9 / elapsedNanos));
+            System.out.println(String.format(Locale.ROOT, "  p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms",
+                    percentile(latencies, 0.5), percentile(latencies, 0.9), percentile(latencies, 0.99),
+                    latencies[latencies.length - 1] / 1e6));
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+        }
+    }
+
+    /**
+     * @return the latency of each request in nanos
+     */
+    private static long[] run(final URL url, final byte[][] files, final int clients, final int requestsPerClient)
+            throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(clients);
+        try {
+            final List<Future<long[]>> results = new ArrayList<>();
+            for (int client = 0; client < clients; client++) {
+                final int offset = client;
+                results.add(executor.submit(new Callable<long[]>() {
+                    @Override
+                    public long[] call() throws IOException {
+                        final long[] latencies = new long[requestsPerClient];
+                        for (int i = 0; i < requestsPerClient; i++) {
+                            final long startNanos = System.nanoTime();
+                            post(url, files[(offset + i) % files.length]);
+                            latencies[i] = System.nanoTime() - startNanos;
+                        }
+                        return latencies;
+                    }
+                }));
+            }
+
+            final long[] latencies = new long[clients * requestsPerClient];
+            int position = 0;
+            for (final Future<long[]> result : results) {
+                final long[] clientLatencies = result.get();
+                System.arraycopy(clientLatencies, 0, latencies, position, clientLatencies.length);
+                position += clientLatencies.length;
+            }
+            return latencies;
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    private static void post(final URL url, final byte[] file) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(file.length);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(file);
+        }
+
+        if (connection.getResponseCode() != 200) {
+            throw new IOException("Request failed :: " + connection.getResponseCode());
+        }
+        // read it all, so the connection can be reused
+        final ByteArrayOutputStream response = new ByteArrayOutputStream(file.length);
+        final byte[] buffer = new byte[16 * 1024];
+        try (InputStream in = connection.getInputStream()) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                response.write(buffer, 0, read);
+            }
+        }
+    }
+
+    private static double percentile(final long[] sortedLatencies, final double fraction) {
+        final int index = (int) Math.ceil(sortedLatencies.length * fraction) - 1;
+        return sortedLatencies[Math.max(0, index)] / 1e6;
+    }
+}
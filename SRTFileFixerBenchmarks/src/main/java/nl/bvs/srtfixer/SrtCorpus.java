@@ -0,0 +1,152 @@
+package nl.bvs.srtfixer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates SRT files that look like they came out of OCR software: 'I's and 'l's mixed
+ * up, italic tags, weird quotes and too many empty lines. The same seed always gives
+ * the same corpus, so benchmark runs can be compared.
+ */
+public final class SrtCorpus {
+    /** Some lines as they should have been. */
+    private static final String[] LINES = {
+            "I don't know what you're talking about.", "Is it true?", "It's all over now.", "If I had known, I would have told you.",
+            "In the morning, we leave.", "I'll be right back.", "I'm not going anywhere.", "I've seen this before.",
+            "Will you please fill in the blanks?", "Hello, hello! Anybody home?", "Call the police!", "We'll see.",
+            "All of them? Really?", "Little Billy is still ill.", "I, for one, welcome them.", "Really? I?", "Why me? I...",
+            "[MUSIC PLAYING]", "[PHONE RINGING]", "MIKE: Over here!", "- What?", "- I think so.", "Chapter II", "Henry VIII",
+            "The llama is eating.", "Ik weet het niet.", "Iemand moet het doen.", "Iedere dag weer."};
+
+    private final Random random;
+
+    public SrtCorpus(final long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * Generates the contents of a single SRT file.
+     *
+     * @param cues the number of cues
+     * @return the SRT file contents
+     */
+    public String generateFile(final int cues) {
+        final StringBuilder builder = new StringBuilder();
+        long start = 1000 + random.nextInt(5000);
+
+        for (int cue = 1; cue <= cues; cue++) {
+            final long end = start + 800 + random.nextInt(4000);
+
+            builder.append(cue).append('\n');
+            builder.append(formatTimecode(start)).append(" --> ").append(formatTimecode(end)).append('\n');
+            final int lines = 1 + random.nextInt(2);
+            for (int i = 0; i < lines; i++) {
+                builder.append(generateLine()).append('\n');
+            }
+
+            // some rippers really like empty lines
+            builder.append('\n');
+            if (random.nextInt(10) == 0) {
+                builder.append("\n\n");
+            }
+
+            start = end + random.nextInt(3000);
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Generates lines of text, without the cue numbers and timecodes.
+     *
+     * @param count the number of lines
+     * @return the lines
+     */
+    public List<String> generateLines(final int count) {
+        final List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            lines.add(generateLine());
+        }
+        return lines;
+    }
+
+    /**
+     * Generates timecode lines.
+     *
+     * @param count the number of lines
+     * @return the lines
+     */
+    public List<String> generateTimecodes(final int count) {
+        final List<String> lines = new ArrayList<>(count);
+        long start = 0;
+        for (int i = 0; i < count; i++) {
+            start += random.nextInt(5000);
+            lines.add(formatTimecode(start) + " --> " + formatTimecode(start + 800 + random.nextInt(4000)));
+        }
+        return lines;
+    }
+
+    /**
+     * Writes a tree of SRT files (and some other files) to the given dir.
+     *
+     * @param dir the dir to write to
+     * @param files the number of SRT files
+     * @param cues the number of cues per file
+     */
+    public void writeTree(final File dir, final int files, final int cues) throws IOException {
+        for (int i = 0; i < files; i++) {
+            final File seasonDir = new File(dir, "Show " + (i % 7) + File.separator + "Season " + (i % 3));
+            if (!seasonDir.isDirectory() && !seasonDir.mkdirs()) {
+                throw new IOException("Could not create " + seasonDir);
+            }
+
+            final String name = "Episode " + i;
+            Files.write(new File(seasonDir, name + ".en.srt").toPath(), generateFile(cues).getBytes(StandardCharsets.UTF_8));
+            if (i % 4 == 0) {
+                Files.write(new File(seasonDir, name + ".nfo").toPath(), name.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private String generateLine() {
+        final String line = LINES[random.nextInt(LINES.length)];
+        final StringBuilder builder = new StringBuilder(line.length() + 16);
+
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            final int roll = random.nextInt(100);
+            if (c == 'I' && roll < 40) {
+                // the classic
+                builder.append('l');
+            } else if (c == 'l' && roll < 30) {
+                builder.append('I');
+            } else if (c == '\'' && roll < 10) {
+                builder.append(roll < 5 ? '`' : '’');
+            } else {
+                builder.append(c);
+            }
+        }
+
+        final int roll = random.nextInt(100);
+        if (roll < 15) {
+            builder.insert(0, "<i>").append("</i>");
+        } else if (roll < 18) {
+            builder.insert(0, "“").append("”");
+        } else if (roll < 22) {
+            builder.insert(0, "-");
+        } else if (roll < 24) {
+            builder.append("  ");
+        }
+
+        return builder.toString();
+    }
+
+    private static String formatTimecode(final long millis) {
+        return String.format("%02d:%02d:%02d,%03d", millis / 3600000, millis / 60000 % 60, millis / 1000 % 60, millis % 1000);
+    }
+}
@@ -0,0 +1,110 @@
+package nl.bvs.srtfixer;
+
+import nl.bvs.srtfixer.util.Settings;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The hot paths of the SrtFileFixer: fixing lines, the separate stages of it and whole files.
+ * The line benchmarks fix a batch of lines per invocation, so the results are per batch.
+ * With the line cache, fixLine only fixes the lines once and then looks them up, like
+ * lines that repeat in a season would be.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SrtFileFixerBenchmark {
+    @Param({"42"})
+    private long seed;
+
+    @Param({"1000"})
+    private int cues;
+
+    @Param({"true", "false"})
+    private boolean lineCache;
+
+    private SrtFileFixer fixer;
+    private LineScanner scanner;
+    private String[] lines;
+    private String file;
+
+    @Setup
+    public void setUp() {
+        // each fork starts with fresh settings, they're read once the SrtFileFixer is loaded
+        Settings.set("line-cache", Boolean.toString(lineCache));
+        final SrtCorpus corpus = new SrtCorpus(seed);
+        final List<String> generated = corpus.generateLines(1000);
+        lines = generated.toArray(new String[generated.size()]);
+        file = corpus.generateFile(cues);
+
+        fixer = new SrtFileFixer();
+        scanner = new LineScanner(SrtFileFixer.getRules());
+    }
+
+    @Benchmark
+    public void fixLine(final Blackhole blackhole) {
+        for (final String line : lines) {
+            blackhole.consume(fixer.fixLine(line, 1));
+        }
+        fixer.discardOutput();
+    }
+
+    /**
+     * Only loading the lines into the scanner, to subtract from the stage benchmarks.
+     */
+    @Benchmark
+    public void scannerReset(final Blackhole blackhole) {
+        for (final String line : lines) {
+            scanner.reset(line);
+            blackhole.consume(scanner);
+        }
+    }
+
+    @Benchmark
+    public void fixCapsedI(final Blackhole blackhole) {
+        for (final String line : lines) {
+            scanner.reset(line);
+            scanner.fixCapsedI(true);
+            blackhole.consume(scanner);
+        }
+    }
+
+    @Benchmark
+    public void fixWordStarts(final Blackhole blackhole) {
+        for (final String line : lines) {
+            scanner.reset(line);
+            scanner.fixWordStarts();
+            blackhole.consume(scanner);
+        }
+    }
+
+    @Benchmark
+    public void fixMistakes(final Blackhole blackhole) {
+        for (final String line : lines) {
+            scanner.reset(line);
+            scanner.fixMistakes();
+            blackhole.consume(scanner);
+        }
+    }
+
+    @Benchmark
+    public String fixFile() throws Exception {
+        final StringWriter output = new StringWriter(file.length());
+        try (BufferedReader reader = new BufferedReader(new StringReader(file));
+             BufferedWriter writer = new BufferedWriter(output)) {
+            fixer.fixFile(reader, writer);
+        }
+        fixer.discardOutput();
+        return output.toString();
+    }
+}
@@ -0,0 +1,64 @@
+package nl.bvs.srtfixer;
+
+import nl.bvs.srtfixer.util.TimecodeCodec;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shifting timecodes: a batch of timecode lines per invocation, and whole files.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SrtTimeFixerBenchmark {
+    private static final long OFFSET_MILLIS = -1500;
+
+    @Param({"42"})
+    private long seed;
+
+    @Param({"1000"})
+    private int cues;
+
+    private SrtTimeFixer fixer;
+    private String[] timecodes;
+    private char[] buffer;
+    private String file;
+
+    @Setup
+    public void setUp() {
+        final SrtCorpus corpus = new SrtCorpus(seed);
+        final List<String> generated = corpus.generateTimecodes(1000);
+        timecodes = generated.toArray(new String[generated.size()]);
+        file = corpus.generateFile(cues);
+
+        fixer = new SrtTimeFixer(OFFSET_MILLIS);
+        buffer = new char[TimecodeCodec.MAX_LINE_LENGTH];
+    }
+
+    @Benchmark
+    public void fixTimecode(final Blackhole blackhole) {
+        for (final String timecode : timecodes) {
+            blackhole.consume(TimecodeCodec.shiftTimecodeLine(timecode, OFFSET_MILLIS, buffer));
+        }
+    }
+
+    @Benchmark
+    public String fixFile() throws Exception {
+        final StringWriter output = new StringWriter(file.length());
+        try (BufferedReader reader = new BufferedReader(new StringReader(file));
+             BufferedWriter writer = new BufferedWriter(output)) {
+            fixer.fixFile(reader, writer);
+        }
+        return output.toString();
+    }
+}
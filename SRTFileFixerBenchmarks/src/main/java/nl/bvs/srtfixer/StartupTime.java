@@ -0,0 +1,76 @@
+package nl.bvs.srtfixer;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Not a JMH benchmark: runs a command that fixes one small generated file, like the download
+ * post-processor does, a number of times, and reports how long each run took from start to
+ * exit. The path of the file is added to the end of the command.
+ *
+ *     java -cp SRTFileFixerBenchmarks/target/benchmarks.jar nl.bvs.srtfixer.StartupTime 20 \
+ *         java -XX:SharedArchiveFile=SRTFileFixer/target/srtfixer.jsa -jar SRTFileFixer/target/SRTFixer-1.0-SNAPSHOT.jar --no-backups
+ *
+ * or with the native binary instead of java -jar: SRTFileFixer/target/srtfixer --no-backups
+ */
+public class StartupTime {
+    private static final int WARMUP_RUNS = 3;
+
+    public static void main(final String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: [runs] [command to fix a file]...");
+            return;
+        }
+        final int runs = Integer.parseInt(args[0]);
+
+        final Path dir = Files.createTempDirectory("srtfixer-startup");
+        final Path file = dir.resolve("small.srt");
+        final byte[] original = new SrtCorpus(42).generateFile(40).getBytes(StandardCharsets.UTF_8);
+        final List<String> command = new ArrayList<>(Arrays.asList(args).subList(1, args.length));
+        command.add(file.toString());
+
+        try {
+            for (int i = 0; i < WARMUP_RUNS; i++) {
+                run(command, file, original);
+            }
+
+            final long[] millis = new long[runs];
+            for (int i = 0; i < runs; i++) {
+                millis[i] = run(command, file, original);
+            }
+            Arrays.sort(millis);
+            System.out.println(String.format(Locale.ROOT, "%d runs :: min %d ms, median %d ms, 90%% %d ms, max %d ms", runs,
+                    millis[0], millis[runs / 2], millis[Math.min(runs - 1, runs * 9 / 10)], millis[runs - 1]));
+        } finally {
+            for (final File leftOver : dir.toFile().listFiles()) {
+                Files.delete(leftOver.toPath());
+            }
+            Files.delete(dir);
+        }
+    }
+
+    /**
+     * @return the time from starting the command to its exit, in milliseconds
+     */
+    private static long run(final List<String> command, final Path file, final byte[] original) throws Exception {
+        // a fresh broken file each time, so there is something to fix
+        Files.write(file, original);
+
+        final long startNanos = System.nanoTime();
+        final Process process = new ProcessBuilder(command).redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.INHERIT).start();
+        final int exitCode = process.waitFor();
+        final long millis = (System.nanoTime() - startNanos) / 1000000L;
+
+        if (exitCode != 0) {
+            throw new IllegalStateException("The command failed with exit code " + exitCode + " :: " + command);
+        }
+        return millis;
+    }
+}
@@ -0,0 +1,78 @@
+package nl.bvs.srtfixer;
+
+import nl.bvs.srtfixer.util.WordIndex;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looking up words in a mapped dictionary of random words, half of them there and half not,
+ * a batch per invocation. Also opening the index, which should cost next to nothing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WordIndexBenchmark {
+    @Param({"42"})
+    private long seed;
+
+    @Param({"200000"})
+    private int words;
+
+    private Path indexFile;
+    private WordIndex index;
+    private char[][] lookups;
+
+    @Setup
+    public void setUp() throws IOException {
+        final Random random = new Random(seed);
+        final List<String> dictionary = new ArrayList<>(words);
+        for (int i = 0; i < words; i++) {
+            dictionary.add(randomWord(random));
+        }
+
+        indexFile = Files.createTempFile("srt-dictionary", ".idx");
+        WordIndex.build(dictionary, indexFile);
+        index = WordIndex.open(indexFile);
+
+        lookups = new char[1000][];
+        for (int i = 0; i < lookups.length; i++) {
+            lookups[i] = (i % 2 == 0 ? dictionary.get(random.nextInt(words)) : randomWord(random)).toCharArray();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(indexFile);
+    }
+
+    @Benchmark
+    public void contains(final Blackhole blackhole) {
+        for (final char[] lookup : lookups) {
+            blackhole.consume(index.contains(lookup, 0, lookup.length));
+        }
+    }
+
+    @Benchmark
+    public WordIndex open() throws IOException {
+        return WordIndex.open(indexFile);
+    }
+
+    private static String randomWord(final Random random) {
+        final char[] word = new char[3 + random.nextInt(10)];
+        for (int i = 0; i < word.length; i++) {
+            word[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(word);
+    }
+}